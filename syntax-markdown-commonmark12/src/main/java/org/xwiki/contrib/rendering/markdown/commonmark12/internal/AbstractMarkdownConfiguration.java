@@ -23,6 +23,7 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
@@ -61,8 +62,62 @@ public abstract class AbstractMarkdownConfiguration
         MacroExtension.class
     );
 
+    private volatile MarkdownConfigurationSnapshot snapshot;
+
+    private long version;
+
     protected abstract Logger getLogger();
 
+    /**
+     * @return the options of this Markdown flavor, computed only when a snapshot is first needed
+     * @since 8.9
+     */
+    protected abstract MutableDataHolder createOptions();
+
+    /**
+     * @return the current immutable configuration snapshot
+     * @since 8.9
+     */
+    public MarkdownConfigurationSnapshot getSnapshot()
+    {
+        MarkdownConfigurationSnapshot current = this.snapshot;
+        if (current == null) {
+            synchronized (this) {
+                current = this.snapshot;
+                if (current == null) {
+                    current = new MarkdownConfigurationSnapshot(createOptions(), ++this.version);
+                    this.snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return a modifiable copy of the current options
+     */
+    public MutableDataHolder getOptions()
+    {
+        return getSnapshot().getOptions().toMutable();
+    }
+
+    /**
+     * Modifies the configuration by applying the passed modifier on a copy of the current options and atomically
+     * replacing the current snapshot with a new one. Snapshots already handed out are left untouched.
+     *
+     * @param modifier the code modifying the options
+     * @return the new snapshot
+     * @since 8.9
+     */
+    public synchronized MarkdownConfigurationSnapshot update(Consumer<MutableDataHolder> modifier)
+    {
+        MutableDataHolder options = getSnapshot().getOptions().toMutable();
+        modifier.accept(options);
+        MarkdownConfigurationSnapshot current = new MarkdownConfigurationSnapshot(options, ++this.version);
+        this.snapshot = current;
+        return current;
+    }
+
     protected MutableDataHolder getDefaultOptions(ParserEmulationProfile parserEmulationProfile,
         List<Class<?>> additionalExtensionClasses)
     {
@@ -85,8 +140,8 @@ public abstract class AbstractMarkdownConfiguration
                 getLogger().warn("Invalid extension: [{}]. Root cause: [{}]", extensionClass.getName(),
                     ExceptionUtils.getRootCauseMessage(e));
             }
-            options.set(Parser.EXTENSIONS, extensions);
         }
+        options.set(Parser.EXTENSIONS, extensions);
 
         return options;
     }
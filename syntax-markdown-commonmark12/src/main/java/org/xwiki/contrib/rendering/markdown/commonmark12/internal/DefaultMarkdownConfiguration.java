@@ -39,7 +39,7 @@ public class DefaultMarkdownConfiguration extends AbstractMarkdownConfiguration
     private Logger logger;
 
     @Override
-    public MutableDataHolder getOptions()
+    protected MutableDataHolder createOptions()
     {
         MutableDataHolder options = getDefaultOptions(ParserEmulationProfile.COMMONMARK, Collections.emptyList());
 
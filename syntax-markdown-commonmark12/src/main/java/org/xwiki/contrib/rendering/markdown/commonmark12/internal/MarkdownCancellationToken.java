@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cooperative cancellation of a parse or a render, with an optional deadline. The token is passed to the parser or
+ * the renderer, which call {@link #checkpoint()} as they progress (for each chunk of characters read by the Flexmark
+ * parser, each visited node, each piece of rendered output); it can be cancelled from another thread with
+ * {@link #cancel()}.
+ * <p>
+ * Checkpoints only increment a counter: the cancellation flag and the deadline are only checked once every
+ * {@value #CHECK_INTERVAL} checkpoints, so that checking them doesn't slow down the parse. The counter is atomic since
+ * a parse may span several threads (see {@link MarkdownOptions#PARALLEL_PARSING_THRESHOLD}).
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public final class MarkdownCancellationToken
+{
+    /**
+     * Number of checkpoints between two checks of the cancellation flag and of the deadline (a power of 2).
+     */
+    public static final int CHECK_INTERVAL = 1024;
+
+    private static final int CHECK_MASK = CHECK_INTERVAL - 1;
+
+    private final long deadline;
+
+    private final boolean hasDeadline;
+
+    private volatile boolean cancelled;
+
+    private final AtomicInteger checkpoints = new AtomicInteger();
+
+    /**
+     * Creates a token without deadline, which aborts the operation only once cancelled.
+     */
+    public MarkdownCancellationToken()
+    {
+        this.deadline = 0;
+        this.hasDeadline = false;
+    }
+
+    /**
+     * @param timeout the maximum duration of the operation, from now
+     */
+    public MarkdownCancellationToken(Duration timeout)
+    {
+        this.deadline = System.nanoTime() + timeout.toNanos();
+        this.hasDeadline = true;
+    }
+
+    /**
+     * Requests the operation using this token to abort at its next check.
+     */
+    public void cancel()
+    {
+        this.cancelled = true;
+    }
+
+    /**
+     * @return {@code true} if the token has been cancelled or its deadline has passed
+     */
+    public boolean isCancelled()
+    {
+        if (!this.cancelled && this.hasDeadline && System.nanoTime() - this.deadline >= 0) {
+            this.cancelled = true;
+        }
+        return this.cancelled;
+    }
+
+    /**
+     * Marks some progress of the operation, checking once every {@value #CHECK_INTERVAL} calls whether it has to
+     * abort.
+     *
+     * @throws MarkdownCancelledException if the token has been cancelled or its deadline has passed
+     */
+    public void checkpoint()
+    {
+        if ((this.checkpoints.incrementAndGet() & CHECK_MASK) == 0) {
+            check();
+        }
+    }
+
+    /**
+     * Checks immediately whether the operation has to abort.
+     *
+     * @throws MarkdownCancelledException if the token has been cancelled or its deadline has passed
+     */
+    public void check()
+    {
+        if (isCancelled()) {
+            throw new MarkdownCancelledException(this.hasDeadline && !isBeforeDeadline()
+                ? "The deadline of the Markdown operation has passed" : "The Markdown operation has been cancelled");
+        }
+    }
+
+    private boolean isBeforeDeadline()
+    {
+        return System.nanoTime() - this.deadline < 0;
+    }
+}
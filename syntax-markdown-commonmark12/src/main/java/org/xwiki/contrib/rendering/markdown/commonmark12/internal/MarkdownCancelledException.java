@@ -0,0 +1,41 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+/**
+ * Thrown by a parse or a render aborted through its {@link MarkdownCancellationToken}. It's unchecked so that it can
+ * be thrown from the Flexmark parser and from the listener events, and it's not wrapped in a
+ * {@link org.xwiki.rendering.parser.ParseException} so that callers can tell an aborted parse from invalid content.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public class MarkdownCancelledException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message the reason of the abort
+     */
+    public MarkdownCancelledException(String message)
+    {
+        super(message);
+    }
+}
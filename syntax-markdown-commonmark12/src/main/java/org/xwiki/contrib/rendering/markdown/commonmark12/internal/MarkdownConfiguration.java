@@ -27,4 +27,10 @@ import com.vladsch.flexmark.util.data.MutableDataHolder;
 public interface MarkdownConfiguration
 {
     MutableDataHolder getOptions();
+
+    /**
+     * @return the current immutable configuration, replaced by a new snapshot when the configuration changes
+     * @since 8.9
+     */
+    MarkdownConfigurationSnapshot getSnapshot();
 }
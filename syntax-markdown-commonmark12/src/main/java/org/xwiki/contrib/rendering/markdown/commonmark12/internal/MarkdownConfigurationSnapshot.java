@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataKeyBase;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.misc.Extension;
+
+/**
+ * Immutable view of a {@link MarkdownConfiguration} at a given point in time. A snapshot is never modified: when the
+ * configuration changes a new snapshot is created with a higher version, so that parsers, renderers and caches can
+ * keep using (and keying on) the snapshot they got without any locking.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public final class MarkdownConfigurationSnapshot
+{
+    private final DataHolder options;
+
+    private final List<Extension> extensions;
+
+    private final String fingerprint;
+
+    private final long version;
+
+    /**
+     * @param options the Flexmark options, copied so that later changes to the passed instance are not visible
+     * @param version the version of the configuration, increased each time the configuration changes
+     */
+    public MarkdownConfigurationSnapshot(DataHolder options, long version)
+    {
+        MutableDataSet copy = new MutableDataSet(options);
+        this.extensions = Collections.unmodifiableList(new ArrayList<>(Parser.EXTENSIONS.get(copy)));
+        copy.set(Parser.EXTENSIONS, this.extensions);
+        this.options = copy.toImmutable();
+        this.fingerprint = computeFingerprint(this.options);
+        this.version = version;
+    }
+
+    /**
+     * @return the immutable Flexmark options; use {@link DataHolder#toMutable()} to get a modifiable copy
+     */
+    public DataHolder getOptions()
+    {
+        return this.options;
+    }
+
+    /**
+     * @return the Flexmark extension instances, resolved once when the snapshot was created
+     */
+    public List<Extension> getExtensions()
+    {
+        return this.extensions;
+    }
+
+    /**
+     * @param extensionClass the extension type to look for
+     * @return {@code true} if one of the configured extensions is an instance of the passed type
+     */
+    public boolean hasExtension(Class<? extends Extension> extensionClass)
+    {
+        for (Extension extension : this.extensions) {
+            if (extensionClass.isInstance(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a stable representation of the options; two snapshots with the same fingerprint configure Flexmark the
+     *         same way, even if they don't have the same version
+     */
+    public String getFingerprint()
+    {
+        return this.fingerprint;
+    }
+
+    /**
+     * @return the version of the configuration this snapshot was taken from
+     */
+    public long getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * Computes a stable representation of the passed options. Two option sets having the same fingerprint produce
+     * parsers that behave the same. Extensions are identified by their class since different extension instances of
+     * the same class are interchangeable.
+     *
+     * @param options the options for which to compute the fingerprint
+     * @return the fingerprint of the passed options
+     */
+    public static String computeFingerprint(DataHolder options)
+    {
+        StringBuilder builder = new StringBuilder();
+        if (options != null) {
+            List<Map.Entry<? extends DataKeyBase<?>, Object>> entries = new ArrayList<>(options.getAll().entrySet());
+            entries.sort((entry1, entry2) -> entry1.getKey().getName().compareTo(entry2.getKey().getName()));
+            for (Map.Entry<? extends DataKeyBase<?>, Object> entry : entries) {
+                builder.append(entry.getKey().getName()).append('=');
+                appendValue(builder, entry.getValue());
+                builder.append(';');
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void appendValue(StringBuilder builder, Object value)
+    {
+        if (value instanceof Collection) {
+            builder.append('[');
+            for (Object item : (Collection<?>) value) {
+                appendValue(builder, item);
+                builder.append(',');
+            }
+            builder.append(']');
+        } else if (value instanceof Object[]) {
+            builder.append(Arrays.deepToString((Object[]) value));
+        } else if (value instanceof Extension) {
+            builder.append(value.getClass().getName());
+        } else {
+            builder.append(value);
+        }
+    }
+}
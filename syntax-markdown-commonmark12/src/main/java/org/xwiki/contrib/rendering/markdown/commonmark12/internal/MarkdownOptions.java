@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import com.vladsch.flexmark.util.data.DataKey;
+
+/**
+ * XWiki specific options. They're stored with the Flexmark options of the {@link MarkdownConfiguration} so that they
+ * are part of its snapshots and can be modified with {@link AbstractMarkdownConfiguration#update}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public final class MarkdownOptions
+{
+    /**
+     * Minimum number of characters from which content is split into chunks of top-level blocks parsed in parallel.
+     * Parallel parsing is disabled when 0 (the default).
+     */
+    public static final DataKey<Integer> PARALLEL_PARSING_THRESHOLD = new DataKey<>("PARALLEL_PARSING_THRESHOLD", 0);
+
+    /**
+     * Minimum number of characters of the chunks of top-level blocks parsed one after the other by the stream parser,
+     * the events of a chunk being generated before the next chunk is parsed, so that the first events are generated
+     * early for large content. Streaming is disabled when 0 (the default). It takes precedence over parallel parsing.
+     */
+    public static final DataKey<Integer> STREAMING_CHUNK_SIZE = new DataKey<>("STREAMING_CHUNK_SIZE", 0);
+
+    /**
+     * Maximum estimated size, in bytes, of the XDOMs of the content of the configured syntax kept in memory by the
+     * parsed XDOM cache so that unchanged content is not parsed again. The cache is not used when 0 (the default).
+     */
+    public static final DataKey<Long> XDOM_CACHE_SIZE = new DataKey<>("XDOM_CACHE_SIZE", 0L);
+
+    /**
+     * Whether to generate an identifier for each heading, from its text (the default). Consumers that don't need
+     * anchors can disable it, in which case headings have no identifier. The identifier is passed to the event
+     * beginning the heading, before the events of its content, so it cannot be generated lazily when the heading is
+     * referenced: it's computed from the Flexmark nodes of the heading, and only the headings containing nodes whose
+     * text isn't known in advance (links, images...) have their events buffered to render their text.
+     */
+    public static final DataKey<Boolean> HEADING_IDS = new DataKey<>("HEADING_IDS", true);
+
+    /**
+     * Maximum number of nested container nodes (the document, lists, list items, quotes, paragraphs, formatting...)
+     * for which events are generated. Deeper nodes only generate the events of their content, wrapped in a metadata
+     * group naming the limit (see
+     * {@link org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.MarkdownLimits}). There's no limit when
+     * 0 (the default) since nodes are traversed without recursion.
+     */
+    public static final DataKey<Integer> MAX_NESTING_DEPTH = new DataKey<>("MAX_NESTING_DEPTH", 0);
+
+    /**
+     * Maximum number of characters parsed. The following lines are not parsed, but generated as a verbatim block
+     * wrapped in a metadata group naming the limit. There's no limit when 0 (the default).
+     */
+    public static final DataKey<Integer> MAX_INPUT_LENGTH = new DataKey<>("MAX_INPUT_LENGTH", 0);
+
+    /**
+     * Maximum number of Flexmark nodes for which events are generated. The nodes beyond the limit are skipped and the
+     * content of the document from the first skipped node is generated as a verbatim block at the end of the document,
+     * wrapped in a metadata group naming the limit. There's no limit when 0 (the default).
+     */
+    public static final DataKey<Integer> MAX_NODES = new DataKey<>("MAX_NODES", 0);
+
+    /**
+     * Maximum number of cells of a table. Bigger tables are generated as a verbatim block, wrapped in a metadata group
+     * naming the limit. There's no limit when 0 (the default).
+     */
+    public static final DataKey<Integer> MAX_TABLE_CELLS = new DataKey<>("MAX_TABLE_CELLS", 0);
+
+    /**
+     * Whether to unlink each top-level block from its document once its events have been generated, so that it can be
+     * garbage collected while the following blocks are visited. This lowers the peak memory needed for large content
+     * (the Flexmark nodes don't stay reachable while the XDOM is built, for example) but leaves the visited documents
+     * empty. Disabled by default.
+     */
+    public static final DataKey<Boolean> RELEASE_VISITED_NODES = new DataKey<>("RELEASE_VISITED_NODES", false);
+
+    /**
+     * How tables are rendered to Markdown, {@link TableRendering#BUFFERED} by default. {@link TableRendering#TWO_PASS}
+     * needs the blocks to render, so a {@link org.xwiki.rendering.renderer.PrintRenderer} receiving events directly
+     * (from a stream parser for example) renders the tables as {@link TableRendering#BUFFERED} with it.
+     */
+    public static final DataKey<TableRendering> TABLE_RENDERING =
+        new DataKey<>("TABLE_RENDERING", TableRendering.BUFFERED);
+
+    /**
+     * The ways of rendering tables to Markdown.
+     */
+    public enum TableRendering
+    {
+        /**
+         * All the cells of a table are kept until its end, so that its columns are padded to the same width.
+         */
+        BUFFERED,
+
+        /**
+         * Each row is printed as soon as it ends, without padding, so that tables of any size are rendered with
+         * bounded memory.
+         */
+        STREAMING,
+
+        /**
+         * The widths of the columns are measured by a first rendering of the blocks whose output is discarded, then
+         * each row is printed padded as soon as it ends. This only applies to blocks rendered with the Markdown
+         * {@link org.xwiki.rendering.renderer.BlockRenderer}: the events sent directly to a
+         * {@link org.xwiki.rendering.renderer.PrintRenderer} cannot be rendered twice, so their tables are rendered
+         * as with {@link #BUFFERED}, with the same output and memory cost.
+         */
+        TWO_PASS
+    }
+
+    private MarkdownOptions()
+    {
+        // Utility class
+    }
+}
@@ -19,15 +19,11 @@
  */
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
-import java.util.Deque;
 
 import org.apache.commons.lang3.StringUtils;
-import org.xwiki.rendering.listener.Listener;
 import org.xwiki.rendering.syntax.Syntax;
 
 import com.vladsch.flexmark.ext.abbreviation.Abbreviation;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 /**
  * Handle abbreviation events.
@@ -37,19 +33,13 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class AbbreviationNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends AbbreviationNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(Abbreviation.class, node -> visitor.visit(node))
-        };
+        dispatcher.register(Abbreviation.class, this::visit);
     }
 
-    public AbbreviationNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners)
-    {
-        super(visitor, listeners);
-    }
-
-    public void visit(Abbreviation node)
+    public void visit(Abbreviation node, VisitorContext context)
     {
         // Since XWiki doesn't support abbreviations, we generate an HTML <abbr> element.
         String html;
@@ -58,6 +48,6 @@ public class AbbreviationNodeVisitor extends AbstractNodeVisitor
         } else {
             html = String.format("<abbr>%s</abbr>", node.getChars().toString());
         }
-        getListener().onRawText(html, Syntax.HTML_4_01);
+        context.getListener().onRawText(html, Syntax.HTML_4_01);
     }
 }
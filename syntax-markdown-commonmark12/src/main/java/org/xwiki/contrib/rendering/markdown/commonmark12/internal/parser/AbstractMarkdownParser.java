@@ -19,8 +19,13 @@
  */
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
+import java.io.IOException;
 import java.io.Reader;
 
+import javax.inject.Inject;
+
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownConfigurationSnapshot;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions;
 import org.xwiki.rendering.block.XDOM;
 import org.xwiki.rendering.internal.parser.XDOMGeneratorListener;
 import org.xwiki.rendering.parser.ParseException;
@@ -36,13 +41,50 @@ import org.xwiki.rendering.parser.StreamParser;
  */
 public abstract class AbstractMarkdownParser implements Parser
 {
+    @Inject
+    private ParsedXDOMCache xdomCache;
+
     protected abstract StreamParser getMarkdownStreamParser();
 
     @Override
     public XDOM parse(Reader source) throws ParseException
     {
+        StreamParser streamParser = getMarkdownStreamParser();
+        if (streamParser instanceof AbstractMarkdownStreamParser) {
+            MarkdownConfigurationSnapshot configuration =
+                ((AbstractMarkdownStreamParser) streamParser).getConfiguration().getSnapshot();
+            if (MarkdownOptions.XDOM_CACHE_SIZE.get(configuration.getOptions()) > 0) {
+                return parse(source, configuration);
+            }
+        }
+
+        return parseXDOM(source);
+    }
+
+    private XDOM parse(Reader source, MarkdownConfigurationSnapshot configuration) throws ParseException
+    {
+        CharSequence content;
+        try {
+            content = ReaderCharBuffer.read(source, ReaderCharBuffer.getLengthHint(source));
+        } catch (IOException e) {
+            throw new ParseException("Failed to read Markdown content", e);
+        }
+
+        // The content that has been read is parsed directly, it's only copied when stored in the cache.
+        AbstractMarkdownStreamParser streamParser = (AbstractMarkdownStreamParser) getMarkdownStreamParser();
+        return this.xdomCache.get(content, getSyntax(), configuration,
+            missingContent -> streamParser.parseXDOM(missingContent, configuration));
+    }
+
+    private XDOM parseXDOM(Reader source) throws ParseException
+    {
+        StreamParser streamParser = getMarkdownStreamParser();
+        if (streamParser instanceof AbstractMarkdownStreamParser) {
+            return ((AbstractMarkdownStreamParser) streamParser).parseXDOM(source);
+        }
+
         XDOMGeneratorListener xdomGeneratorListener = new XDOMGeneratorListener();
-        getMarkdownStreamParser().parse(source, xdomGeneratorListener);
+        streamParser.parse(source, xdomGeneratorListener);
         return xdomGeneratorListener.getXDOM();
     }
 }
@@ -19,49 +19,191 @@
  */
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
+import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 
-import org.apache.commons.io.IOUtils;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancellationToken;
 import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownConfiguration;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownConfigurationSnapshot;
+import org.xwiki.rendering.block.XDOM;
 import org.xwiki.rendering.listener.Listener;
 import org.xwiki.rendering.parser.ParseException;
 import org.xwiki.rendering.parser.StreamParser;
 
-import com.vladsch.flexmark.parser.Parser;
-import com.vladsch.flexmark.util.ast.Node;
-import com.vladsch.flexmark.util.data.MutableDataHolder;
-
 /**
  * Base class for Markdown Streaming Parsers for the various Markdown flavors. Implemented using the
- * <a href="https://github.com/vsch/flexmark-java">Flexmark Java Parser</a>.
+ * <a href="https://github.com/vsch/flexmark-java">Flexmark Java Parser</a>. The content is read here, and parsed by a
+ * {@link MarkdownContentParser} created for each parse with the configuration snapshot taken when the parse starts, so
+ * that a configuration updated during the parse doesn't change how the rest of the content is parsed.
  *
  * @version $Id$
  * @since 8.4
  */
 public abstract class AbstractMarkdownStreamParser implements StreamParser
 {
+    private static final String READ_ERROR = "Failed to read Markdown content";
+
     @Inject
     private Provider<FlexmarkNodeVisitor> visitorProvider;
 
     @Inject
     private MarkdownConfiguration configuration;
 
+    @Inject
+    private FlexmarkParserCache parserCache;
+
+    @Inject
+    private ParsingExecutor executor;
+
     @Override
     public void parse(Reader source, Listener listener) throws ParseException
     {
-        Node document;
-        MutableDataHolder options = getConfiguration().getOptions();
-        Parser parser = Parser.builder(options).build();
+        int lengthHint;
+        try {
+            lengthHint = ReaderCharBuffer.getLengthHint(source);
+        } catch (IOException e) {
+            throw new ParseException(READ_ERROR, e);
+        }
+
+        parse(source, lengthHint, listener);
+    }
+
+    /**
+     * Parses the content of a {@link Reader} whose length is known in advance (an attachment for example), so that
+     * the content can be read at once without growing the read buffer. The content is passed to the Flexmark parser
+     * without being copied into a {@link String}.
+     *
+     * @param source the content to parse
+     * @param lengthHint the expected number of characters, or a negative value if unknown; the content is read
+     *            entirely even if it's longer
+     * @param listener receives the events generated by the parser
+     * @throws ParseException if the content cannot be read or parsed
+     * @since 8.9
+     */
+    public void parse(Reader source, int lengthHint, Listener listener) throws ParseException
+    {
+        createContentParser().parse(read(source, lengthHint), listener);
+    }
+
+    /**
+     * Parses content cooperatively with the caller: the parse is aborted when the passed token is cancelled (from
+     * another thread for example) or when its deadline passes. The token is checked periodically while the Flexmark
+     * parser reads the content and while the events are generated, so a pathological content cannot keep the thread
+     * busy much longer than the deadline. The events generated before the abort have been sent to the listener.
+     *
+     * @param source the content to parse
+     * @param listener receives the events generated by the parser
+     * @param cancellationToken the token checked during the parse, or {@code null} if the parse cannot be cancelled
+     * @throws ParseException if the content cannot be read or parsed
+     * @throws org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancelledException if the parse is
+     *             aborted
+     * @since 8.9
+     */
+    public void parse(Reader source, Listener listener, MarkdownCancellationToken cancellationToken)
+        throws ParseException
+    {
+        CharSequence content;
+        try {
+            content = read(source, ReaderCharBuffer.getLengthHint(source));
+        } catch (IOException e) {
+            throw new ParseException(READ_ERROR, e);
+        }
+
+        createContentParser().parse(content, listener, cancellationToken);
+    }
+
+    /**
+     * Parses a Markdown file without going through a {@link Reader}: the file is memory-mapped and decoded once into
+     * a character buffer that the Flexmark parser uses directly, which avoids the intermediate copies needed to turn a
+     * {@link Reader} into a {@link String}. Malformed or unmappable input is replaced with the charset's default
+     * replacement, as it would be when reading through an {@link java.io.InputStreamReader}.
+     *
+     * @param source the path of the file containing the Markdown content to parse
+     * @param charset the encoding of the file
+     * @param listener receives the events generated by the parser
+     * @throws ParseException if the file cannot be read or parsed
+     * @since 8.9
+     */
+    public void parse(Path source, Charset charset, Listener listener) throws ParseException
+    {
+        CharSequence content;
+        try {
+            content = ReaderCharBuffer.read(source, charset);
+        } catch (IOException e) {
+            throw new ParseException(String.format("Failed to read Markdown file [%s]", source), e);
+        }
+
+        createContentParser().parse(content, listener);
+    }
+
+    /**
+     * Parses content into an XDOM. The XDOM of simple documents is built directly from the Flexmark nodes, which is
+     * cheaper than generating the events that an {@link org.xwiki.rendering.internal.parser.XDOMGeneratorListener}
+     * would turn into blocks (see {@link DirectXDOMBuilder}); the events are generated for the other documents.
+     *
+     * @param source the content to parse
+     * @return the XDOM corresponding to the content
+     * @throws ParseException if the content cannot be read or parsed
+     * @since 8.9
+     */
+    public XDOM parseXDOM(Reader source) throws ParseException
+    {
+        CharSequence content;
         try {
-            document = parser.parse(IOUtils.toString(source));
-        } catch (Exception e) {
-            throw new ParseException("Failed to parse Markdown content", e);
+            content = read(source, ReaderCharBuffer.getLengthHint(source));
+        } catch (IOException e) {
+            throw new ParseException(READ_ERROR, e);
         }
 
-        this.visitorProvider.get().visit(document, listener, getSyntax());
+        return createContentParser().parseXDOM(content);
+    }
+
+    /**
+     * Parses content that has already been read into an XDOM, see {@link #parseXDOM(Reader)}.
+     *
+     * @param content the content to parse
+     * @param configuration the snapshot of the configuration to parse the content with
+     * @return the XDOM corresponding to the content
+     * @throws ParseException if the content cannot be parsed
+     */
+    XDOM parseXDOM(CharSequence content, MarkdownConfigurationSnapshot configuration) throws ParseException
+    {
+        return createContentParser(configuration).parseXDOM(content);
+    }
+
+    /**
+     * @return a new session to parse successive versions of the same source, re-parsing only what changed
+     * @since 8.9
+     */
+    public MarkdownParsingSession createSession()
+    {
+        return new MarkdownParsingSession(this.parserCache.getParser(getConfiguration().getSnapshot()),
+            this.visitorProvider, getSyntax());
+    }
+
+    private MarkdownContentParser createContentParser()
+    {
+        return createContentParser(getConfiguration().getSnapshot());
+    }
+
+    private MarkdownContentParser createContentParser(MarkdownConfigurationSnapshot configuration)
+    {
+        return new MarkdownContentParser(this.parserCache.getParser(configuration), configuration.getOptions(),
+            this.executor, this.visitorProvider.get(), getSyntax());
+    }
+
+    private CharSequence read(Reader source, int lengthHint) throws ParseException
+    {
+        try {
+            return ReaderCharBuffer.read(source, lengthHint);
+        } catch (IOException e) {
+            throw new ParseException(READ_ERROR, e);
+        }
     }
 
     protected MarkdownConfiguration getConfiguration()
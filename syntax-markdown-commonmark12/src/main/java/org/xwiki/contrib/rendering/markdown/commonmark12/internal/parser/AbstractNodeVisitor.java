@@ -19,23 +19,13 @@
  */
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
-import java.io.StringReader;
-import java.util.Deque;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
-import org.xwiki.rendering.listener.InlineFilterListener;
-import org.xwiki.rendering.listener.Listener;
-import org.xwiki.rendering.listener.WrappingListener;
-import org.xwiki.rendering.parser.ParseException;
-import org.xwiki.rendering.parser.StreamParser;
-import org.xwiki.rendering.renderer.PrintRendererFactory;
 import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
 import org.xwiki.rendering.renderer.printer.WikiPrinter;
 
-import com.vladsch.flexmark.ast.util.ReferenceRepository;
 import com.vladsch.flexmark.util.ast.Node;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
 
 public abstract class AbstractNodeVisitor
 {
@@ -44,68 +34,14 @@ public abstract class AbstractNodeVisitor
      */
     protected static final String TITLE_ATTRIBUTE = "title";
 
-    private NodeVisitor visitor;
-
-    private Deque<Listener> listeners;
-
-    private ReferenceRepository referenceRepository;
-
-    private PrintRendererFactory plainRendererFactory;
-
-    private StreamParser plainTextStreamParser;
-
-    public AbstractNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners)
-    {
-        this(visitor, listeners, null);
-    }
-
-    public AbstractNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners,
-        PrintRendererFactory plainRendererFactory)
-    {
-        this(visitor, listeners, plainRendererFactory, null);
-    }
-
-    public AbstractNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners,
-        PrintRendererFactory plainRendererFactory, StreamParser plainTextStreamParser)
-    {
-        this.visitor = visitor;
-        this.listeners = listeners;
-        this.plainRendererFactory = plainRendererFactory;
-        this.plainTextStreamParser = plainTextStreamParser;
-    }
-
     /**
-     * @return the top listener on the stack
+     * Registers the handlers of the nodes supported by this visitor. They're called for all parses so they must keep
+     * the state of a parse in the passed {@link VisitorContext}.
+     *
+     * @param dispatcher the dispatcher to register the handlers in
+     * @since 8.9
      */
-    protected Listener getListener()
-    {
-        return this.listeners.peek();
-    }
-
-    protected void pushListener(Listener listener)
-    {
-        this.listeners.push(listener);
-    }
-
-    protected void popListener()
-    {
-        this.listeners.pop();
-    }
-
-    protected NodeVisitor getVisitor()
-    {
-        return this.visitor;
-    }
-
-    public void setReferenceRepository(ReferenceRepository referenceRepository)
-    {
-        this.referenceRepository = referenceRepository;
-    }
-
-    protected ReferenceRepository getReferenceRepository()
-    {
-        return this.referenceRepository;
-    }
+    public abstract void registerHandlers(NodeDispatcher dispatcher);
 
     /**
      * Add a title parameter.
@@ -120,26 +56,21 @@ public abstract class AbstractNodeVisitor
         }
     }
 
-    protected String extractText(Node node)
+    protected String extractText(Node node, VisitorContext context)
     {
         WikiPrinter printer = new DefaultWikiPrinter();
-        pushListener(this.plainRendererFactory.createRenderer(printer));
-        getVisitor().visitChildren(node);
-        popListener();
+        context.pushListener(context.getPlainRendererFactory().createRenderer(printer));
+        context.visitChildren(node);
+        context.popListener();
         return printer.toString();
     }
 
     /**
      * @param text the text to parse and for which to return XWiki events
+     * @param context the state of the current parse
      */
-    protected void parseInline(String text)
+    protected void parseInline(CharSequence text, VisitorContext context)
     {
-        try {
-            WrappingListener inlineListener = new InlineFilterListener();
-            inlineListener.setWrappedListener(getListener());
-            this.plainTextStreamParser.parse(new StringReader(text), inlineListener);
-        } catch (ParseException e) {
-            throw new RuntimeException(String.format("Error parsing content [%s]", text), e);
-        }
+        InlineTextTokenizer.tokenize(text, context.getListener());
     }
 }
@@ -0,0 +1,177 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+/**
+ * The constants of the binary event format written by {@link BinaryEventRecorder} and read by
+ * {@link BinaryEventReplayer}.
+ * <p>
+ * The stream starts with {@link #MAGIC} and {@link #VERSION}, followed by the events. Each event is an opcode byte
+ * followed by its arguments:
+ * <ul>
+ * <li>integers, lengths and characters are unsigned varints (7 bits per byte, least significant group first);</li>
+ * <li>strings are interned: a varint {@code v} is {@code 0} for {@code null}, {@code 2 * index + 1} for a string
+ * already read and {@code 2 * (length + 1)} for a new string followed by its {@code length} bytes, the new string
+ * getting the next index. Each {@code char} of a string is encoded on its own, on 1 to 3 bytes as in UTF-8, including
+ * the surrogates (as in CESU-8): a supplementary character takes 6 bytes instead of 4, but unpaired surrogates, which
+ * UTF-8 cannot encode, are replayed unchanged;</li>
+ * <li>parameters are a varint count followed by the keys and values, an empty map being replayed as the shared
+ * {@link org.xwiki.rendering.listener.Listener#EMPTY_PARAMETERS};</li>
+ * <li>enums (formats, list types, header levels) are the string of their name, so that the recorded events don't
+ * depend on the order of the enum constants, and booleans a byte.</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class BinaryEventFormat
+{
+    static final int MAGIC = 0xE7;
+
+    static final int VERSION = 2;
+
+    static final int BEGIN_DOCUMENT = 1;
+
+    static final int END_DOCUMENT = 2;
+
+    static final int BEGIN_META_DATA = 3;
+
+    static final int END_META_DATA = 4;
+
+    static final int BEGIN_GROUP = 5;
+
+    static final int END_GROUP = 6;
+
+    static final int BEGIN_FORMAT = 7;
+
+    static final int END_FORMAT = 8;
+
+    static final int BEGIN_PARAGRAPH = 9;
+
+    static final int END_PARAGRAPH = 10;
+
+    static final int BEGIN_LIST = 11;
+
+    static final int END_LIST = 12;
+
+    static final int BEGIN_DEFINITION_LIST = 13;
+
+    static final int END_DEFINITION_LIST = 14;
+
+    static final int BEGIN_LIST_ITEM = 15;
+
+    static final int END_LIST_ITEM = 16;
+
+    static final int BEGIN_LIST_ITEM_WITH_PARAMETERS = 17;
+
+    static final int END_LIST_ITEM_WITH_PARAMETERS = 18;
+
+    static final int BEGIN_DEFINITION_TERM = 19;
+
+    static final int END_DEFINITION_TERM = 20;
+
+    static final int BEGIN_DEFINITION_DESCRIPTION = 21;
+
+    static final int END_DEFINITION_DESCRIPTION = 22;
+
+    static final int BEGIN_TABLE = 23;
+
+    static final int END_TABLE = 24;
+
+    static final int BEGIN_TABLE_ROW = 25;
+
+    static final int END_TABLE_ROW = 26;
+
+    static final int BEGIN_TABLE_CELL = 27;
+
+    static final int END_TABLE_CELL = 28;
+
+    static final int BEGIN_TABLE_HEAD_CELL = 29;
+
+    static final int END_TABLE_HEAD_CELL = 30;
+
+    static final int BEGIN_SECTION = 31;
+
+    static final int END_SECTION = 32;
+
+    static final int BEGIN_HEADER = 33;
+
+    static final int END_HEADER = 34;
+
+    static final int BEGIN_MACRO_MARKER = 35;
+
+    static final int END_MACRO_MARKER = 36;
+
+    static final int BEGIN_QUOTATION = 37;
+
+    static final int END_QUOTATION = 38;
+
+    static final int BEGIN_QUOTATION_LINE = 39;
+
+    static final int END_QUOTATION_LINE = 40;
+
+    static final int BEGIN_FIGURE = 41;
+
+    static final int END_FIGURE = 42;
+
+    static final int BEGIN_FIGURE_CAPTION = 43;
+
+    static final int END_FIGURE_CAPTION = 44;
+
+    static final int BEGIN_LINK = 45;
+
+    static final int END_LINK = 46;
+
+    static final int ON_NEW_LINE = 47;
+
+    static final int ON_MACRO = 48;
+
+    static final int ON_WORD = 49;
+
+    static final int ON_SPACE = 50;
+
+    static final int ON_SPECIAL_SYMBOL = 51;
+
+    static final int ON_ID = 52;
+
+    static final int ON_HORIZONTAL_LINE = 53;
+
+    static final int ON_EMPTY_LINES = 54;
+
+    static final int ON_VERBATIM = 55;
+
+    static final int ON_RAW_TEXT = 56;
+
+    static final int ON_IMAGE = 57;
+
+    /**
+     * Metadata value types.
+     */
+    static final int VALUE_NULL = 0;
+
+    static final int VALUE_STRING = 1;
+
+    static final int VALUE_SYNTAX = 2;
+
+    private BinaryEventFormat()
+    {
+        // Utility class
+    }
+}
@@ -0,0 +1,663 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.rendering.listener.Format;
+import org.xwiki.rendering.listener.HeaderLevel;
+import org.xwiki.rendering.listener.ListType;
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.syntax.Syntax;
+
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_DEFINITION_DESCRIPTION;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_DEFINITION_LIST;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_DEFINITION_TERM;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_DOCUMENT;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_FIGURE;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_FIGURE_CAPTION;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_FORMAT;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_GROUP;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_HEADER;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_LINK;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_LIST;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_LIST_ITEM;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_LIST_ITEM_WITH_PARAMETERS;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_MACRO_MARKER;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_META_DATA;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_PARAGRAPH;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_QUOTATION;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_QUOTATION_LINE;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_SECTION;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_TABLE;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_TABLE_CELL;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_TABLE_HEAD_CELL;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.BEGIN_TABLE_ROW;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_DEFINITION_DESCRIPTION;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_DEFINITION_LIST;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_DEFINITION_TERM;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_DOCUMENT;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_FIGURE;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_FIGURE_CAPTION;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_FORMAT;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_GROUP;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_HEADER;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_LINK;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_LIST;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_LIST_ITEM;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_LIST_ITEM_WITH_PARAMETERS;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_MACRO_MARKER;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_META_DATA;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_PARAGRAPH;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_QUOTATION;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_QUOTATION_LINE;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_SECTION;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_TABLE;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_TABLE_CELL;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_TABLE_HEAD_CELL;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.END_TABLE_ROW;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.MAGIC;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.ON_EMPTY_LINES;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.ON_HORIZONTAL_LINE;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.ON_ID;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.ON_IMAGE;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.ON_MACRO;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.ON_NEW_LINE;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.ON_RAW_TEXT;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.ON_SPACE;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.ON_SPECIAL_SYMBOL;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.ON_VERBATIM;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.ON_WORD;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.VALUE_NULL;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.VALUE_STRING;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.VALUE_SYNTAX;
+import static org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventFormat.VERSION;
+
+/**
+ * Records the events it receives in a compact binary form (see {@link BinaryEventFormat}), so that the result of a
+ * parse can be kept or persisted without keeping an XDOM, and replayed later with {@link BinaryEventReplayer}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public final class BinaryEventRecorder implements Listener
+{
+    private static final int INITIAL_SIZE = 1024;
+
+    private static final int VARINT_MASK = 0x7F;
+
+    private static final int VARINT_CONTINUATION = 0x80;
+
+    private static final int VARINT_SHIFT = 7;
+
+    private static final int TWO_BYTES_MIN = 0x80;
+
+    private static final int THREE_BYTES_MIN = 0x800;
+
+    private static final int TWO_BYTES_PREFIX = 0xC0;
+
+    private static final int THREE_BYTES_PREFIX = 0xE0;
+
+    private static final int CONTINUATION_PREFIX = 0x80;
+
+    private static final int CONTINUATION_MASK = 0x3F;
+
+    private static final int CONTINUATION_SHIFT = 6;
+
+    private byte[] bytes = new byte[INITIAL_SIZE];
+
+    private int size;
+
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    /**
+     * Default constructor.
+     */
+    public BinaryEventRecorder()
+    {
+        writeByte(MAGIC);
+        writeByte(VERSION);
+    }
+
+    /**
+     * @return the recorded events
+     */
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(this.bytes, this.size);
+    }
+
+    @Override
+    public void beginDocument(MetaData metaData)
+    {
+        writeEvent(BEGIN_DOCUMENT, metaData);
+    }
+
+    @Override
+    public void endDocument(MetaData metaData)
+    {
+        writeEvent(END_DOCUMENT, metaData);
+    }
+
+    @Override
+    public void beginMetaData(MetaData metaData)
+    {
+        writeEvent(BEGIN_META_DATA, metaData);
+    }
+
+    @Override
+    public void endMetaData(MetaData metaData)
+    {
+        writeEvent(END_META_DATA, metaData);
+    }
+
+    @Override
+    public void beginGroup(Map<String, String> parameters)
+    {
+        writeEvent(BEGIN_GROUP, parameters);
+    }
+
+    @Override
+    public void endGroup(Map<String, String> parameters)
+    {
+        writeEvent(END_GROUP, parameters);
+    }
+
+    @Override
+    public void beginFormat(Format format, Map<String, String> parameters)
+    {
+        writeByte(BEGIN_FORMAT);
+        writeString(format.name());
+        writeParameters(parameters);
+    }
+
+    @Override
+    public void endFormat(Format format, Map<String, String> parameters)
+    {
+        writeByte(END_FORMAT);
+        writeString(format.name());
+        writeParameters(parameters);
+    }
+
+    @Override
+    public void beginParagraph(Map<String, String> parameters)
+    {
+        writeEvent(BEGIN_PARAGRAPH, parameters);
+    }
+
+    @Override
+    public void endParagraph(Map<String, String> parameters)
+    {
+        writeEvent(END_PARAGRAPH, parameters);
+    }
+
+    @Override
+    public void beginList(ListType type, Map<String, String> parameters)
+    {
+        writeByte(BEGIN_LIST);
+        writeString(type.name());
+        writeParameters(parameters);
+    }
+
+    @Override
+    public void endList(ListType type, Map<String, String> parameters)
+    {
+        writeByte(END_LIST);
+        writeString(type.name());
+        writeParameters(parameters);
+    }
+
+    @Override
+    public void beginDefinitionList(Map<String, String> parameters)
+    {
+        writeEvent(BEGIN_DEFINITION_LIST, parameters);
+    }
+
+    @Override
+    public void endDefinitionList(Map<String, String> parameters)
+    {
+        writeEvent(END_DEFINITION_LIST, parameters);
+    }
+
+    @Override
+    public void beginListItem()
+    {
+        writeByte(BEGIN_LIST_ITEM);
+    }
+
+    @Override
+    public void beginListItem(Map<String, String> parameters)
+    {
+        writeEvent(BEGIN_LIST_ITEM_WITH_PARAMETERS, parameters);
+    }
+
+    @Override
+    public void endListItem()
+    {
+        writeByte(END_LIST_ITEM);
+    }
+
+    @Override
+    public void endListItem(Map<String, String> parameters)
+    {
+        writeEvent(END_LIST_ITEM_WITH_PARAMETERS, parameters);
+    }
+
+    @Override
+    public void beginDefinitionTerm()
+    {
+        writeByte(BEGIN_DEFINITION_TERM);
+    }
+
+    @Override
+    public void endDefinitionTerm()
+    {
+        writeByte(END_DEFINITION_TERM);
+    }
+
+    @Override
+    public void beginDefinitionDescription()
+    {
+        writeByte(BEGIN_DEFINITION_DESCRIPTION);
+    }
+
+    @Override
+    public void endDefinitionDescription()
+    {
+        writeByte(END_DEFINITION_DESCRIPTION);
+    }
+
+    @Override
+    public void beginTable(Map<String, String> parameters)
+    {
+        writeEvent(BEGIN_TABLE, parameters);
+    }
+
+    @Override
+    public void endTable(Map<String, String> parameters)
+    {
+        writeEvent(END_TABLE, parameters);
+    }
+
+    @Override
+    public void beginTableRow(Map<String, String> parameters)
+    {
+        writeEvent(BEGIN_TABLE_ROW, parameters);
+    }
+
+    @Override
+    public void endTableRow(Map<String, String> parameters)
+    {
+        writeEvent(END_TABLE_ROW, parameters);
+    }
+
+    @Override
+    public void beginTableCell(Map<String, String> parameters)
+    {
+        writeEvent(BEGIN_TABLE_CELL, parameters);
+    }
+
+    @Override
+    public void endTableCell(Map<String, String> parameters)
+    {
+        writeEvent(END_TABLE_CELL, parameters);
+    }
+
+    @Override
+    public void beginTableHeadCell(Map<String, String> parameters)
+    {
+        writeEvent(BEGIN_TABLE_HEAD_CELL, parameters);
+    }
+
+    @Override
+    public void endTableHeadCell(Map<String, String> parameters)
+    {
+        writeEvent(END_TABLE_HEAD_CELL, parameters);
+    }
+
+    @Override
+    public void beginSection(Map<String, String> parameters)
+    {
+        writeEvent(BEGIN_SECTION, parameters);
+    }
+
+    @Override
+    public void endSection(Map<String, String> parameters)
+    {
+        writeEvent(END_SECTION, parameters);
+    }
+
+    @Override
+    public void beginHeader(HeaderLevel level, String id, Map<String, String> parameters)
+    {
+        writeByte(BEGIN_HEADER);
+        writeString(level.name());
+        writeString(id);
+        writeParameters(parameters);
+    }
+
+    @Override
+    public void endHeader(HeaderLevel level, String id, Map<String, String> parameters)
+    {
+        writeByte(END_HEADER);
+        writeString(level.name());
+        writeString(id);
+        writeParameters(parameters);
+    }
+
+    @Override
+    public void beginMacroMarker(String name, Map<String, String> parameters, String content, boolean isInline)
+    {
+        writeMacro(BEGIN_MACRO_MARKER, name, parameters, content, isInline);
+    }
+
+    @Override
+    public void endMacroMarker(String name, Map<String, String> parameters, String content, boolean isInline)
+    {
+        writeMacro(END_MACRO_MARKER, name, parameters, content, isInline);
+    }
+
+    @Override
+    public void beginQuotation(Map<String, String> parameters)
+    {
+        writeEvent(BEGIN_QUOTATION, parameters);
+    }
+
+    @Override
+    public void endQuotation(Map<String, String> parameters)
+    {
+        writeEvent(END_QUOTATION, parameters);
+    }
+
+    @Override
+    public void beginQuotationLine()
+    {
+        writeByte(BEGIN_QUOTATION_LINE);
+    }
+
+    @Override
+    public void endQuotationLine()
+    {
+        writeByte(END_QUOTATION_LINE);
+    }
+
+    @Override
+    public void beginFigure(Map<String, String> parameters)
+    {
+        writeEvent(BEGIN_FIGURE, parameters);
+    }
+
+    @Override
+    public void endFigure(Map<String, String> parameters)
+    {
+        writeEvent(END_FIGURE, parameters);
+    }
+
+    @Override
+    public void beginFigureCaption(Map<String, String> parameters)
+    {
+        writeEvent(BEGIN_FIGURE_CAPTION, parameters);
+    }
+
+    @Override
+    public void endFigureCaption(Map<String, String> parameters)
+    {
+        writeEvent(END_FIGURE_CAPTION, parameters);
+    }
+
+    @Override
+    public void beginLink(ResourceReference reference, boolean freestanding, Map<String, String> parameters)
+    {
+        writeReferenceEvent(BEGIN_LINK, reference, freestanding, parameters);
+    }
+
+    @Override
+    public void endLink(ResourceReference reference, boolean freestanding, Map<String, String> parameters)
+    {
+        writeReferenceEvent(END_LINK, reference, freestanding, parameters);
+    }
+
+    @Override
+    public void onNewLine()
+    {
+        writeByte(ON_NEW_LINE);
+    }
+
+    @Override
+    public void onMacro(String id, Map<String, String> parameters, String content, boolean inline)
+    {
+        writeMacro(ON_MACRO, id, parameters, content, inline);
+    }
+
+    @Override
+    public void onWord(String word)
+    {
+        writeByte(ON_WORD);
+        writeString(word);
+    }
+
+    @Override
+    public void onSpace()
+    {
+        writeByte(ON_SPACE);
+    }
+
+    @Override
+    public void onSpecialSymbol(char symbol)
+    {
+        writeByte(ON_SPECIAL_SYMBOL);
+        writeVarint(symbol);
+    }
+
+    @Override
+    public void onId(String name)
+    {
+        writeByte(ON_ID);
+        writeString(name);
+    }
+
+    @Override
+    public void onHorizontalLine(Map<String, String> parameters)
+    {
+        writeEvent(ON_HORIZONTAL_LINE, parameters);
+    }
+
+    @Override
+    public void onEmptyLines(int count)
+    {
+        writeByte(ON_EMPTY_LINES);
+        writeVarint(count);
+    }
+
+    @Override
+    public void onVerbatim(String content, boolean inline, Map<String, String> parameters)
+    {
+        writeByte(ON_VERBATIM);
+        writeString(content);
+        writeBoolean(inline);
+        writeParameters(parameters);
+    }
+
+    @Override
+    public void onRawText(String content, Syntax syntax)
+    {
+        writeByte(ON_RAW_TEXT);
+        writeString(content);
+        writeSyntax(syntax);
+    }
+
+    @Override
+    public void onImage(ResourceReference reference, boolean freestanding, Map<String, String> parameters)
+    {
+        writeReferenceEvent(ON_IMAGE, reference, freestanding, parameters);
+    }
+
+    private void writeEvent(int event, Map<String, String> parameters)
+    {
+        writeByte(event);
+        writeParameters(parameters);
+    }
+
+    private void writeEvent(int event, MetaData metaData)
+    {
+        writeByte(event);
+        Map<String, Object> entries = metaData.getMetaData();
+        writeVarint(entries.size());
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            writeString(entry.getKey());
+            writeValue(entry.getValue());
+        }
+    }
+
+    private void writeMacro(int event, String id, Map<String, String> parameters, String content, boolean inline)
+    {
+        writeByte(event);
+        writeString(id);
+        writeParameters(parameters);
+        writeString(content);
+        writeBoolean(inline);
+    }
+
+    private void writeReferenceEvent(int event, ResourceReference reference, boolean freestanding,
+        Map<String, String> parameters)
+    {
+        writeByte(event);
+        writeString(reference.getType().getScheme());
+        writeBoolean(reference.isTyped());
+        writeString(reference.getReference());
+        writeParameters(reference.getParameters());
+        List<String> baseReferences = reference.getBaseReferences();
+        writeVarint(baseReferences.size());
+        for (String baseReference : baseReferences) {
+            writeString(baseReference);
+        }
+        writeBoolean(freestanding);
+        writeParameters(parameters);
+    }
+
+    private void writeValue(Object value)
+    {
+        if (value == null) {
+            writeByte(VALUE_NULL);
+        } else if (value instanceof String) {
+            writeByte(VALUE_STRING);
+            writeString((String) value);
+        } else if (value instanceof Syntax) {
+            writeByte(VALUE_SYNTAX);
+            writeSyntax((Syntax) value);
+        } else {
+            throw new IllegalArgumentException(
+                String.format("Unsupported metadata value type [%s]", value.getClass().getName()));
+        }
+    }
+
+    private void writeSyntax(Syntax syntax)
+    {
+        writeString(syntax.getType().getId());
+        writeString(syntax.getType().getName());
+        writeString(syntax.getVersion());
+        writeString(syntax.getQualifier());
+    }
+
+    private void writeParameters(Map<String, String> parameters)
+    {
+        writeVarint(parameters.size());
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            writeString(parameter.getKey());
+            writeString(parameter.getValue());
+        }
+    }
+
+    private void writeString(String value)
+    {
+        if (value == null) {
+            writeVarint(0);
+            return;
+        }
+        Integer index = this.strings.get(value);
+        if (index != null) {
+            writeVarint(2 * index + 1);
+        } else {
+            this.strings.put(value, this.strings.size());
+            int length = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char character = value.charAt(i);
+                length += character < TWO_BYTES_MIN ? 1 : character < THREE_BYTES_MIN ? 2 : 3;
+            }
+            writeVarint(2 * (length + 1));
+            ensureCapacity(length);
+            for (int i = 0; i < value.length(); i++) {
+                writeChar(value.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * Encodes a char as in UTF-8, surrogates included (see {@link BinaryEventFormat}).
+     */
+    private void writeChar(char character)
+    {
+        if (character < TWO_BYTES_MIN) {
+            this.bytes[this.size++] = (byte) character;
+        } else if (character < THREE_BYTES_MIN) {
+            this.bytes[this.size++] = (byte) (TWO_BYTES_PREFIX | (character >> CONTINUATION_SHIFT));
+            this.bytes[this.size++] = (byte) (CONTINUATION_PREFIX | (character & CONTINUATION_MASK));
+        } else {
+            this.bytes[this.size++] = (byte) (THREE_BYTES_PREFIX | (character >> (2 * CONTINUATION_SHIFT)));
+            this.bytes[this.size++] =
+                (byte) (CONTINUATION_PREFIX | ((character >> CONTINUATION_SHIFT) & CONTINUATION_MASK));
+            this.bytes[this.size++] = (byte) (CONTINUATION_PREFIX | (character & CONTINUATION_MASK));
+        }
+    }
+
+    private void writeBoolean(boolean value)
+    {
+        writeByte(value ? 1 : 0);
+    }
+
+    private void writeVarint(int value)
+    {
+        ensureCapacity(5);
+        int remaining = value;
+        while ((remaining & ~VARINT_MASK) != 0) {
+            this.bytes[this.size++] = (byte) ((remaining & VARINT_MASK) | VARINT_CONTINUATION);
+            remaining >>>= VARINT_SHIFT;
+        }
+        this.bytes[this.size++] = (byte) remaining;
+    }
+
+    private void writeByte(int value)
+    {
+        ensureCapacity(1);
+        this.bytes[this.size++] = (byte) value;
+    }
+
+    private void ensureCapacity(int length)
+    {
+        if (this.size + length > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.size + length));
+        }
+    }
+}
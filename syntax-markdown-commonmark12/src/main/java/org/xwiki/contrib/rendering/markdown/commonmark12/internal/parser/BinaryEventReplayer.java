@@ -0,0 +1,418 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.rendering.listener.Format;
+import org.xwiki.rendering.listener.HeaderLevel;
+import org.xwiki.rendering.listener.ListType;
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.listener.reference.AttachmentResourceReference;
+import org.xwiki.rendering.listener.reference.DocumentResourceReference;
+import org.xwiki.rendering.listener.reference.InterWikiResourceReference;
+import org.xwiki.rendering.listener.reference.PageResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceType;
+import org.xwiki.rendering.listener.reference.SpaceResourceReference;
+import org.xwiki.rendering.listener.reference.UserResourceReference;
+import org.xwiki.rendering.parser.ParseException;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.rendering.syntax.SyntaxType;
+
+/**
+ * Replays the events recorded by {@link BinaryEventRecorder} on any {@link Listener}, without parsing the Markdown
+ * content again.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public final class BinaryEventReplayer
+{
+    private static final int VARINT_MASK = 0x7F;
+
+    private static final int VARINT_CONTINUATION = 0x80;
+
+    private static final int VARINT_SHIFT = 7;
+
+    private static final int MAX_VARINT_SHIFT = 28;
+
+    private static final int BYTE_MASK = 0xFF;
+
+    private static final String TRUNCATED = "Truncated binary event stream";
+
+    private static final int ONE_BYTE_MAX = 0x7F;
+
+    private static final int TWO_BYTES_MASK = 0xE0;
+
+    private static final int TWO_BYTES_PREFIX = 0xC0;
+
+    private static final int TWO_BYTES_VALUE_MASK = 0x1F;
+
+    private static final int THREE_BYTES_MASK = 0xF0;
+
+    private static final int THREE_BYTES_PREFIX = 0xE0;
+
+    private static final int THREE_BYTES_VALUE_MASK = 0x0F;
+
+    private static final int CONTINUATION_MASK = 0xC0;
+
+    private static final int CONTINUATION_PREFIX = 0x80;
+
+    private static final int CONTINUATION_VALUE_MASK = 0x3F;
+
+    private static final int CONTINUATION_SHIFT = 6;
+
+    /**
+     * The readers of the events, indexed by opcode.
+     */
+    private static final EventReader[] READERS = new EventReader[BinaryEventFormat.ON_IMAGE + 1];
+
+    /**
+     * Reads the arguments of an event and sends it to the listener.
+     */
+    @FunctionalInterface
+    private interface EventReader
+    {
+        void read(BinaryEventReplayer replayer, Listener listener) throws ParseException;
+    }
+
+    private final byte[] bytes;
+
+    private int position;
+
+    private final List<String> strings = new ArrayList<>();
+
+    static {
+        registerDocumentEvents();
+        registerBlockEvents();
+        registerListAndTableEvents();
+        registerInlineEvents();
+    }
+
+    private BinaryEventReplayer(byte[] bytes)
+    {
+        this.bytes = bytes;
+    }
+
+    /**
+     * @param events the events recorded by a {@link BinaryEventRecorder}
+     * @param listener the listener to send the events to
+     * @throws ParseException if the events are not in the expected format
+     */
+    public static void replay(byte[] events, Listener listener) throws ParseException
+    {
+        BinaryEventReplayer replayer = new BinaryEventReplayer(events);
+        if (replayer.readByte() != BinaryEventFormat.MAGIC) {
+            throw new ParseException("Not a binary event stream");
+        }
+        int version = replayer.readByte();
+        if (version != BinaryEventFormat.VERSION) {
+            throw new ParseException(String.format("Unsupported binary event stream version [%d]", version));
+        }
+        while (replayer.position < events.length) {
+            int opcode = replayer.readByte();
+            EventReader reader = opcode < READERS.length ? READERS[opcode] : null;
+            if (reader == null) {
+                throw new ParseException(
+                    String.format("Unknown event [%d] at offset [%d]", opcode, replayer.position - 1));
+            }
+            reader.read(replayer, listener);
+        }
+    }
+
+    private static void registerDocumentEvents()
+    {
+        READERS[BinaryEventFormat.BEGIN_DOCUMENT] = (r, l) -> l.beginDocument(r.readMetaData());
+        READERS[BinaryEventFormat.END_DOCUMENT] = (r, l) -> l.endDocument(r.readMetaData());
+        READERS[BinaryEventFormat.BEGIN_META_DATA] = (r, l) -> l.beginMetaData(r.readMetaData());
+        READERS[BinaryEventFormat.END_META_DATA] = (r, l) -> l.endMetaData(r.readMetaData());
+        READERS[BinaryEventFormat.BEGIN_GROUP] = (r, l) -> l.beginGroup(r.readParameters());
+        READERS[BinaryEventFormat.END_GROUP] = (r, l) -> l.endGroup(r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_SECTION] = (r, l) -> l.beginSection(r.readParameters());
+        READERS[BinaryEventFormat.END_SECTION] = (r, l) -> l.endSection(r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_HEADER] =
+            (r, l) -> l.beginHeader(r.readEnum(HeaderLevel.class), r.readString(), r.readParameters());
+        READERS[BinaryEventFormat.END_HEADER] =
+            (r, l) -> l.endHeader(r.readEnum(HeaderLevel.class), r.readString(), r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_MACRO_MARKER] =
+            (r, l) -> l.beginMacroMarker(r.readString(), r.readParameters(), r.readString(), r.readBoolean());
+        READERS[BinaryEventFormat.END_MACRO_MARKER] =
+            (r, l) -> l.endMacroMarker(r.readString(), r.readParameters(), r.readString(), r.readBoolean());
+        READERS[BinaryEventFormat.ON_MACRO] =
+            (r, l) -> l.onMacro(r.readString(), r.readParameters(), r.readString(), r.readBoolean());
+    }
+
+    private static void registerBlockEvents()
+    {
+        READERS[BinaryEventFormat.BEGIN_PARAGRAPH] = (r, l) -> l.beginParagraph(r.readParameters());
+        READERS[BinaryEventFormat.END_PARAGRAPH] = (r, l) -> l.endParagraph(r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_QUOTATION] = (r, l) -> l.beginQuotation(r.readParameters());
+        READERS[BinaryEventFormat.END_QUOTATION] = (r, l) -> l.endQuotation(r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_QUOTATION_LINE] = (r, l) -> l.beginQuotationLine();
+        READERS[BinaryEventFormat.END_QUOTATION_LINE] = (r, l) -> l.endQuotationLine();
+        READERS[BinaryEventFormat.BEGIN_FIGURE] = (r, l) -> l.beginFigure(r.readParameters());
+        READERS[BinaryEventFormat.END_FIGURE] = (r, l) -> l.endFigure(r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_FIGURE_CAPTION] = (r, l) -> l.beginFigureCaption(r.readParameters());
+        READERS[BinaryEventFormat.END_FIGURE_CAPTION] = (r, l) -> l.endFigureCaption(r.readParameters());
+        READERS[BinaryEventFormat.ON_HORIZONTAL_LINE] = (r, l) -> l.onHorizontalLine(r.readParameters());
+        READERS[BinaryEventFormat.ON_EMPTY_LINES] = (r, l) -> l.onEmptyLines(r.readVarint());
+        READERS[BinaryEventFormat.ON_VERBATIM] =
+            (r, l) -> l.onVerbatim(r.readString(), r.readBoolean(), r.readParameters());
+        READERS[BinaryEventFormat.ON_RAW_TEXT] = (r, l) -> l.onRawText(r.readString(), r.readSyntax());
+    }
+
+    private static void registerListAndTableEvents()
+    {
+        READERS[BinaryEventFormat.BEGIN_LIST] =
+            (r, l) -> l.beginList(r.readEnum(ListType.class), r.readParameters());
+        READERS[BinaryEventFormat.END_LIST] = (r, l) -> l.endList(r.readEnum(ListType.class), r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_LIST_ITEM] = (r, l) -> l.beginListItem();
+        READERS[BinaryEventFormat.END_LIST_ITEM] = (r, l) -> l.endListItem();
+        READERS[BinaryEventFormat.BEGIN_LIST_ITEM_WITH_PARAMETERS] = (r, l) -> l.beginListItem(r.readParameters());
+        READERS[BinaryEventFormat.END_LIST_ITEM_WITH_PARAMETERS] = (r, l) -> l.endListItem(r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_DEFINITION_LIST] = (r, l) -> l.beginDefinitionList(r.readParameters());
+        READERS[BinaryEventFormat.END_DEFINITION_LIST] = (r, l) -> l.endDefinitionList(r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_DEFINITION_TERM] = (r, l) -> l.beginDefinitionTerm();
+        READERS[BinaryEventFormat.END_DEFINITION_TERM] = (r, l) -> l.endDefinitionTerm();
+        READERS[BinaryEventFormat.BEGIN_DEFINITION_DESCRIPTION] = (r, l) -> l.beginDefinitionDescription();
+        READERS[BinaryEventFormat.END_DEFINITION_DESCRIPTION] = (r, l) -> l.endDefinitionDescription();
+        READERS[BinaryEventFormat.BEGIN_TABLE] = (r, l) -> l.beginTable(r.readParameters());
+        READERS[BinaryEventFormat.END_TABLE] = (r, l) -> l.endTable(r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_TABLE_ROW] = (r, l) -> l.beginTableRow(r.readParameters());
+        READERS[BinaryEventFormat.END_TABLE_ROW] = (r, l) -> l.endTableRow(r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_TABLE_CELL] = (r, l) -> l.beginTableCell(r.readParameters());
+        READERS[BinaryEventFormat.END_TABLE_CELL] = (r, l) -> l.endTableCell(r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_TABLE_HEAD_CELL] = (r, l) -> l.beginTableHeadCell(r.readParameters());
+        READERS[BinaryEventFormat.END_TABLE_HEAD_CELL] = (r, l) -> l.endTableHeadCell(r.readParameters());
+    }
+
+    private static void registerInlineEvents()
+    {
+        READERS[BinaryEventFormat.BEGIN_FORMAT] =
+            (r, l) -> l.beginFormat(r.readEnum(Format.class), r.readParameters());
+        READERS[BinaryEventFormat.END_FORMAT] =
+            (r, l) -> l.endFormat(r.readEnum(Format.class), r.readParameters());
+        READERS[BinaryEventFormat.BEGIN_LINK] =
+            (r, l) -> l.beginLink(r.readReference(), r.readBoolean(), r.readParameters());
+        READERS[BinaryEventFormat.END_LINK] =
+            (r, l) -> l.endLink(r.readReference(), r.readBoolean(), r.readParameters());
+        READERS[BinaryEventFormat.ON_IMAGE] =
+            (r, l) -> l.onImage(r.readReference(), r.readBoolean(), r.readParameters());
+        READERS[BinaryEventFormat.ON_NEW_LINE] = (r, l) -> l.onNewLine();
+        READERS[BinaryEventFormat.ON_WORD] = (r, l) -> l.onWord(r.readString());
+        READERS[BinaryEventFormat.ON_SPACE] = (r, l) -> l.onSpace();
+        READERS[BinaryEventFormat.ON_SPECIAL_SYMBOL] = (r, l) -> l.onSpecialSymbol((char) r.readVarint());
+        READERS[BinaryEventFormat.ON_ID] = (r, l) -> l.onId(r.readString());
+    }
+
+    private MetaData readMetaData() throws ParseException
+    {
+        int count = readVarint();
+        Map<String, Object> entries = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String key = readString();
+            int type = readByte();
+            if (type == BinaryEventFormat.VALUE_NULL) {
+                entries.put(key, null);
+            } else if (type == BinaryEventFormat.VALUE_STRING) {
+                entries.put(key, readString());
+            } else if (type == BinaryEventFormat.VALUE_SYNTAX) {
+                entries.put(key, readSyntax());
+            } else {
+                throw new ParseException(String.format("Unknown metadata value type [%d]", type));
+            }
+        }
+        return new MetaData(entries);
+    }
+
+    private Syntax readSyntax() throws ParseException
+    {
+        String typeId = readString();
+        String typeName = readString();
+        String version = readString();
+        String qualifier = readString();
+        return new Syntax(new SyntaxType(typeId, typeName), version, qualifier);
+    }
+
+    private ResourceReference readReference() throws ParseException
+    {
+        String scheme = readString();
+        boolean typed = readBoolean();
+        String rawReference = readString();
+        ResourceReference reference = createReference(scheme, rawReference);
+        reference.setTyped(typed);
+        reference.setParameters(readParameters());
+        int baseReferenceCount = readVarint();
+        if (baseReferenceCount > 0) {
+            List<String> baseReferences = new ArrayList<>(baseReferenceCount);
+            for (int i = 0; i < baseReferenceCount; i++) {
+                baseReferences.add(readString());
+            }
+            reference.addBaseReferences(baseReferences);
+        }
+        return reference;
+    }
+
+    /**
+     * Some listeners check the class of the references, so they are created with the class used by the reference
+     * parsers.
+     */
+    private ResourceReference createReference(String scheme, String rawReference)
+    {
+        ResourceReference reference;
+        if (ResourceType.DOCUMENT.getScheme().equals(scheme)) {
+            reference = new DocumentResourceReference(rawReference);
+        } else if (ResourceType.ATTACHMENT.getScheme().equals(scheme)) {
+            reference = new AttachmentResourceReference(rawReference);
+        } else if (ResourceType.PAGE.getScheme().equals(scheme)) {
+            reference = new PageResourceReference(rawReference);
+        } else if (ResourceType.SPACE.getScheme().equals(scheme)) {
+            reference = new SpaceResourceReference(rawReference);
+        } else if (ResourceType.USER.getScheme().equals(scheme)) {
+            reference = new UserResourceReference(rawReference);
+        } else if (ResourceType.INTERWIKI.getScheme().equals(scheme)) {
+            reference = new InterWikiResourceReference(rawReference);
+        } else {
+            reference = new ResourceReference(rawReference, new ResourceType(scheme));
+        }
+        return reference;
+    }
+
+    private Map<String, String> readParameters() throws ParseException
+    {
+        int count = readVarint();
+        if (count == 0) {
+            return Listener.EMPTY_PARAMETERS;
+        }
+        Map<String, String> parameters = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            parameters.put(readString(), readString());
+        }
+        return parameters;
+    }
+
+    private <E extends Enum<E>> E readEnum(Class<E> type) throws ParseException
+    {
+        String name = readString();
+        // The names are checked so that an unknown value (recorded with a later version of the enum for example)
+        // fails the replay instead of being replayed as another value.
+        try {
+            return Enum.valueOf(type, String.valueOf(name));
+        } catch (IllegalArgumentException e) {
+            throw new ParseException(
+                String.format("Invalid [%s] value [%s] at offset [%d]", type.getSimpleName(), name, this.position), e);
+        }
+    }
+
+    private String readString() throws ParseException
+    {
+        int value = readVarint();
+        if (value == 0) {
+            return null;
+        } else if ((value & 1) == 1) {
+            int index = value >>> 1;
+            if (index >= this.strings.size()) {
+                throw new ParseException(String.format("Invalid string index [%d] at offset [%d]", index,
+                    this.position));
+            }
+            return this.strings.get(index);
+        }
+        int length = (value >>> 1) - 1;
+        if (length > this.bytes.length - this.position) {
+            throw new ParseException(TRUNCATED);
+        }
+        String string = decodeString(this.position + length);
+        this.strings.add(string);
+        return string;
+    }
+
+    /**
+     * Decodes the chars encoded as in UTF-8, surrogates included (see {@link BinaryEventFormat}), until the passed
+     * offset.
+     */
+    private String decodeString(int end) throws ParseException
+    {
+        char[] chars = new char[end - this.position];
+        int length = 0;
+        while (this.position < end) {
+            int current = this.bytes[this.position++] & BYTE_MASK;
+            if (current <= ONE_BYTE_MAX) {
+                chars[length++] = (char) current;
+            } else if ((current & TWO_BYTES_MASK) == TWO_BYTES_PREFIX) {
+                chars[length++] = (char) (((current & TWO_BYTES_VALUE_MASK) << CONTINUATION_SHIFT)
+                    | readContinuation(end));
+            } else if ((current & THREE_BYTES_MASK) == THREE_BYTES_PREFIX) {
+                int high = ((current & THREE_BYTES_VALUE_MASK) << CONTINUATION_SHIFT) | readContinuation(end);
+                chars[length++] = (char) ((high << CONTINUATION_SHIFT) | readContinuation(end));
+            } else {
+                throw invalidString();
+            }
+        }
+        return new String(chars, 0, length);
+    }
+
+    private int readContinuation(int end) throws ParseException
+    {
+        if (this.position >= end) {
+            throw invalidString();
+        }
+        int current = this.bytes[this.position++] & BYTE_MASK;
+        if ((current & CONTINUATION_MASK) != CONTINUATION_PREFIX) {
+            throw invalidString();
+        }
+        return current & CONTINUATION_VALUE_MASK;
+    }
+
+    private ParseException invalidString()
+    {
+        return new ParseException(String.format("Invalid string encoding at offset [%d]", this.position - 1));
+    }
+
+    private boolean readBoolean() throws ParseException
+    {
+        return readByte() != 0;
+    }
+
+    private int readVarint() throws ParseException
+    {
+        int value = 0;
+        for (int shift = 0; shift <= MAX_VARINT_SHIFT; shift += VARINT_SHIFT) {
+            int current = readByte();
+            value |= (current & VARINT_MASK) << shift;
+            if ((current & VARINT_CONTINUATION) == 0) {
+                return value;
+            }
+        }
+        throw new ParseException(String.format("Invalid varint at offset [%d]", this.position));
+    }
+
+    private int readByte() throws ParseException
+    {
+        if (this.position >= this.bytes.length) {
+            throw new ParseException(TRUNCATED);
+        }
+        return this.bytes[this.position++] & BYTE_MASK;
+    }
+}
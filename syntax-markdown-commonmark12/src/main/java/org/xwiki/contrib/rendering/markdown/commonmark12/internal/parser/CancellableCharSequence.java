@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancellationToken;
+
+/**
+ * A view on content marking a checkpoint of a {@link MarkdownCancellationToken} for each chunk of characters read, so
+ * that the Flexmark parser, which reads the content through the
+ * {@link com.vladsch.flexmark.util.sequence.BasedSequence} it's given, can be aborted while it parses pathological
+ * content. A checkpoint is marked when a character starting a chunk is read, which happens each time the parser goes
+ * through the chunk, without counting the characters read.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class CancellableCharSequence implements CharSequence
+{
+    /**
+     * The number of characters of the chunks (a power of 2).
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final CharSequence content;
+
+    private final MarkdownCancellationToken cancellationToken;
+
+    /**
+     * @param content the content to read
+     * @param cancellationToken the token to mark a checkpoint of for each chunk of characters read
+     */
+    CancellableCharSequence(CharSequence content, MarkdownCancellationToken cancellationToken)
+    {
+        this.content = content;
+        this.cancellationToken = cancellationToken;
+    }
+
+    @Override
+    public int length()
+    {
+        return this.content.length();
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        if ((index & CHUNK_MASK) == 0) {
+            this.cancellationToken.checkpoint();
+        }
+        return this.content.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        return new CancellableCharSequence(this.content.subSequence(start, end), this.cancellationToken);
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.content.toString();
+    }
+}
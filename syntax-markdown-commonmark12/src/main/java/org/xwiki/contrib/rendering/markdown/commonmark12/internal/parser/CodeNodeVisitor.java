@@ -20,17 +20,13 @@
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
 import java.util.Collections;
-import java.util.Deque;
 import java.util.Map;
 
-import org.xwiki.rendering.listener.Listener;
 
 import com.vladsch.flexmark.ast.Code;
 import com.vladsch.flexmark.ast.FencedCodeBlock;
 import com.vladsch.flexmark.ast.IndentedCodeBlock;
 import com.vladsch.flexmark.ast.ListItem;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 /**
  * Handle Code events.
@@ -40,63 +36,64 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class CodeNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends CodeNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
-    {
-        return new VisitHandler<?>[]{
-            new VisitHandler<>(Code.class, node -> visitor.visit(node)),
-            new VisitHandler<>(FencedCodeBlock.class, node -> visitor.visit(node)),
-            new VisitHandler<>(IndentedCodeBlock.class, node -> visitor.visit(node))
-        };
-    }
-
     /**
      * Id of the code macro.
      */
-    private static final String CODE_MACRO_ID = "code";
+    static final String CODE_MACRO_ID = "code";
 
-    public CodeNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        super(visitor, listeners);
+        dispatcher.register(Code.class, this::visit);
+        dispatcher.register(FencedCodeBlock.class, this::visit);
+        dispatcher.register(IndentedCodeBlock.class, this::visit);
     }
 
-    public void visit(Code node)
+    public void visit(Code node, VisitorContext context)
     {
         // Since XWiki doesn't have a Code Block we generate a Code Macro Block
-        getListener().onMacro(CODE_MACRO_ID, getCodeMacroParameters(null), node.getText().toString(), true);
+        context.getListener().onMacro(CODE_MACRO_ID, getCodeMacroParameters(null), node.getText().toString(), true);
     }
 
-    public void visit(FencedCodeBlock node)
+    public void visit(FencedCodeBlock node, VisitorContext context)
     {
         // Since XWiki doesn't have a Code Block we generate a Code Macro Block
-        Map<String, String> parameters;
-        if (node.getInfo() != null) {
-            parameters = getCodeMacroParameters(node.getInfo().toString());
-        } else {
-            parameters = getCodeMacroParameters(null);
-        }
-
-        // Flexmark puts trailing newline in the HTML block so we need to remove it.
-        String content = node.getContentChars().toString().trim();
-        getListener().onMacro(CODE_MACRO_ID, parameters, content, false);
+        context.getListener().onMacro(CODE_MACRO_ID, getFencedCodeMacroParameters(node), getContent(node), false);
     }
 
-    public void visit(IndentedCodeBlock node)
+    public void visit(IndentedCodeBlock node, VisitorContext context)
     {
         // Since XWiki doesn't have a Code Block we generate a Code Macro Block
         // Insert a Group Block if we are in an inline context since the code macro is a standalone macro.
         // We consider that we are in an inline context if the parent node is a list item.
         // Note that Markdown syntax doesn't support indented code blocks inside table cells!
         if (node.getParent() instanceof ListItem) {
-            getListener().beginGroup(Collections.emptyMap());
+            context.getListener().beginGroup(Collections.emptyMap());
         }
-        getListener().onMacro(CODE_MACRO_ID, getCodeMacroParameters(null), node.getContentChars().toString(), false);
+        context.getListener().onMacro(CODE_MACRO_ID, getCodeMacroParameters(null), node.getContentChars().toString(),
+            false);
         if (node.getParent() instanceof ListItem) {
-            getListener().endGroup(Collections.emptyMap());
+            context.getListener().endGroup(Collections.emptyMap());
+        }
+    }
+
+    static Map<String, String> getFencedCodeMacroParameters(FencedCodeBlock node)
+    {
+        if (node.getInfo() != null) {
+            return getCodeMacroParameters(node.getInfo().toString());
+        } else {
+            return getCodeMacroParameters(null);
         }
     }
 
-    private Map<String, String> getCodeMacroParameters(String language)
+    static Map<String, String> getCodeMacroParameters(String language)
     {
         return Collections.singletonMap("language", language == null ? "none" : language);
     }
+
+    static String getContent(FencedCodeBlock node)
+    {
+        // Flexmark puts trailing newline in the HTML block so we need to remove it.
+        return node.getContentChars().toString().trim();
+    }
 }
@@ -19,207 +19,234 @@
  */
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
-import java.util.ArrayDeque;
 import java.util.Collections;
-import java.util.Deque;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.component.annotation.InstantiationStrategy;
-import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
-import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancellationToken;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions;
 import org.xwiki.rendering.listener.Listener;
 import org.xwiki.rendering.listener.MetaData;
 import org.xwiki.rendering.parser.ResourceReferenceParser;
-import org.xwiki.rendering.parser.StreamParser;
 import org.xwiki.rendering.renderer.PrintRendererFactory;
 import org.xwiki.rendering.syntax.Syntax;
 
 import com.vladsch.flexmark.ast.HardLineBreak;
+import com.vladsch.flexmark.ast.Reference;
 import com.vladsch.flexmark.ast.SoftLineBreak;
 import com.vladsch.flexmark.ast.ThematicBreak;
+import com.vladsch.flexmark.ext.abbreviation.AbbreviationBlock;
 import com.vladsch.flexmark.parser.Parser;
 import com.vladsch.flexmark.util.ast.Document;
 import com.vladsch.flexmark.util.ast.Node;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 @Component
-@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
-public class DefaultFlexmarkNodeVisitor implements FlexmarkNodeVisitor
+@Singleton
+public class DefaultFlexmarkNodeVisitor implements FlexmarkNodeVisitor, Initializable
 {
     /**
-     * A plain text parser used to convert Flexmark's Text node elements to various Block elements since Text node's
-     * values contain several words and special characters which we thus need to break down into individual tokens.
+     * Number of pooled parse states per processor, more than one since parses may wait for I/O.
      */
-    @Inject
-    @Named("plain/1.0")
-    private StreamParser plainTextStreamParser;
+    private static final int CONTEXTS_PER_PROCESSOR = 2;
 
     /**
-     * We parse image references with the default reference parser (i.e. the same one used by XWiki Syntax 2.1).
+     * We parse image references with the default reference parser (i.e. the same one used by XWiki Syntax 2.1). It's
+     * looked up for each parse so that a parser registered later is used.
      */
     @Inject
     @Named("image")
-    private ResourceReferenceParser imageResourceReferenceParser;
+    private Provider<ResourceReferenceParser> imageResourceReferenceParserProvider;
 
     /**
-     * We parse link references with the default reference parser (i.e. the same one used by XWiki Syntax 2.1).
+     * We parse link references with the default reference parser (i.e. the same one used by XWiki Syntax 2.1). It's
+     * looked up for each parse so that a parser registered later is used.
      */
     @Inject
     @Named("link")
-    private ResourceReferenceParser linkResourceReferenceParser;
+    private Provider<ResourceReferenceParser> linkResourceReferenceParserProvider;
 
     /**
-     * Used to extract text from nodes.
+     * Used to extract text from nodes, looked up for each parse too.
      */
     @Inject
     @Named("plain/1.0")
-    protected PrintRendererFactory plainRendererFactory;
+    private Provider<PrintRendererFactory> plainRendererFactoryProvider;
 
     /**
      * Used to find out at runtime a link label generator matching the link reference type.
      */
     @Inject
-    private ComponentManager componentManager;
+    private URILabelGeneratorCache labelGeneratorCache;
 
     /**
-     * Handle Document nodes.
+     * Used to avoid parsing again the references of wiki links and images repeated in the content.
      */
-    static <V extends DefaultFlexmarkNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
-    {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(Document.class, node -> visitor.visit(node)),
-                new VisitHandler<>(ThematicBreak.class, node -> visitor.visit(node)),
-                new VisitHandler<>(HardLineBreak.class, node -> visitor.visit(node)),
-                new VisitHandler<>(SoftLineBreak.class, node -> visitor.visit(node))
-        };
-    }
+    @Inject
+    private ResourceReferenceCache referenceCache;
 
     /**
-     * Listener(s) for the generated XWiki Events. Organized as a stack so that a buffering listener can hijack all
-     * events for a while, for example. All generated events are sent to the top of the stack.
+     * The handlers of all the supported nodes, built once since they hold no state related to a parse (the components
+     * they use are resolved for each parse and kept in the {@link VisitorContext}).
      */
-    private Deque<Listener> listeners = new ArrayDeque<>();
-
-    private NodeVisitor visitor;
-
-    private ImageNodeVisitor imageNodeVisitor;
+    private NodeDispatcher dispatcher;
 
-    private LinkNodeVisitor linkNodeVisitor;
+    /**
+     * The states of the parses, reused from one parse to another.
+     */
+    private VisitorContextPool contextPool;
 
-    public void visit(Node node, Listener listener, Syntax syntax)
+    @Override
+    public void initialize()
     {
-        SectionListener sectionListener = new SectionListener();
-        sectionListener.setWrappedListener(listener);
-        this.listeners.push(sectionListener);
-
-        MetaData metaData = new MetaData(Collections.singletonMap(MetaData.SYNTAX, syntax));
-        getListener().beginDocument(metaData);
+        this.dispatcher = new NodeDispatcher();
 
         // Handle nodes not handled by a specific visitor
-        this.visitor = new NodeVisitor(VISIT_HANDLERS(this));
+        this.dispatcher.register(Document.class, this::begin, this::end);
+        this.dispatcher.register(ThematicBreak.class, this::visit);
+        this.dispatcher.register(HardLineBreak.class, this::visit);
+        this.dispatcher.register(SoftLineBreak.class, this::visit);
+        this.dispatcher.register(TruncatedContent.class, this::visit);
 
         // Handle Text nodes
-        TextNodeVisitor textNodeVisitor = new TextNodeVisitor(this.visitor, this.listeners, this.plainTextStreamParser);
-        this.visitor.addHandlers(TextNodeVisitor.VISIT_HANDLERS(textNodeVisitor));
+        new TextNodeVisitor().registerHandlers(this.dispatcher);
 
         // Handle Emphasis nodes
-        EmphasisNodeVisitor emphasisNodeVisitor = new EmphasisNodeVisitor(this.visitor, this.listeners);
-        this.visitor.addHandlers(EmphasisNodeVisitor.VISIT_HANDLERS(emphasisNodeVisitor));
+        new EmphasisNodeVisitor().registerHandlers(this.dispatcher);
 
         // Handle Paragraph nodes
-        ParagraphNodeVisitor paragraphNodeVisitor = new ParagraphNodeVisitor(this.visitor, this.listeners);
-        this.visitor.addHandlers(ParagraphNodeVisitor.VISIT_HANDLERS(paragraphNodeVisitor));
+        new ParagraphNodeVisitor().registerHandlers(this.dispatcher);
 
         // Handle Image nodes
-        this.imageNodeVisitor = new ImageNodeVisitor(this.visitor, this.listeners, this.imageResourceReferenceParser,
-            this.componentManager, this.plainRendererFactory);
-        this.visitor.addHandlers(ImageNodeVisitor.VISIT_HANDLERS(this.imageNodeVisitor));
+        new ImageNodeVisitor(this.labelGeneratorCache, this.referenceCache).registerHandlers(this.dispatcher);
 
         // Handle Link nodes
-        this.linkNodeVisitor = new LinkNodeVisitor(this.visitor, this.listeners, this.linkResourceReferenceParser,
-            this.plainTextStreamParser);
-        this.visitor.addHandlers(LinkNodeVisitor.VISIT_HANDLERS(this.linkNodeVisitor));
+        new LinkNodeVisitor(this.referenceCache).registerHandlers(this.dispatcher);
 
         // Handle list nodes
-        ListNodeVisitor listNodeVisitor = new ListNodeVisitor(this.visitor, this.listeners);
-        this.visitor.addHandlers(ListNodeVisitor.VISIT_HANDLERS(listNodeVisitor));
+        new ListNodeVisitor().registerHandlers(this.dispatcher);
 
         // Handle quote nodes
-        QuoteNodeVisitor quoteNodeVisitor = new QuoteNodeVisitor(this.visitor, this.listeners);
-        this.visitor.addHandlers(QuoteNodeVisitor.VISIT_HANDLERS(quoteNodeVisitor));
+        new QuoteNodeVisitor().registerHandlers(this.dispatcher);
 
         // Handle Heading nodes
-        HeadingNodeVisitor headingNodeVisitor = new HeadingNodeVisitor(this.visitor, this.listeners,
-            this.plainRendererFactory);
-        this.visitor.addHandlers(HeadingNodeVisitor.VISIT_HANDLERS(headingNodeVisitor));
+        new HeadingNodeVisitor().registerHandlers(this.dispatcher);
 
         // Handle Table nodes
-        TableNodeVisitor tableNodeVisitor = new TableNodeVisitor(this.visitor, this.listeners,
-            this.plainRendererFactory);
-        this.visitor.addHandlers(TableNodeVisitor.VISIT_HANDLERS(tableNodeVisitor));
+        new TableNodeVisitor().registerHandlers(this.dispatcher);
 
         // Handle strikethrough nodes
-        StrikethroughNodeVisitor strikethroughNodeVisitor =
-            new StrikethroughNodeVisitor(this.visitor, this.listeners);
-        this.visitor.addHandlers(StrikethroughNodeVisitor.VISIT_HANDLERS(strikethroughNodeVisitor));
+        new StrikethroughNodeVisitor().registerHandlers(this.dispatcher);
 
         // Handle superscript and subscript nodes
-        SubSuperscriptNodeVisitor subSuperscriptNodeVisitor =
-            new SubSuperscriptNodeVisitor(this.visitor, this.listeners);
-        this.visitor.addHandlers(SubSuperscriptNodeVisitor.VISIT_HANDLERS(subSuperscriptNodeVisitor));
+        new SubSuperscriptNodeVisitor().registerHandlers(this.dispatcher);
 
         // Handle HTML nodes
-        HTMLNodeVisitor htmlNodeVisitor = new HTMLNodeVisitor(this.visitor, this.listeners);
-        this.visitor.addHandlers(HTMLNodeVisitor.VISIT_HANDLERS(htmlNodeVisitor));
+        new HTMLNodeVisitor().registerHandlers(this.dispatcher);
 
         // Handle Code nodes
-        CodeNodeVisitor codeNodeVisitor = new CodeNodeVisitor(this.visitor, this.listeners);
-        this.visitor.addHandlers(CodeNodeVisitor.VISIT_HANDLERS(codeNodeVisitor));
+        new CodeNodeVisitor().registerHandlers(this.dispatcher);
 
         // Handle Abbreviation nodes
-        AbbreviationNodeVisitor abbreviationNodeVisitor = new AbbreviationNodeVisitor(this.visitor, this.listeners);
-        this.visitor.addHandlers(AbbreviationNodeVisitor.VISIT_HANDLERS(abbreviationNodeVisitor));
+        new AbbreviationNodeVisitor().registerHandlers(this.dispatcher);
 
         // Handle Macro nodes
-        MacroNodeVisitor macroNodeVisitor = new MacroNodeVisitor(this.visitor, this.listeners);
-        this.visitor.addHandlers(MacroNodeVisitor.VISIT_HANDLERS(macroNodeVisitor));
+        new MacroNodeVisitor().registerHandlers(this.dispatcher);
 
-        this.visitor.visit(node);
-        getListener().endDocument(metaData);
+        this.contextPool = new VisitorContextPool(this.dispatcher,
+            CONTEXTS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
     }
 
-    public void visit(SoftLineBreak node)
+    @Override
+    public void visit(Node node, Listener listener, Syntax syntax)
+    {
+        visit(Collections.singletonList(node), listener, syntax);
+    }
+
+    @Override
+    public void visit(Iterable<? extends Node> nodes, Listener listener, Syntax syntax)
+    {
+        visit(nodes, listener, syntax, null);
+    }
+
+    @Override
+    public void visit(Iterable<? extends Node> nodes, Listener listener, Syntax syntax,
+        MarkdownCancellationToken cancellationToken)
+    {
+        VisitorContext context = this.contextPool.acquire(listener);
+        context.setCancellationToken(cancellationToken);
+        context.setLinkReferenceParser(this.linkResourceReferenceParserProvider.get());
+        context.setImageReferenceParser(this.imageResourceReferenceParserProvider.get());
+        context.setPlainRendererFactory(this.plainRendererFactoryProvider.get());
+        try {
+            MarkdownStructureListener structureListener = context.getStructureListener();
+            MetaData metaData = new MetaData(Collections.singletonMap(MetaData.SYNTAX, syntax));
+            structureListener.beginDocument(metaData);
+            for (Node node : nodes) {
+                context.visit(node);
+            }
+            structureListener.endDocument(metaData);
+        } finally {
+            this.contextPool.release(context);
+        }
+    }
+
+    public void visit(SoftLineBreak node, VisitorContext context)
     {
         // XWiki doesn't have a softlinkebreak block. Thus we consider a softlinebreak as a space.
-        getListener().onSpace();
+        context.getListener().onSpace();
     }
 
-    public void visit(HardLineBreak node)
+    public void visit(HardLineBreak node, VisitorContext context)
     {
-        getListener().onNewLine();
+        context.getListener().onNewLine();
     }
 
-    public void visit(Document node)
+    public void begin(Document node, VisitorContext context)
     {
-        this.imageNodeVisitor.setReferenceRepository(Parser.REFERENCES.get(node));
-        this.linkNodeVisitor.setReferenceRepository(Parser.REFERENCES.get(node));
-        this.visitor.visitChildren(node);
+        context.setReferenceRepository(Parser.REFERENCES.get(node));
+        context.setMaxDepth(MarkdownOptions.MAX_NESTING_DEPTH.get(node));
+        context.setReleasingVisitedNodes(MarkdownOptions.RELEASE_VISITED_NODES.get(node));
+        context.setMaxNodes(MarkdownOptions.MAX_NODES.get(node));
+        context.setMaxTableCells(MarkdownOptions.MAX_TABLE_CELLS.get(node));
+        HeadingNodeVisitor.reserveIds(node, context.getIdGenerator());
     }
 
-    public void visit(ThematicBreak node)
+    public void end(Document node, VisitorContext context)
     {
-        getListener().onHorizontalLine(Collections.emptyMap());
+        int skippedNodesOffset = context.getSkippedNodesOffset();
+        if (skippedNodesOffset >= 0) {
+            MarkdownLimits.onLimitedContent(context.getListener(), MarkdownOptions.MAX_NODES,
+                getContent(node, skippedNodesOffset));
+            context.setSkippedNodesOffset(-1);
+        }
     }
 
     /**
-     * @return the top listener on the stack
+     * @return the content of the document from the passed offset, without the definitions ending it (which may have
+     *         been appended to a chunk of the content, see {@link ParallelDocumentParser})
      */
-    private Listener getListener()
+    private CharSequence getContent(Document document, int offset)
+    {
+        Node lastBlock = document.getLastChild();
+        while (lastBlock instanceof Reference || lastBlock instanceof AbbreviationBlock) {
+            lastBlock = lastBlock.getPrevious();
+        }
+        int end = lastBlock != null ? lastBlock.getEndOffset() : offset;
+        return end > offset ? document.getChars().baseSubSequence(offset, end) : "";
+    }
+
+    public void visit(TruncatedContent node, VisitorContext context)
+    {
+        MarkdownLimits.onLimitedContent(context.getListener(), MarkdownOptions.MAX_INPUT_LENGTH, node.getChars());
+    }
+
+    public void visit(ThematicBreak node, VisitorContext context)
     {
-        return this.listeners.peek();
+        context.getListener().onHorizontalLine(Collections.emptyMap());
     }
 }
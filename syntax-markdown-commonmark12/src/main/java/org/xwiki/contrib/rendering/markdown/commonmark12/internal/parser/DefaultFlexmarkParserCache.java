@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownConfigurationSnapshot;
+
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.DataHolder;
+
+/**
+ * Caches compiled Flexmark parsers keyed by a fingerprint of the options they were built with. All Markdown flavors
+ * share this cache so that flavors using the same options also share the same {@link Parser} instance.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@Component
+@Singleton
+public class DefaultFlexmarkParserCache implements FlexmarkParserCache
+{
+    /**
+     * Maximum number of compiled parsers to keep. There's one configuration per Markdown flavor so this is only
+     * reached if options keep changing, in which case we stop caching rather than growing without bounds.
+     */
+    private static final int MAX_ENTRIES = 32;
+
+    private final ConcurrentMap<String, Parser> parsers = new ConcurrentHashMap<>();
+
+    @Override
+    public Parser getParser(MarkdownConfigurationSnapshot snapshot)
+    {
+        return getParser(snapshot.getFingerprint(), snapshot.getOptions());
+    }
+
+    @Override
+    public Parser getParser(DataHolder options)
+    {
+        return getParser(MarkdownConfigurationSnapshot.computeFingerprint(options), options);
+    }
+
+    private Parser getParser(String fingerprint, DataHolder options)
+    {
+        Parser parser = this.parsers.get(fingerprint);
+        if (parser == null) {
+            if (this.parsers.size() < MAX_ENTRIES) {
+                parser = this.parsers.computeIfAbsent(fingerprint, key -> Parser.builder(options).build());
+            } else {
+                parser = Parser.builder(options).build();
+            }
+        }
+        return parser;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownConfigurationSnapshot;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.parser.ParseException;
+import org.xwiki.rendering.syntax.Syntax;
+
+/**
+ * Default {@link ParsedXDOMCache}, a synchronized LRU map per syntax. Comparing the content and cloning the XDOMs,
+ * which are the costly parts of a hit, are done outside of the lock since cached entries are never modified.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@Component
+@Singleton
+public class DefaultParsedXDOMCache implements ParsedXDOMCache
+{
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The entries of each syntax, bounded by the configuration of that syntax.
+     */
+    private final Map<Syntax, Segment> segments = new ConcurrentHashMap<>();
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private static final class Key
+    {
+        private final long hash;
+
+        private final int length;
+
+        private final String fingerprint;
+
+        Key(CharSequence source, MarkdownConfigurationSnapshot configuration)
+        {
+            this.hash = hash(source);
+            this.length = source.length();
+            this.fingerprint = configuration.getFingerprint();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Long.hashCode(this.hash);
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) object;
+            return this.hash == key.hash && this.length == key.length && this.fingerprint.equals(key.fingerprint);
+        }
+    }
+
+    private static final class Entry
+    {
+        /**
+         * Kept to rule out hash collisions, it's small compared to the XDOM.
+         */
+        private final String source;
+
+        private final XDOM xdom;
+
+        private final long size;
+
+        Entry(String source, XDOM xdom)
+        {
+            this.source = source;
+            this.xdom = xdom;
+            this.size = XDOMSizeEstimator.estimateSize(source) + XDOMSizeEstimator.estimateSize(xdom);
+        }
+    }
+
+    /**
+     * The entries of a syntax, in access order, guarded by the segment.
+     */
+    private static final class Segment
+    {
+        private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private long retainedSize;
+
+        private long evictionCount;
+    }
+
+    @Override
+    public XDOM get(CharSequence source, Syntax syntax, MarkdownConfigurationSnapshot configuration)
+    {
+        return get(new Key(source, configuration), source, syntax);
+    }
+
+    @Override
+    public XDOM get(CharSequence source, Syntax syntax, MarkdownConfigurationSnapshot configuration, XDOMParser parser)
+        throws ParseException
+    {
+        // The key of a missing content is reused to store it.
+        Key key = new Key(source, configuration);
+        XDOM xdom = get(key, source, syntax);
+        if (xdom == null) {
+            xdom = parser.parse(source);
+            put(key, source, syntax, configuration, xdom);
+        }
+        return xdom;
+    }
+
+    @Override
+    public void put(CharSequence source, Syntax syntax, MarkdownConfigurationSnapshot configuration, XDOM xdom)
+    {
+        put(new Key(source, configuration), source, syntax, configuration, xdom);
+    }
+
+    private XDOM get(Key key, CharSequence source, Syntax syntax)
+    {
+        Segment segment = this.segments.get(syntax);
+        Entry entry = null;
+        if (segment != null) {
+            synchronized (segment) {
+                entry = segment.entries.get(key);
+            }
+        }
+        // The whole content is compared to rule out hash collisions, outside of the lock since it's proportional to
+        // the size of the content.
+        if (entry != null && entry.source.contentEquals(source)) {
+            this.hitCount.increment();
+            return entry.xdom.clone();
+        }
+        this.missCount.increment();
+        return null;
+    }
+
+    private void put(Key key, CharSequence source, Syntax syntax, MarkdownConfigurationSnapshot configuration,
+        XDOM xdom)
+    {
+        long maximumSize = MarkdownOptions.XDOM_CACHE_SIZE.get(configuration.getOptions());
+        Entry entry = new Entry(source.toString(), xdom.clone());
+        if (entry.size > maximumSize) {
+            // Storing it would evict everything else.
+            return;
+        }
+
+        Segment segment = this.segments.computeIfAbsent(syntax, s -> new Segment());
+        synchronized (segment) {
+            Entry previousEntry = segment.entries.put(key, entry);
+            if (previousEntry != null) {
+                segment.retainedSize -= previousEntry.size;
+            }
+            segment.retainedSize += entry.size;
+
+            Iterator<Entry> iterator = segment.entries.values().iterator();
+            while (segment.retainedSize > maximumSize && iterator.hasNext()) {
+                segment.retainedSize -= iterator.next().size;
+                iterator.remove();
+                segment.evictionCount++;
+            }
+        }
+    }
+
+    @Override
+    public long getHitCount()
+    {
+        return this.hitCount.sum();
+    }
+
+    @Override
+    public long getMissCount()
+    {
+        return this.missCount.sum();
+    }
+
+    @Override
+    public long getEvictionCount()
+    {
+        long evictionCount = 0;
+        for (Segment segment : this.segments.values()) {
+            synchronized (segment) {
+                evictionCount += segment.evictionCount;
+            }
+        }
+        return evictionCount;
+    }
+
+    @Override
+    public long getRetainedSize()
+    {
+        long retainedSize = 0;
+        for (Segment segment : this.segments.values()) {
+            synchronized (segment) {
+                retainedSize += segment.retainedSize;
+            }
+        }
+        return retainedSize;
+    }
+
+    @Override
+    public void clear()
+    {
+        for (Segment segment : this.segments.values()) {
+            synchronized (segment) {
+                segment.entries.clear();
+                segment.retainedSize = 0;
+            }
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the characters of the content.
+     */
+    private static long hash(CharSequence source)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < source.length(); i++) {
+            hash = (hash ^ source.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
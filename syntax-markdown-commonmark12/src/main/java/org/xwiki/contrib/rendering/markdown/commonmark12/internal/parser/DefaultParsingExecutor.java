@@ -0,0 +1,88 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+
+/**
+ * Default {@link ParsingExecutor}, a dedicated {@link ForkJoinPool} with one (daemon) thread per processor, created
+ * when the first parse is split in chunks and shut down when the component is disposed.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@Component
+@Singleton
+public class DefaultParsingExecutor implements ParsingExecutor, Disposable
+{
+    private static final String THREAD_NAME = "Markdown parsing ";
+
+    private final int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private volatile ForkJoinPool pool;
+
+    @Override
+    public int getParallelism()
+    {
+        return this.parallelism;
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task)
+    {
+        return getPool().submit(task);
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        if (this.pool != null) {
+            this.pool.shutdownNow();
+            this.pool = null;
+        }
+    }
+
+    private ForkJoinPool getPool()
+    {
+        ForkJoinPool currentPool = this.pool;
+        if (currentPool == null) {
+            synchronized (this) {
+                if (this.pool == null) {
+                    this.pool = new ForkJoinPool(this.parallelism, workerPool -> {
+                        ForkJoinWorkerThread thread =
+                            ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(workerPool);
+                        thread.setName(THREAD_NAME + thread.getPoolIndex());
+                        return thread;
+                    }, null, false);
+                }
+                currentPool = this.pool;
+            }
+        }
+        return currentPool;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.lang.reflect.Constructor;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceType;
+
+/**
+ * Default {@link ResourceReferenceCache}, a synchronized LRU map bounded by its number of entries. References are
+ * parsed and copied outside of the lock since cached references are never modified.
+ * <p>
+ * {@link ResourceReference#clone()} shares the parameters and base references of the cloned reference, so copies are
+ * created with the public constructor of the class of the reference taking the reference string (e.g.
+ * {@link org.xwiki.rendering.listener.reference.DocumentResourceReference#DocumentResourceReference(String)}) and
+ * filled with the public setters. References of classes without such a constructor, or whose copy is not equal to
+ * them, are not cached.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@Component
+@Singleton
+public class DefaultResourceReferenceCache implements ResourceReferenceCache
+{
+    /**
+     * Enough for the distinct references of several pages, while staying small (references are short).
+     */
+    private static final int MAX_ENTRIES = 2048;
+
+    /**
+     * The constructors used to copy the references, {@code null} for the classes that cannot be copied.
+     */
+    private static final ClassValue<Constructor<?>> CONSTRUCTORS = new ClassValue<Constructor<?>>()
+    {
+        @Override
+        protected Constructor<?> computeValue(Class<?> type)
+        {
+            try {
+                return type == ResourceReference.class ? type.getConstructor(String.class, ResourceType.class)
+                    : type.getConstructor(String.class);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+    };
+
+    /**
+     * Replaced rather than cleared when invalidated, so that a reference parsed concurrently with the invalidation
+     * cannot be put in the new map. Guarded by this cache.
+     */
+    private Map<Key, ResourceReference> references = createReferences();
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    private static final class Key
+    {
+        private final String parserHint;
+
+        private final String rawReference;
+
+        Key(String parserHint, String rawReference)
+        {
+            this.parserHint = parserHint;
+            this.rawReference = rawReference;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * this.parserHint.hashCode() + this.rawReference.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) object;
+            return Objects.equals(this.parserHint, key.parserHint)
+                && Objects.equals(this.rawReference, key.rawReference);
+        }
+    }
+
+    @Override
+    public ResourceReference get(String parserHint, String rawReference,
+        Function<String, ResourceReference> parser)
+    {
+        Key key = new Key(parserHint, rawReference);
+        Map<Key, ResourceReference> currentReferences;
+        ResourceReference reference;
+        synchronized (this) {
+            currentReferences = this.references;
+            reference = currentReferences.get(key);
+            if (reference != null) {
+                this.hitCount++;
+            } else {
+                this.missCount++;
+            }
+        }
+        if (reference != null) {
+            return copy(reference);
+        }
+
+        reference = parser.apply(rawReference);
+        // Untyped references may be resolved against the current document or wiki, see ResourceReferenceCache.
+        if (reference != null && reference.isTyped()) {
+            ResourceReference cachedReference = copy(reference);
+            if (cachedReference != null && cachedReference.getClass() == reference.getClass()
+                && cachedReference.equals(reference))
+            {
+                // Put in the map the reference was looked up in: it's not used anymore if it has been replaced
+                // while the reference was parsed.
+                synchronized (this) {
+                    currentReferences.put(key, cachedReference);
+                }
+            }
+        }
+        return reference;
+    }
+
+    private Map<Key, ResourceReference> createReferences()
+    {
+        return new LinkedHashMap<Key, ResourceReference>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ResourceReference> eldest)
+            {
+                if (size() > MAX_ENTRIES) {
+                    DefaultResourceReferenceCache.this.evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return a copy of the reference with its own parameters and base references, or {@code null} if the reference
+     *         cannot be copied
+     */
+    private static ResourceReference copy(ResourceReference reference)
+    {
+        Constructor<?> constructor = CONSTRUCTORS.get(reference.getClass());
+        if (constructor == null) {
+            return null;
+        }
+        ResourceReference copy;
+        try {
+            copy = (ResourceReference) (constructor.getParameterCount() == 1
+                ? constructor.newInstance(reference.getReference())
+                : constructor.newInstance(reference.getReference(), reference.getType()));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+        copy.setType(reference.getType());
+        copy.setTyped(reference.isTyped());
+        copy.setParameters(reference.getParameters());
+        copy.addBaseReferences(reference.getBaseReferences());
+        return copy;
+    }
+
+    @Override
+    public synchronized long getHitCount()
+    {
+        return this.hitCount;
+    }
+
+    @Override
+    public synchronized long getMissCount()
+    {
+        return this.missCount;
+    }
+
+    @Override
+    public synchronized long getEvictionCount()
+    {
+        return this.evictionCount;
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        this.references = createReferences();
+    }
+}
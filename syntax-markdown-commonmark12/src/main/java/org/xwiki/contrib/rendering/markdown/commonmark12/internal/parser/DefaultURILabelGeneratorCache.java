@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.rendering.renderer.reference.link.URILabelGenerator;
+
+/**
+ * Caches the label generators looked up in the component manager, indexed by scheme. The cache is invalidated by
+ * {@link URILabelGeneratorCacheInvalidator} when label generators are registered or unregistered.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@Component
+@Singleton
+public class DefaultURILabelGeneratorCache implements URILabelGeneratorCache
+{
+    /**
+     * Maximum number of schemes to keep. Schemes come from a limited set of resource types so this is only reached
+     * with unusual content, in which case we stop caching rather than growing without bounds.
+     */
+    private static final int MAX_ENTRIES = 64;
+
+    @Inject
+    private ComponentManager componentManager;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Replaced rather than cleared when invalidated, so that a lookup made concurrently with the invalidation cannot
+     * put an outdated generator in the new map.
+     */
+    private volatile ConcurrentMap<String, Optional<URILabelGenerator>> generators = new ConcurrentHashMap<>();
+
+    @Override
+    public URILabelGenerator getLabelGenerator(String scheme)
+    {
+        ConcurrentMap<String, Optional<URILabelGenerator>> currentGenerators = this.generators;
+        Optional<URILabelGenerator> generator = currentGenerators.get(scheme);
+        if (generator == null) {
+            generator = lookup(scheme);
+            if (currentGenerators.size() < MAX_ENTRIES) {
+                currentGenerators.put(scheme, generator);
+            }
+        }
+        return generator.orElse(null);
+    }
+
+    @Override
+    public void invalidate()
+    {
+        this.generators = new ConcurrentHashMap<>();
+    }
+
+    private Optional<URILabelGenerator> lookup(String scheme)
+    {
+        // Checking first avoids the cost of the exception for the schemes without label generator (most of them).
+        if (this.componentManager.hasComponent(URILabelGenerator.class, scheme)) {
+            try {
+                return Optional.of(this.componentManager.getInstance(URILabelGenerator.class, scheme));
+            } catch (ComponentLookupException e) {
+                this.logger.warn("Failed to lookup the label generator for scheme [{}]: {}", scheme, e.getMessage());
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.BulletedListBlock;
+import org.xwiki.rendering.block.GroupBlock;
+import org.xwiki.rendering.block.HorizontalLineBlock;
+import org.xwiki.rendering.block.ListItemBlock;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.NumberedListBlock;
+import org.xwiki.rendering.block.ParagraphBlock;
+
+import com.vladsch.flexmark.ast.BulletList;
+import com.vladsch.flexmark.ast.BulletListItem;
+import com.vladsch.flexmark.ast.FencedCodeBlock;
+import com.vladsch.flexmark.ast.IndentedCodeBlock;
+import com.vladsch.flexmark.ast.ListItem;
+import com.vladsch.flexmark.ast.OrderedList;
+import com.vladsch.flexmark.ast.OrderedListItem;
+import com.vladsch.flexmark.ast.Paragraph;
+import com.vladsch.flexmark.ast.ThematicBreak;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+
+/**
+ * Builds the blocks of the block nodes supported by the {@link DirectXDOMBuilder} (paragraphs, lists, horizontal
+ * lines and code blocks), except headings which open sections.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class DirectBlockBuilder
+{
+    private static final Map<String, String> NO_PARAMETERS = Collections.emptyMap();
+
+    /**
+     * The block nodes whose children are built.
+     */
+    private static final Set<Class<? extends Node>> CONTAINERS = new HashSet<>(Arrays.asList(Paragraph.class,
+        BulletList.class, OrderedList.class, BulletListItem.class, OrderedListItem.class));
+
+    /**
+     * The containers that are only supported at the top level or in list items.
+     */
+    private static final Set<Class<? extends Node>> TOP_LEVEL_CONTAINERS =
+        new HashSet<>(Arrays.asList(Paragraph.class, BulletList.class, OrderedList.class));
+
+    /**
+     * @param node a node
+     * @return {@code true} if the node is a block whose children are built
+     */
+    boolean isContainer(Node node)
+    {
+        return CONTAINERS.contains(node.getClass());
+    }
+
+    /**
+     * @param node a container node
+     * @return {@code false} if the container is nested in a block where it's not supported
+     */
+    boolean isSupported(Node node)
+    {
+        Node parent = node.getParent();
+        return !TOP_LEVEL_CONTAINERS.contains(node.getClass()) || parent instanceof Document
+            || parent instanceof ListItem;
+    }
+
+    /**
+     * @param node a container node
+     * @param children the blocks built from the children of the node
+     * @param blocks the blocks to which to add the block of the node
+     */
+    void addContainerBlock(Node node, List<Block> children, List<Block> blocks)
+    {
+        if (node instanceof Paragraph) {
+            if (node.getParent() instanceof ListItem) {
+                // Paragraphs are swallowed in list items, see ListNodeVisitor.
+                blocks.addAll(children);
+            } else {
+                blocks.add(new ParagraphBlock(children, NO_PARAMETERS));
+            }
+        } else if (node instanceof ListItem) {
+            blocks.add(new ListItemBlock(children));
+        } else if (node instanceof BulletList) {
+            blocks.add(new BulletedListBlock(children, NO_PARAMETERS));
+        } else {
+            blocks.add(new NumberedListBlock(children, NO_PARAMETERS));
+        }
+    }
+
+    /**
+     * @param node a node without children
+     * @param blocks the blocks to which to add the block of the node
+     * @return {@code false} if the node is not supported
+     */
+    boolean addLeafBlock(Node node, List<Block> blocks)
+    {
+        if (node instanceof ThematicBreak) {
+            blocks.add(new HorizontalLineBlock(NO_PARAMETERS));
+        } else if (node instanceof FencedCodeBlock) {
+            FencedCodeBlock codeBlock = (FencedCodeBlock) node;
+            blocks.add(new MacroBlock(CodeNodeVisitor.CODE_MACRO_ID,
+                CodeNodeVisitor.getFencedCodeMacroParameters(codeBlock), CodeNodeVisitor.getContent(codeBlock), false));
+        } else if (node instanceof IndentedCodeBlock) {
+            Block macro = new MacroBlock(CodeNodeVisitor.CODE_MACRO_ID, CodeNodeVisitor.getCodeMacroParameters(null),
+                ((IndentedCodeBlock) node).getContentChars().toString(), false);
+            // See CodeNodeVisitor.
+            if (node.getParent() instanceof ListItem) {
+                macro = new GroupBlock(Collections.singletonList(macro), NO_PARAMETERS);
+            }
+            blocks.add(macro);
+        } else {
+            return false;
+        }
+        return true;
+    }
+}
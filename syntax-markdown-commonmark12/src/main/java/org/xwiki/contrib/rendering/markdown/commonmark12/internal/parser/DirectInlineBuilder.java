@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.FormatBlock;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.NewLineBlock;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.SpecialSymbolBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.listener.Format;
+import org.xwiki.rendering.listener.WrappingListener;
+
+import com.vladsch.flexmark.ast.Code;
+import com.vladsch.flexmark.ast.Emphasis;
+import com.vladsch.flexmark.ast.HardLineBreak;
+import com.vladsch.flexmark.ast.SoftLineBreak;
+import com.vladsch.flexmark.ast.StrongEmphasis;
+import com.vladsch.flexmark.ast.Text;
+import com.vladsch.flexmark.ext.gfm.strikethrough.Strikethrough;
+import com.vladsch.flexmark.ext.gfm.strikethrough.Subscript;
+import com.vladsch.flexmark.ext.superscript.Superscript;
+import com.vladsch.flexmark.util.ast.Node;
+
+/**
+ * Builds the blocks of the inline nodes supported by the {@link DirectXDOMBuilder}: text, line breaks, inline code and
+ * formatting.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class DirectInlineBuilder
+{
+    /**
+     * The formatting nodes, whose children are built, and their format.
+     */
+    private static final Map<Class<? extends Node>, Format> FORMATS = new HashMap<>();
+
+    static {
+        FORMATS.put(Emphasis.class, Format.ITALIC);
+        FORMATS.put(StrongEmphasis.class, Format.BOLD);
+        FORMATS.put(Strikethrough.class, Format.STRIKEDOUT);
+        FORMATS.put(Superscript.class, Format.SUPERSCRIPT);
+        FORMATS.put(Subscript.class, Format.SUBSCRIPT);
+    }
+
+    private final TextListener textListener = new TextListener();
+
+    /**
+     * Collects the blocks corresponding to the events generated by the {@link InlineTextTokenizer}.
+     */
+    private static final class TextListener extends WrappingListener
+    {
+        private List<Block> blocks;
+
+        @Override
+        public void onWord(String word)
+        {
+            this.blocks.add(new WordBlock(word));
+        }
+
+        @Override
+        public void onSpace()
+        {
+            this.blocks.add(new SpaceBlock());
+        }
+
+        @Override
+        public void onSpecialSymbol(char symbol)
+        {
+            this.blocks.add(new SpecialSymbolBlock(symbol));
+        }
+
+        @Override
+        public void onNewLine()
+        {
+            this.blocks.add(new NewLineBlock());
+        }
+    }
+
+    /**
+     * @param node a node
+     * @return {@code true} if the node is a formatting node, whose children are built
+     */
+    boolean isContainer(Node node)
+    {
+        return FORMATS.containsKey(node.getClass());
+    }
+
+    /**
+     * @param node a formatting node
+     * @param children the blocks built from the children of the node
+     * @param blocks the blocks to which to add the block of the node
+     */
+    void addContainerBlock(Node node, List<Block> children, List<Block> blocks)
+    {
+        blocks.add(new FormatBlock(children, FORMATS.get(node.getClass()), Collections.emptyMap()));
+    }
+
+    /**
+     * @param node a node without children
+     * @param blocks the blocks to which to add the blocks of the node
+     * @return {@code false} if the node is not supported
+     */
+    boolean addLeafBlock(Node node, List<Block> blocks)
+    {
+        if (node instanceof Text) {
+            this.textListener.blocks = blocks;
+            InlineTextTokenizer.tokenize(node.getChars(), this.textListener);
+        } else if (node instanceof SoftLineBreak) {
+            // XWiki doesn't have a softlinebreak block. Thus we consider a softlinebreak as a space.
+            blocks.add(new SpaceBlock());
+        } else if (node instanceof HardLineBreak) {
+            blocks.add(new NewLineBlock());
+        } else if (node instanceof Code) {
+            blocks.add(new MacroBlock(CodeNodeVisitor.CODE_MACRO_ID, CodeNodeVisitor.getCodeMacroParameters(null),
+                ((Code) node).getText().toString(), true));
+        } else {
+            return false;
+        }
+        return true;
+    }
+}
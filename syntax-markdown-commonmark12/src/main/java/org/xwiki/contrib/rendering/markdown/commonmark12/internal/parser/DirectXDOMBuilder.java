@@ -0,0 +1,233 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.HeaderBlock;
+import org.xwiki.rendering.block.SectionBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.HeaderLevel;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.rendering.util.IdGenerator;
+
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+
+/**
+ * Builds the XDOM of simple documents directly from the Flexmark nodes, without generating events that an
+ * {@link org.xwiki.rendering.internal.parser.XDOMGeneratorListener} would turn back into blocks. It supports
+ * paragraphs, text, formatting, top-level headings, lists, horizontal lines and code, and produces the same XDOM as
+ * the {@link FlexmarkNodeVisitor}. For any other content (links, images, quotes, tables, macros, HTML...) the build is
+ * abandoned and the events have to be generated.
+ * <p>
+ * Nodes are traversed with an explicit stack, as by the {@link NodeDispatcher}. This class builds the sections and
+ * their headings, the blocks of the other nodes are built by a {@link DirectBlockBuilder} and a
+ * {@link DirectInlineBuilder}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class DirectXDOMBuilder
+{
+    private final boolean headingIds;
+
+    /**
+     * Used to generate a unique id for Headings, as {@link VisitorContext#getIdGenerator()}.
+     */
+    private final IdGenerator idGenerator = new IdGenerator();
+
+    private final List<Block> rootBlocks = new ArrayList<>();
+
+    /**
+     * The children of the opened sections (see {@link MarkdownStructureListener}), the innermost first.
+     */
+    private final Deque<List<Block>> sections = new ArrayDeque<>();
+
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    private final DirectBlockBuilder blockBuilder = new DirectBlockBuilder();
+
+    private final DirectInlineBuilder inlineBuilder = new DirectInlineBuilder();
+
+    /**
+     * A node whose children are being built.
+     */
+    private static final class Frame
+    {
+        private final Node node;
+
+        private final Node next;
+
+        private final String id;
+
+        private final List<Block> children;
+
+        Frame(Node node, String id, List<Block> children)
+        {
+            this.node = node;
+            // Get the next node first, as the visitor does.
+            this.next = node.getNext();
+            this.id = id;
+            this.children = children;
+        }
+    }
+
+    private DirectXDOMBuilder(boolean headingIds)
+    {
+        this.headingIds = headingIds;
+    }
+
+    /**
+     * @param documents the documents parsed from consecutive parts of the content
+     * @param syntax the syntax of the content
+     * @return the XDOM corresponding to the documents, or {@code null} if they contain nodes not supported or limits
+     *         are configured
+     */
+    static XDOM build(List<Document> documents, Syntax syntax)
+    {
+        Document firstDocument = documents.get(0);
+        // The limits are enforced by the visitor.
+        if (MarkdownOptions.MAX_NESTING_DEPTH.get(firstDocument) > 0
+            || MarkdownOptions.MAX_NODES.get(firstDocument) > 0)
+        {
+            return null;
+        }
+
+        DirectXDOMBuilder builder = new DirectXDOMBuilder(MarkdownOptions.HEADING_IDS.get(firstDocument));
+        for (Document document : documents) {
+            if (!builder.build(document)) {
+                return null;
+            }
+        }
+        while (!builder.sections.isEmpty()) {
+            builder.closeSection();
+        }
+        return new XDOM(builder.rootBlocks, new MetaData(Collections.singletonMap(MetaData.SYNTAX, syntax)));
+    }
+
+    private boolean build(Document document)
+    {
+        Node node = document.getFirstChild();
+        while (true) {
+            while (node != null) {
+                if (isContainer(node)) {
+                    if (!enter(node)) {
+                        return false;
+                    }
+                    node = node.getFirstChild();
+                } else if (this.inlineBuilder.addLeafBlock(node, getBlocks())
+                    || this.blockBuilder.addLeafBlock(node, getBlocks()))
+                {
+                    node = node.getNext();
+                } else {
+                    return false;
+                }
+            }
+            if (this.frames.isEmpty()) {
+                return true;
+            }
+            Frame frame = this.frames.pop();
+            exit(frame);
+            node = frame.next;
+        }
+    }
+
+    private boolean isContainer(Node node)
+    {
+        return node instanceof Heading || this.inlineBuilder.isContainer(node) || this.blockBuilder.isContainer(node);
+    }
+
+    /**
+     * @return the list of blocks to which to add the blocks of the nodes being visited
+     */
+    private List<Block> getBlocks()
+    {
+        if (this.frames.isEmpty()) {
+            return this.sections.isEmpty() ? this.rootBlocks : this.sections.peek();
+        }
+        return this.frames.peek().children;
+    }
+
+    private boolean enter(Node node)
+    {
+        String id = null;
+        if (node instanceof Heading) {
+            // Headings inside other blocks would open sections inside them.
+            if (!(node.getParent() instanceof Document)) {
+                return false;
+            }
+            if (this.headingIds) {
+                StringBuilder text = new StringBuilder();
+                if (!HeadingNodeVisitor.appendPlainText(node, text)) {
+                    return false;
+                }
+                id = this.idGenerator.generateUniqueId(HeadingNodeVisitor.ID_PREFIX, text.toString());
+            }
+        } else if (!this.blockBuilder.isSupported(node)) {
+            return false;
+        }
+
+        int childCount = 0;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNext()) {
+            childCount++;
+        }
+        this.frames.push(new Frame(node, id, new ArrayList<>(childCount)));
+        return true;
+    }
+
+    private void exit(Frame frame)
+    {
+        Node node = frame.node;
+        if (node instanceof Heading) {
+            addHeader((Heading) node, frame);
+        } else if (this.inlineBuilder.isContainer(node)) {
+            this.inlineBuilder.addContainerBlock(node, frame.children, getBlocks());
+        } else {
+            this.blockBuilder.addContainerBlock(node, frame.children, getBlocks());
+        }
+    }
+
+    private void addHeader(Heading node, Frame frame)
+    {
+        // Same as MarkdownStructureListener: close the sections of the same or a deeper level.
+        while (this.sections.size() > node.getLevel() - 1) {
+            closeSection();
+        }
+        List<Block> section = new ArrayList<>();
+        section.add(new HeaderBlock(frame.children, HeaderLevel.parseInt(node.getLevel()), Collections.emptyMap(),
+            frame.id));
+        this.sections.push(section);
+    }
+
+    private void closeSection()
+    {
+        SectionBlock section = new SectionBlock(this.sections.pop(), Collections.emptyMap());
+        getBlocks().add(section);
+    }
+}
@@ -20,15 +20,11 @@
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
 import java.util.Collections;
-import java.util.Deque;
 
 import org.xwiki.rendering.listener.Format;
-import org.xwiki.rendering.listener.Listener;
 
 import com.vladsch.flexmark.ast.Emphasis;
 import com.vladsch.flexmark.ast.StrongEmphasis;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 /**
  * Handle emphasis events.
@@ -38,32 +34,30 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class EmphasisNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends EmphasisNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(Emphasis.class, node -> visitor.visit(node)),
-                new VisitHandler<>(StrongEmphasis.class, node -> visitor.visit(node))
-        };
+        dispatcher.register(Emphasis.class, this::begin, this::end);
+        dispatcher.register(StrongEmphasis.class, this::begin, this::end);
     }
 
-    public EmphasisNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners)
+    public void begin(Emphasis node, VisitorContext context)
     {
-        super(visitor, listeners);
+        context.getListener().beginFormat(Format.ITALIC, Collections.emptyMap());
     }
 
-    public void visit(Emphasis node)
+    public void end(Emphasis node, VisitorContext context)
     {
-        Format format = Format.ITALIC;
-        getListener().beginFormat(format, Collections.emptyMap());
-        getVisitor().visitChildren(node);
-        getListener().endFormat(format, Collections.emptyMap());
+        context.getListener().endFormat(Format.ITALIC, Collections.emptyMap());
     }
 
-    public void visit(StrongEmphasis node)
+    public void begin(StrongEmphasis node, VisitorContext context)
     {
-        Format format = Format.BOLD;
-        getListener().beginFormat(format, Collections.emptyMap());
-        getVisitor().visitChildren(node);
-        getListener().endFormat(format, Collections.emptyMap());
+        context.getListener().beginFormat(Format.BOLD, Collections.emptyMap());
+    }
+
+    public void end(StrongEmphasis node, VisitorContext context)
+    {
+        context.getListener().endFormat(Format.BOLD, Collections.emptyMap());
     }
 }
@@ -20,6 +20,7 @@
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
 import org.xwiki.component.annotation.Role;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancellationToken;
 import org.xwiki.rendering.listener.Listener;
 import org.xwiki.rendering.syntax.Syntax;
 
@@ -29,4 +30,31 @@ import com.vladsch.flexmark.util.ast.Node;
 public interface FlexmarkNodeVisitor
 {
     void visit(Node node, Listener listener, Syntax syntax);
+
+    /**
+     * Generates the events of documents parsed from consecutive parts of the same content, as if they were a single
+     * document (sections and heading identifiers span all the documents). The nodes are visited as they are iterated,
+     * so they can be parsed lazily and their events generated before the rest of the content is parsed.
+     *
+     * @param nodes the nodes to visit, in the order of the content
+     * @param listener receives the generated events
+     * @param syntax the syntax of the content
+     * @since 8.9
+     */
+    void visit(Iterable<? extends Node> nodes, Listener listener, Syntax syntax);
+
+    /**
+     * Same as {@link #visit(Iterable, Listener, Syntax)}, aborting the visit when the passed token is cancelled or its
+     * deadline has passed (the token is checked periodically, as the nodes are visited).
+     *
+     * @param nodes the nodes to visit, in the order of the content
+     * @param listener receives the generated events
+     * @param syntax the syntax of the content
+     * @param cancellationToken the token to check while visiting the nodes, or {@code null} to never abort
+     * @throws org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancelledException if the visit is
+     *             aborted
+     * @since 8.9
+     */
+    void visit(Iterable<? extends Node> nodes, Listener listener, Syntax syntax,
+        MarkdownCancellationToken cancellationToken);
 }
@@ -0,0 +1,49 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownConfigurationSnapshot;
+
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.DataHolder;
+
+/**
+ * Holds compiled Flexmark {@link Parser} instances so that they're built once per configuration and not once per
+ * parse. Flexmark parsers are immutable once built and can be shared between threads.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@Role
+public interface FlexmarkParserCache
+{
+    /**
+     * @param snapshot the configuration snapshot the parser must be built from
+     * @return the compiled parser matching the snapshot's fingerprint, built if not already available
+     */
+    Parser getParser(MarkdownConfigurationSnapshot snapshot);
+
+    /**
+     * @param options the Flexmark options (parser emulation profile, extensions, etc) the parser must be built with
+     * @return the compiled parser matching the passed options, built if not already available
+     */
+    Parser getParser(DataHolder options);
+}
@@ -19,9 +19,7 @@
  */
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
-import java.util.Deque;
 
-import org.xwiki.rendering.listener.Listener;
 import org.xwiki.rendering.syntax.Syntax;
 
 import com.vladsch.flexmark.ast.HtmlBlock;
@@ -30,8 +28,6 @@ import com.vladsch.flexmark.ast.HtmlEntity;
 import com.vladsch.flexmark.ast.HtmlInline;
 import com.vladsch.flexmark.ast.HtmlInlineComment;
 import com.vladsch.flexmark.util.ast.Node;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 /**
  * Handle HTML events.
@@ -41,51 +37,45 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class HTMLNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends HTMLNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(HtmlInline.class, node -> visitor.visit(node)),
-                new VisitHandler<>(HtmlBlock.class, node -> visitor.visit(node)),
-                new VisitHandler<>(HtmlCommentBlock.class, node -> visitor.visit(node)),
-                new VisitHandler<>(HtmlEntity.class, node -> visitor.visit(node)),
-                new VisitHandler<>(HtmlInlineComment.class, node -> visitor.visit(node))
-        };
+        dispatcher.register(HtmlInline.class, this::visit);
+        dispatcher.register(HtmlBlock.class, this::visit);
+        dispatcher.register(HtmlCommentBlock.class, this::visit);
+        dispatcher.register(HtmlEntity.class, this::visit);
+        dispatcher.register(HtmlInlineComment.class, this::visit);
     }
 
-    public HTMLNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners)
+    public void visit(HtmlInline node, VisitorContext context)
     {
-        super(visitor, listeners);
+        visit((Node) node, context);
     }
 
-    public void visit(HtmlInline node)
-    {
-        visit((Node) node);
-    }
-
-    public void visit(HtmlBlock node)
+    public void visit(HtmlBlock node, VisitorContext context)
     {
         // Flexmark puts trailing newline in the HTML block so we need to remove it.
         String html = node.getChars().toString().trim();
-        getListener().onRawText(html, Syntax.HTML_4_01);
+        context.getListener().onRawText(html, Syntax.HTML_4_01);
     }
 
-    public void visit(HtmlCommentBlock node)
+    public void visit(HtmlCommentBlock node, VisitorContext context)
     {
-        visit((Node) node);
+        visit((Node) node, context);
     }
 
-    public void visit(HtmlEntity node)
+    public void visit(HtmlEntity node, VisitorContext context)
     {
-        visit((Node) node);
+        visit((Node) node, context);
     }
 
-    public void visit(HtmlInlineComment node)
+    public void visit(HtmlInlineComment node, VisitorContext context)
     {
-        visit((Node) node);
+        visit((Node) node, context);
     }
 
-    private void visit(Node node)
+    private void visit(Node node, VisitorContext context)
     {
-        getListener().onRawText(node.getChars().toString(), Syntax.HTML_4_01);
+        context.getListener().onRawText(node.getChars().toString(), Syntax.HTML_4_01);
     }
 }
@@ -19,21 +19,33 @@
  */
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions;
 import org.xwiki.rendering.listener.CompositeListener;
 import org.xwiki.rendering.listener.HeaderLevel;
-import org.xwiki.rendering.listener.Listener;
 import org.xwiki.rendering.listener.QueueListener;
 import org.xwiki.rendering.renderer.PrintRenderer;
-import org.xwiki.rendering.renderer.PrintRendererFactory;
 import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
 import org.xwiki.rendering.util.IdGenerator;
 
+import com.vladsch.flexmark.ast.Code;
+import com.vladsch.flexmark.ast.Emphasis;
+import com.vladsch.flexmark.ast.HardLineBreak;
 import com.vladsch.flexmark.ast.Heading;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
+import com.vladsch.flexmark.ast.SoftLineBreak;
+import com.vladsch.flexmark.ast.StrongEmphasis;
+import com.vladsch.flexmark.ast.Text;
+import com.vladsch.flexmark.ext.gfm.strikethrough.Strikethrough;
+import com.vladsch.flexmark.ext.gfm.strikethrough.Subscript;
+import com.vladsch.flexmark.ext.superscript.Superscript;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.DataKey;
 
 /**
  * Handle heading events.
@@ -43,54 +55,134 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class HeadingNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends HeadingNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
-    {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(Heading.class, node -> visitor.visit(node))
-        };
-    }
+    /**
+     * The prefix of the generated heading ids.
+     */
+    static final String ID_PREFIX = "H";
+
+    /**
+     * The ids of the headings preceding the visited document in the whole source, when only part of the source is
+     * visited: the generated ids must not collide with them.
+     */
+    static final DataKey<List<String>> RESERVED_IDS =
+        new DataKey<>("HEADING_RESERVED_IDS", Collections.<String>emptyList());
 
     /**
-     * Used to generate a unique id for Headings.
+     * The nodes which only generate formatting events around the events of their children.
      */
-    private IdGenerator idGenerator = new IdGenerator();
+    private static final Set<Class<? extends Node>> FORMATTING_NODES = new HashSet<>(Arrays.asList(Emphasis.class,
+        StrongEmphasis.class, Strikethrough.class, Subscript.class, Superscript.class));
 
-    private PrintRendererFactory plainRendererFactory;
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
+    {
+        dispatcher.register(Heading.class, this::visit);
+    }
 
-    public HeadingNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners, PrintRendererFactory plainRendererFactory)
+    public void visit(Heading node, VisitorContext context)
     {
-        super(visitor, listeners);
-        this.plainRendererFactory = plainRendererFactory;
+        if (!MarkdownOptions.HEADING_IDS.get(node.getDocument())) {
+            visit(node, null, context);
+            return;
+        }
+
+        // Heading needs to have an id generated from a plaintext representation of its content. Compute it directly
+        // from the content nodes when they're all simple text nodes, so that the events are not buffered.
+        StringBuilder text = new StringBuilder();
+        if (appendPlainText(node, text)) {
+            visit(node, context.getIdGenerator().generateUniqueId(ID_PREFIX, text.toString()), context);
+        } else {
+            visitBuffered(node, context);
+        }
+    }
+
+    private void visit(Heading node, String id, VisitorContext context)
+    {
+        HeaderLevel level = HeaderLevel.parseInt(node.getLevel());
+        context.getListener().beginHeader(level, id, Collections.emptyMap());
+        context.visitChildren(node);
+        context.getListener().endHeader(level, id, Collections.emptyMap());
     }
 
-    public void visit(Heading node)
+    private void visitBuffered(Heading node, VisitorContext context)
     {
-        // Heading needs to have an id generated from a plaintext representation of its content, so the header start
-        // event will be sent at the end of the header, after reading the content inside and generating the id.
-        // For this:
+        // The header start event will be sent at the end of the header, after reading the content inside and
+        // generating the id. For this:
         // buffer all events in a queue until the header ends, and also send them to a print renderer to generate the ID
         CompositeListener composite = new CompositeListener();
         QueueListener queueListener = new QueueListener();
         composite.addListener(queueListener);
-        PrintRenderer plainRenderer = this.plainRendererFactory.createRenderer(new DefaultWikiPrinter());
+        PrintRenderer plainRenderer = context.getPlainRendererFactory().createRenderer(new DefaultWikiPrinter());
         composite.addListener(plainRenderer);
 
         // These 2 listeners will receive all events from now on until the header ends
-        pushListener(composite);
+        context.pushListener(composite);
 
-        getVisitor().visitChildren(node);
+        context.visitChildren(node);
 
         // Restore default listener
-        popListener();
+        context.popListener();
 
-        String id = this.idGenerator.generateUniqueId("H", plainRenderer.getPrinter().toString());
+        String id = context.getIdGenerator().generateUniqueId(ID_PREFIX, plainRenderer.getPrinter().toString());
 
         HeaderLevel level = HeaderLevel.parseInt(node.getLevel());
-        getListener().beginHeader(level, id, Collections.emptyMap());
+        context.getListener().beginHeader(level, id, Collections.emptyMap());
 
         // Send all buffered events to the 'default' listener
-        queueListener.consumeEvents(getListener());
+        queueListener.consumeEvents(context.getListener());
 
-        getListener().endHeader(level, id, Collections.emptyMap());
+        context.getListener().endHeader(level, id, Collections.emptyMap());
+    }
+
+    /**
+     * Marks the {@link #RESERVED_IDS reserved ids} of the passed document as used.
+     */
+    static void reserveIds(Document document, IdGenerator idGenerator)
+    {
+        for (String id : RESERVED_IDS.get(document)) {
+            // Generated ids are already normalized, so generating them again from their text gives the same ids.
+            if (id != null && id.startsWith(ID_PREFIX)) {
+                idGenerator.generateUniqueId(ID_PREFIX, id.substring(ID_PREFIX.length()));
+            }
+        }
+    }
+
+    /**
+     * Appends the text that the plain text renderer would print for the events generated by the children of the
+     * passed node.
+     *
+     * @return {@code false} if a child node generates events whose plain text is not known in advance (e.g. links)
+     */
+    static boolean appendPlainText(Node parent, StringBuilder text)
+    {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNext()) {
+            Class<?> nodeClass = node.getClass();
+            if (nodeClass == Text.class) {
+                appendText(node.getChars(), text);
+            } else if (nodeClass == SoftLineBreak.class) {
+                text.append(' ');
+            } else if (nodeClass == HardLineBreak.class) {
+                text.append('\n');
+            } else if (FORMATTING_NODES.contains(nodeClass)) {
+                if (!appendPlainText(node, text)) {
+                    return false;
+                }
+            } else if (nodeClass != Code.class) {
+                // Inline code generates a macro, which has no plain text.
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void appendText(CharSequence chars, StringBuilder text)
+    {
+        for (int i = 0; i < chars.length(); i++) {
+            char character = chars.charAt(i);
+            // Carriage returns don't generate any event.
+            if (character != '\r') {
+                text.append(character);
+            }
+        }
     }
 }
@@ -20,26 +20,18 @@
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
-import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.component.manager.ComponentManager;
-import org.xwiki.rendering.listener.Listener;
 import org.xwiki.rendering.listener.reference.ResourceReference;
 import org.xwiki.rendering.listener.reference.ResourceType;
-import org.xwiki.rendering.parser.ResourceReferenceParser;
-import org.xwiki.rendering.renderer.PrintRendererFactory;
 import org.xwiki.rendering.renderer.reference.link.URILabelGenerator;
 
 import com.vladsch.flexmark.ast.Image;
 import com.vladsch.flexmark.ast.ImageRef;
 import com.vladsch.flexmark.ast.Reference;
 import com.vladsch.flexmark.ext.wikilink.WikiImage;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 /**
  * Handle image events.
@@ -49,29 +41,27 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class ImageNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends ImageNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
-    {
-        return new VisitHandler<?>[] {
-            new VisitHandler<>(Image.class, node -> visitor.visit(node)),
-            new VisitHandler<>(ImageRef.class, node -> visitor.visit(node)),
-            new VisitHandler<>(WikiImage.class, node -> visitor.visit(node))
-        };
-    }
+    private static final String IMAGE_PARSER_HINT = "image";
+
+    private URILabelGeneratorCache labelGeneratorCache;
 
-    private ResourceReferenceParser imageResourceReferenceParser;
+    private ResourceReferenceCache referenceCache;
 
-    private ComponentManager componentManager;
+    public ImageNodeVisitor(URILabelGeneratorCache labelGeneratorCache, ResourceReferenceCache referenceCache)
+    {
+        this.labelGeneratorCache = labelGeneratorCache;
+        this.referenceCache = referenceCache;
+    }
 
-    public ImageNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners,
-        ResourceReferenceParser imageResourceReferenceParser, ComponentManager componentManager,
-        PrintRendererFactory plainRendererFactory)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        super(visitor, listeners, plainRendererFactory);
-        this.imageResourceReferenceParser = imageResourceReferenceParser;
-        this.componentManager = componentManager;
+        dispatcher.register(Image.class, this::visit);
+        dispatcher.register(ImageRef.class, this::visit);
+        dispatcher.register(WikiImage.class, this::visit);
     }
 
-    public void visit(Image node)
+    public void visit(Image node, VisitorContext context)
     {
         // We consider all images to be referencing an URL
         ResourceReference reference = new ResourceReference(node.getUrl().toString(), ResourceType.URL);
@@ -81,27 +71,26 @@ public class ImageNodeVisitor extends AbstractNodeVisitor
 
         // Handle alt text. Note that in order to have the same behavior as the XWiki Syntax 2.0+ we don't add the alt
         // parameter if its content is the same as the one that would be automatically generated by the XHTML Renderer.
-        String computedAltValue = computeAltAttributeValue(reference);
-        String extractedAltValue = extractText(node);
-        if (StringUtils.isNotEmpty(extractedAltValue) && !extractedAltValue.equals(computedAltValue)) {
-            parameters.put("alt", extractedAltValue);
+        // Both are only computed when the image has an alt text.
+        if (node.hasChildren()) {
+            addAlt(parameters, extractText(node, context), reference);
         }
 
         // Handle optional title
         addTitle(parameters, node.getTitle().toString());
 
-        getListener().onImage(reference, false, parameters);
+        context.getListener().onImage(reference, false, parameters);
     }
 
-    public void visit(ImageRef node)
+    public void visit(ImageRef node, VisitorContext context)
     {
         if (!node.isDefined()) {
             // Non-existing reference, output the image reference as is, as plain text, e.g. "![image.png][invalidref]".
-            getListener().onVerbatim(node.getChars().unescape(), true, Collections.emptyMap());
+            context.getListener().onVerbatim(node.getChars().unescape(), true, Collections.emptyMap());
         } else {
             // Since XWiki doesn't support reference images, we generate a standard image instead
             // We consider all images to be referencing an URL
-            Reference reference = node.getReferenceNode(getReferenceRepository());
+            Reference reference = node.getReferenceNode(context.getReferenceRepository());
             ResourceReference resourceReference =
                 new ResourceReference(reference.getUrl().toString(), ResourceType.URL);
             resourceReference.setTyped(false);
@@ -112,26 +101,30 @@ public class ImageNodeVisitor extends AbstractNodeVisitor
                 parameters = Collections.singletonMap(TITLE_ATTRIBUTE, reference.getTitle().toString());
             }
 
-            getListener().onImage(resourceReference, false, parameters);
+            context.getListener().onImage(resourceReference, false, parameters);
         }
     }
 
-    public void visit(WikiImage node)
+    public void visit(WikiImage node, VisitorContext context)
     {
-        ResourceReference reference = this.imageResourceReferenceParser.parse(node.getLink().toString());
+        ResourceReference reference = this.referenceCache.get(IMAGE_PARSER_HINT, node.getLink().toString(),
+            context.getImageReferenceParser()::parse);
         Map<String, String> parameters = new HashMap<>();
 
         // Handle alt text. Note that in order to have the same behavior as the XWiki Syntax 2.0+ we don't add the alt
         // parameter if its content is the same as the one that would be automatically generated by the XHTML Renderer.
-        String computedAltValue = computeAltAttributeValue(reference);
-        if(node.getText() != null) {
-            String extractedAltValue = node.getText().toString();
-            if (StringUtils.isNotEmpty(extractedAltValue) && !extractedAltValue.equals(computedAltValue)) {
-                parameters.put("alt", extractedAltValue);
-            }
+        if (node.getText() != null) {
+            addAlt(parameters, node.getText().toString(), reference);
         }
 
-        getListener().onImage(reference, false, parameters);
+        context.getListener().onImage(reference, false, parameters);
+    }
+
+    private void addAlt(Map<String, String> parameters, String altValue, ResourceReference reference)
+    {
+        if (StringUtils.isNotEmpty(altValue) && !altValue.equals(computeAltAttributeValue(reference))) {
+            parameters.put("alt", altValue);
+        }
     }
 
     /**
@@ -140,14 +133,11 @@ public class ImageNodeVisitor extends AbstractNodeVisitor
      */
     private String computeAltAttributeValue(ResourceReference reference)
     {
-        String label;
-        try {
-            URILabelGenerator uriLabelGenerator = this.componentManager.getInstance(URILabelGenerator.class,
-                reference.getType().getScheme());
-            label = uriLabelGenerator.generateLabel(reference);
-        } catch (ComponentLookupException e) {
-            label = reference.getReference();
+        URILabelGenerator uriLabelGenerator =
+            this.labelGeneratorCache.getLabelGenerator(reference.getType().getScheme());
+        if (uriLabelGenerator != null) {
+            return uriLabelGenerator.generateLabel(reference);
         }
-        return label;
+        return reference.getReference();
     }
 }
@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import org.xwiki.rendering.listener.Listener;
+
+/**
+ * Splits text into words, spaces, special symbols and new lines, generating the same events as the
+ * {@code plain/1.0} parser wrapped in an {@link org.xwiki.rendering.listener.InlineFilterListener}, but reading the
+ * passed characters directly instead of going through a {@link java.io.Reader} and a parser instance.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public final class InlineTextTokenizer
+{
+    /**
+     * The characters generating special symbol events, i.e. the ASCII punctuation characters except the backslash
+     * (same as the {@code plain/1.0} parser).
+     */
+    private static final String SPECIAL_SYMBOLS = "!\"#$%&'()*+,-./:;<=>?@[]^_`{|}~";
+
+    private static final boolean[] SPECIAL_SYMBOL_TABLE = new boolean[128];
+
+    static {
+        for (int i = 0; i < SPECIAL_SYMBOLS.length(); i++) {
+            SPECIAL_SYMBOL_TABLE[SPECIAL_SYMBOLS.charAt(i)] = true;
+        }
+    }
+
+    private InlineTextTokenizer()
+    {
+        // Utility class
+    }
+
+    /**
+     * @param text the text to tokenize
+     * @param listener the listener receiving the events
+     */
+    public static void tokenize(CharSequence text, Listener listener)
+    {
+        int wordStart = 0;
+        // Only used when the word contains carriage returns, which are ignored.
+        StringBuilder word = null;
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            if (character == '\r') {
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                word.append(text, wordStart, i);
+                wordStart = i + 1;
+            } else if (character == '\n' || character == ' ' || isSpecialSymbol(character)) {
+                flushWord(text, wordStart, i, word, listener);
+                word = null;
+                wordStart = i + 1;
+                if (character == '\n') {
+                    listener.onNewLine();
+                } else if (character == ' ') {
+                    listener.onSpace();
+                } else {
+                    listener.onSpecialSymbol(character);
+                }
+            }
+        }
+        flushWord(text, wordStart, text.length(), word, listener);
+    }
+
+    private static boolean isSpecialSymbol(char character)
+    {
+        return character < SPECIAL_SYMBOL_TABLE.length && SPECIAL_SYMBOL_TABLE[character];
+    }
+
+    private static void flushWord(CharSequence text, int start, int end, StringBuilder word, Listener listener)
+    {
+        if (word != null) {
+            word.append(text, start, end);
+            if (word.length() > 0) {
+                listener.onWord(word.toString());
+            }
+        } else if (end > start) {
+            listener.onWord(text.subSequence(start, end).toString());
+        }
+    }
+}
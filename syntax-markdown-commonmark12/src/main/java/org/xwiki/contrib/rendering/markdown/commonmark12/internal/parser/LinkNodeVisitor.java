@@ -21,18 +21,15 @@ package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
-import org.xwiki.rendering.listener.Listener;
 import org.xwiki.rendering.listener.reference.DocumentResourceReference;
 import org.xwiki.rendering.listener.reference.ResourceReference;
 import org.xwiki.rendering.listener.reference.ResourceType;
 import org.xwiki.rendering.parser.ResourceReferenceParser;
-import org.xwiki.rendering.parser.StreamParser;
 import org.xwiki.rendering.wikimodel.WikiParameter;
 import org.xwiki.rendering.wikimodel.impl.WikiScannerUtil;
 
@@ -42,8 +39,6 @@ import com.vladsch.flexmark.ast.LinkRef;
 import com.vladsch.flexmark.ast.MailLink;
 import com.vladsch.flexmark.ast.Reference;
 import com.vladsch.flexmark.ext.wikilink.WikiLink;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 /**
  * Handle link events.
@@ -53,46 +48,45 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class LinkNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends LinkNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
+    private static final String LINK_PARSER_HINT = "link";
+
+    private ResourceReferenceCache referenceCache;
+
+    public LinkNodeVisitor(ResourceReferenceCache referenceCache)
     {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(AutoLink.class, node -> visitor.visit(node)),
-                new VisitHandler<>(MailLink.class, node -> visitor.visit(node)),
-                new VisitHandler<>(Link.class, node -> visitor.visit(node)),
-                new VisitHandler<>(LinkRef.class, node -> visitor.visit(node)),
-                new VisitHandler<>(WikiLink.class, node -> visitor.visit(node))
-        };
+        this.referenceCache = referenceCache;
     }
 
-    private ResourceReferenceParser linkResourceReferenceParser;
-
-    public LinkNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners,
-        ResourceReferenceParser linkResourceReferenceParser, StreamParser plainTextStreamParser)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        super(visitor, listeners, null, plainTextStreamParser);
-        this.linkResourceReferenceParser = linkResourceReferenceParser;
+        dispatcher.register(AutoLink.class, this::visit);
+        dispatcher.register(MailLink.class, this::visit);
+        dispatcher.register(Link.class, this::visit);
+        dispatcher.register(LinkRef.class, this::visit);
+        dispatcher.register(WikiLink.class, this::visit);
     }
 
-    public void visit(AutoLink node)
+    public void visit(AutoLink node, VisitorContext context)
     {
         // This is an autolink to a URL. Autolinks to emails are calling visit(MailLink).
         ResourceReference reference = new ResourceReference(node.getText().unescape(), ResourceType.URL);
         reference.setTyped(false);
 
-        getListener().beginLink(reference, true, Collections.emptyMap());
-        getListener().endLink(reference, true, Collections.emptyMap());
+        context.getListener().beginLink(reference, true, Collections.emptyMap());
+        context.getListener().endLink(reference, true, Collections.emptyMap());
     }
 
-    public void visit(MailLink node)
+    public void visit(MailLink node, VisitorContext context)
     {
         // This is an autolink to an email address.
         ResourceReference reference = new ResourceReference(node.getText().unescape(), ResourceType.MAILTO);
 
-        getListener().beginLink(reference, true, Collections.emptyMap());
-        getListener().endLink(reference, true, Collections.emptyMap());
+        context.getListener().beginLink(reference, true, Collections.emptyMap());
+        context.getListener().endLink(reference, true, Collections.emptyMap());
     }
 
-    public void visit(Link node)
+    public void visit(Link node, VisitorContext context)
     {
         // This can be a link to a URL or a link to an email address but since links to an email address will need to
         // be prefixed with "mailto:" we can consider them URL links. Also, there's always a label since otherwise it
@@ -107,20 +101,20 @@ public class LinkNodeVisitor extends AbstractNodeVisitor
         // Handle optional title
         addTitle(parameters, node.getTitle().toString());
 
-        getListener().beginLink(reference, false, parameters);
-        getVisitor().visitChildren(node);
-        getListener().endLink(reference, false, parameters);
+        context.getListener().beginLink(reference, false, parameters);
+        context.visitChildren(node);
+        context.getListener().endLink(reference, false, parameters);
     }
 
-    public void visit(LinkRef node)
+    public void visit(LinkRef node, VisitorContext context)
     {
         if (!node.isDefined()) {
             // Non-existing reference, output the link reference as is
-            parseInline(node.getChars().unescape());
+            parseInline(node.getChars().unescape(), context);
         } else {
             // Since XWiki doesn't support reference links, we generate a standard link instead.
             // We consider all reference links to be URL links (ie not wikilinks).
-            Reference reference = node.getReferenceNode(getReferenceRepository());
+            Reference reference = node.getReferenceNode(context.getReferenceRepository());
             ResourceReference resourceReference =
                 new ResourceReference(reference.getUrl().toString(), ResourceType.URL);
             resourceReference.setTyped(false);
@@ -131,18 +125,31 @@ public class LinkNodeVisitor extends AbstractNodeVisitor
                 parameters = Collections.singletonMap(TITLE_ATTRIBUTE, reference.getTitle().toString());
             }
 
-            getListener().beginLink(resourceReference, false, parameters);
-            getVisitor().visitChildren(node);
-            getListener().endLink(resourceReference, false, parameters);
+            context.getListener().beginLink(resourceReference, false, parameters);
+            context.visitChildren(node);
+            context.getListener().endLink(resourceReference, false, parameters);
         }
     }
 
-    public void visit(WikiLink node)
+    public void visit(WikiLink node, VisitorContext context)
     {
-        // Parse any parameters specified using the format "label|reference|a=b c=d".
         // Important: We don't unescape() the link content since we need to support escape characters in wiki link
         // references (e.g. a reference with dots, etc).
-        String nodeRawReference = node.getLink().toString();
+        ResourceReferenceParser parser = context.getLinkReferenceParser();
+        ResourceReference reference = this.referenceCache.get(LINK_PARSER_HINT, node.getLink().toString(),
+            rawReference -> parseWikiLinkReference(rawReference, parser));
+
+        context.getListener().beginLink(reference, false, Collections.emptyMap());
+        if (node.getText() != null) {
+            String label = node.getText().unescape();
+            parseInline(label, context);
+        }
+        context.getListener().endLink(reference, false, Collections.emptyMap());
+    }
+
+    private ResourceReference parseWikiLinkReference(String nodeRawReference, ResourceReferenceParser parser)
+    {
+        // Parse any parameters specified using the format "label|reference|a=b c=d".
         String nodeReference = nodeRawReference;
         String queryString = null;
         String anchor = null;
@@ -163,7 +170,7 @@ public class LinkNodeVisitor extends AbstractNodeVisitor
             }
         }
 
-        ResourceReference reference = this.linkResourceReferenceParser.parse(nodeReference);
+        ResourceReference reference = parser.parse(nodeReference);
 
         if (reference instanceof DocumentResourceReference) {
             DocumentResourceReference documentResourceReference = (DocumentResourceReference) reference;
@@ -175,11 +182,6 @@ public class LinkNodeVisitor extends AbstractNodeVisitor
             }
         }
 
-        getListener().beginLink(reference, false, Collections.emptyMap());
-        if (node.getText() != null) {
-            String label = node.getText().unescape();
-            parseInline(label);
-        }
-        getListener().endLink(reference, false, Collections.emptyMap());
+        return reference;
     }
 }
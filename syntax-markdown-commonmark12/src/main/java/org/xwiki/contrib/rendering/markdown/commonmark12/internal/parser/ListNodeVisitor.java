@@ -20,12 +20,8 @@
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
 import java.util.Collections;
-import java.util.Deque;
-import java.util.Map;
 
 import org.xwiki.rendering.listener.ListType;
-import org.xwiki.rendering.listener.Listener;
-import org.xwiki.rendering.listener.WrappingListener;
 
 import com.vladsch.flexmark.ast.BulletList;
 import com.vladsch.flexmark.ast.BulletListItem;
@@ -35,8 +31,6 @@ import com.vladsch.flexmark.ext.definition.DefinitionItem;
 import com.vladsch.flexmark.ext.definition.DefinitionList;
 import com.vladsch.flexmark.ext.definition.DefinitionTerm;
 import com.vladsch.flexmark.util.ast.Node;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 /**
  * Handle list events.
@@ -46,105 +40,95 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class ListNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends ListNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(BulletList.class, node -> visitor.visit(node)),
-                new VisitHandler<>(BulletListItem.class, node -> visitor.visit(node)),
-                new VisitHandler<>(OrderedList.class, node -> visitor.visit(node)),
-                new VisitHandler<>(OrderedListItem.class, node -> visitor.visit(node)),
-                new VisitHandler<>(DefinitionList.class, node -> visitor.visit(node)),
-                new VisitHandler<>(DefinitionTerm.class, node -> visitor.visit(node)),
-                new VisitHandler<>(DefinitionItem.class, node -> visitor.visit(node))
-        };
+        dispatcher.register(BulletList.class, this::begin, this::end);
+        dispatcher.register(BulletListItem.class, this::beginListItem, this::endListItem);
+        dispatcher.register(OrderedList.class, this::begin, this::end);
+        dispatcher.register(OrderedListItem.class, this::beginListItem, this::endListItem);
+        dispatcher.register(DefinitionList.class, this::begin, this::end);
+        dispatcher.register(DefinitionTerm.class, this::begin, this::end);
+        dispatcher.register(DefinitionItem.class, this::begin, this::end);
     }
 
-    /**
-     * Swallow paragraphs (for example we don't want to generate paragraphs for list items since the XWiki model
-     * doesn't wrap list item content inside paragraphs).
-     */
-    private class ParagraphWrappingListener extends WrappingListener
+    public void begin(BulletList node, VisitorContext context)
     {
-        @Override
-        public void beginParagraph(Map<String, String> parameters)
-        {
-            // Ignore
-        }
-
-        @Override
-        public void endParagraph(Map<String, String> parameters)
-        {
-            // Ignore
-        }
+        context.getListener().beginList(ListType.BULLETED, Collections.emptyMap());
     }
 
-    public ListNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners)
+    public void end(BulletList node, VisitorContext context)
     {
-        super(visitor, listeners);
+        context.getListener().endList(ListType.BULLETED, Collections.emptyMap());
     }
 
-    public void visit(BulletList node)
+    public void begin(OrderedList node, VisitorContext context)
     {
-        getListener().beginList(ListType.BULLETED, Collections.emptyMap());
-        getVisitor().visitChildren(node);
-        getListener().endList(ListType.BULLETED, Collections.emptyMap());
+        context.getListener().beginList(ListType.NUMBERED, Collections.emptyMap());
     }
 
-    public void visit(BulletListItem node)
+    public void end(OrderedList node, VisitorContext context)
     {
-        visitListItem(node);
+        context.getListener().endList(ListType.NUMBERED, Collections.emptyMap());
     }
 
-    public void visit(OrderedList node)
+    public void begin(DefinitionList node, VisitorContext context)
     {
-        getListener().beginList(ListType.NUMBERED, Collections.emptyMap());
-        getVisitor().visitChildren(node);
-        getListener().endList(ListType.NUMBERED, Collections.emptyMap());
+        context.getListener().beginDefinitionList(Collections.emptyMap());
     }
 
-    public void visit(OrderedListItem node)
+    public void end(DefinitionList node, VisitorContext context)
     {
-        visitListItem(node);
+        context.getListener().endDefinitionList(Collections.emptyMap());
     }
 
-    public void visit(DefinitionList node)
+    public void begin(DefinitionTerm node, VisitorContext context)
     {
-        getListener().beginDefinitionList(Collections.emptyMap());
-        getVisitor().visitChildren(node);
-        getListener().endDefinitionList(Collections.emptyMap());
+        context.getListener().beginDefinitionTerm();
+        beginSwallowingParagraphs(context);
     }
 
-    public void visit(DefinitionTerm node)
+    public void end(DefinitionTerm node, VisitorContext context)
     {
-        getListener().beginDefinitionTerm();
-        WrappingListener paragraphListener = new ParagraphWrappingListener();
-        paragraphListener.setWrappedListener(getListener());
-        pushListener(paragraphListener);
-        getVisitor().visitChildren(node);
-        popListener();
-        getListener().endDefinitionTerm();
+        endSwallowingParagraphs(context);
+        context.getListener().endDefinitionTerm();
     }
 
-    public void visit(DefinitionItem node)
+    public void begin(DefinitionItem node, VisitorContext context)
     {
-        getListener().beginDefinitionDescription();
-        visitChildrenAndSwallowParagraphs(node);
-        getListener().endDefinitionDescription();
+        context.getListener().beginDefinitionDescription();
+        beginSwallowingParagraphs(context);
     }
 
-    private void visitListItem(Node node)
+    public void end(DefinitionItem node, VisitorContext context)
+    {
+        endSwallowingParagraphs(context);
+        context.getListener().endDefinitionDescription();
+    }
+
+    private void beginListItem(Node node, VisitorContext context)
+    {
+        context.getListener().beginListItem();
+        beginSwallowingParagraphs(context);
+    }
+
+    private void endListItem(Node node, VisitorContext context)
+    {
+        endSwallowingParagraphs(context);
+        context.getListener().endListItem();
+    }
+
+    /**
+     * Swallow paragraphs (for example we don't want to generate paragraphs for list items since the XWiki model
+     * doesn't wrap list item content inside paragraphs).
+     */
+    private void beginSwallowingParagraphs(VisitorContext context)
     {
-        getListener().beginListItem();
-        visitChildrenAndSwallowParagraphs(node);
-        getListener().endListItem();
+        context.getStructureListener().beginParagraphSwallowing();
     }
 
-    private void visitChildrenAndSwallowParagraphs(Node node)
+    private void endSwallowingParagraphs(VisitorContext context)
     {
-        WrappingListener paragraphListener = new ParagraphWrappingListener();
-        paragraphListener.setWrappedListener(getListener());
-        pushListener(paragraphListener);
-        getVisitor().visitChildren(node);
-        popListener();
+        context.getStructureListener().endParagraphSwallowing();
     }
 }
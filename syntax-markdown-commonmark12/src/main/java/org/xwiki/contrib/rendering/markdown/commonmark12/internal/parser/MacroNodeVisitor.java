@@ -19,57 +19,43 @@
  */
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
-import java.util.Deque;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
-import org.xwiki.rendering.listener.Listener;
 
 import com.vladsch.flexmark.ext.xwiki.macros.Macro;
 import com.vladsch.flexmark.ext.xwiki.macros.MacroBlock;
 import com.vladsch.flexmark.ext.xwiki.macros.MacroClose;
-import com.vladsch.flexmark.ext.xwiki.macros.MacroVisitor;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
-public class MacroNodeVisitor extends AbstractNodeVisitor implements MacroVisitor
+public class MacroNodeVisitor extends AbstractNodeVisitor
 {
-    public MacroNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        super(visitor, listeners);
+        dispatcher.register(Macro.class, this::visit);
+        dispatcher.register(MacroBlock.class, this::visit);
+        dispatcher.register(MacroClose.class, this::visit);
     }
 
-    public static <V extends MacroNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
-    {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(Macro.class, node -> visitor.visit(node)),
-                new VisitHandler<>(MacroBlock.class, node -> visitor.visit(node)),
-                new VisitHandler<>(MacroClose.class, node -> visitor.visit(node))
-        };
-    }
-
-    @Override
-    public void visit(Macro node)
+    public void visit(Macro node, VisitorContext context)
     {
         if (!node.isBlockMacro()) {
             Map<String, String> parameters = node.getAttributes();
             String content = node.getMacroContentChars().toString();
-            getListener().onMacro(node.getName().toString(), parameters, normalizeMacroContent(content), true);
+            context.getListener().onMacro(node.getName().toString(), parameters, normalizeMacroContent(content), true);
         }
     }
 
-    @Override
-    public void visit(MacroClose node)
+    public void visit(MacroClose node, VisitorContext context)
     {
     }
 
-    @Override
-    public void visit(MacroBlock node)
+    public void visit(MacroBlock node, VisitorContext context)
     {
         Map<String, String> parameters = node.getAttributes();
         String content = node.getMacroContentChars().toString();
-        getListener().onMacro(node.getMacroNode().getName().toString(), parameters, normalizeMacroContent(content),
-            false);
+        context.getListener().onMacro(node.getMacroNode().getName().toString(), parameters,
+            normalizeMacroContent(content), false);
     }
 
     private String normalizeMacroContent(String content)
@@ -0,0 +1,196 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancellationToken;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancelledException;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.internal.parser.XDOMGeneratorListener;
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.parser.ParseException;
+import org.xwiki.rendering.syntax.Syntax;
+
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+
+/**
+ * Parses content that has been read by {@link AbstractMarkdownStreamParser}: the content is truncated to
+ * {@link MarkdownOptions#MAX_INPUT_LENGTH}, parsed at once, in parallel (see {@link ParallelDocumentParser}) or chunk
+ * by chunk while its events are generated (see {@link StreamingDocumentParser}) depending on the configuration, and
+ * the events of the parsed documents are generated. All the options are read from the configuration snapshot taken
+ * when the parse started.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class MarkdownContentParser
+{
+    private static final String PARSE_ERROR = "Failed to parse Markdown content";
+
+    private final Parser parser;
+
+    private final DataHolder options;
+
+    private final ParsingExecutor executor;
+
+    private final FlexmarkNodeVisitor visitor;
+
+    private final Syntax syntax;
+
+    /**
+     * @param parser the Flexmark parser matching the configuration snapshot
+     * @param options the options of the configuration snapshot
+     * @param executor runs the parses of the chunks of the content parsed in parallel
+     * @param visitor converts the parsed Flexmark nodes into XWiki events
+     * @param syntax the parsed syntax
+     */
+    MarkdownContentParser(Parser parser, DataHolder options, ParsingExecutor executor, FlexmarkNodeVisitor visitor,
+        Syntax syntax)
+    {
+        this.parser = parser;
+        this.options = options;
+        this.executor = executor;
+        this.visitor = visitor;
+        this.syntax = syntax;
+    }
+
+    /**
+     * @param content the content to parse
+     * @param listener receives the events generated by the parser
+     * @throws ParseException if the content cannot be parsed
+     */
+    void parse(CharSequence content, Listener listener) throws ParseException
+    {
+        parse(content, listener, null);
+    }
+
+    /**
+     * Parses content, aborting the parse when the passed token is cancelled: the token is checked while the Flexmark
+     * parser reads the content (see {@link CancellableCharSequence}) and while the events are generated.
+     *
+     * @param content the content to parse
+     * @param listener receives the events generated by the parser
+     * @param cancellationToken the token checked during the parse, or {@code null} if the parse cannot be cancelled
+     * @throws ParseException if the content cannot be parsed
+     */
+    void parse(CharSequence content, Listener listener, MarkdownCancellationToken cancellationToken)
+        throws ParseException
+    {
+        BasedSequence source;
+        if (cancellationToken != null) {
+            cancellationToken.check();
+            source = BasedSequence.of(new CancellableCharSequence(content, cancellationToken));
+        } else {
+            source = BasedSequence.of(content);
+        }
+        parseSource(source, listener, cancellationToken);
+    }
+
+    /**
+     * Parses content into an XDOM. The XDOM of simple documents is built directly from the Flexmark nodes (see
+     * {@link DirectXDOMBuilder}), the events are generated for the other documents.
+     *
+     * @param content the content to parse
+     * @return the XDOM corresponding to the content
+     * @throws ParseException if the content cannot be parsed
+     */
+    XDOM parseXDOM(CharSequence content) throws ParseException
+    {
+        BasedSequence sequence = BasedSequence.of(content);
+        int parsedLength = TruncatedContent.getParsedLength(sequence, getMaxInputLength());
+        List<Document> documents = parseDocuments(sequence.subSequence(0, parsedLength), null);
+        XDOM xdom = parsedLength == sequence.length() ? DirectXDOMBuilder.build(documents, this.syntax) : null;
+        if (xdom == null) {
+            XDOMGeneratorListener xdomGeneratorListener = new XDOMGeneratorListener();
+            this.visitor.visit(TruncatedContent.append(documents, sequence, parsedLength, this.options),
+                xdomGeneratorListener, this.syntax);
+            xdom = xdomGeneratorListener.getXDOM();
+        }
+        return xdom;
+    }
+
+    private void parseSource(BasedSequence source, Listener listener, MarkdownCancellationToken cancellationToken)
+        throws ParseException
+    {
+        int parsedLength = TruncatedContent.getParsedLength(source, getMaxInputLength());
+        BasedSequence parsedSource = source.subSequence(0, parsedLength);
+        Iterable<Document> documents = streamDocuments(parsedSource);
+        if (documents == null) {
+            documents = parseDocuments(parsedSource, cancellationToken);
+        }
+        try {
+            this.visitor.visit(TruncatedContent.append(documents, source, parsedLength, this.options), listener,
+                this.syntax, cancellationToken);
+        } catch (StreamingDocumentParser.ChunkParseException e) {
+            throw new ParseException(PARSE_ERROR, e.getCause());
+        }
+    }
+
+    /**
+     * @return the documents of the content parsed lazily as their events are generated, or {@code null} if streaming
+     *         is disabled or not possible for this content
+     */
+    private Iterable<Document> streamDocuments(BasedSequence source) throws ParseException
+    {
+        int chunkSize = MarkdownOptions.STREAMING_CHUNK_SIZE.get(this.options);
+        if (chunkSize <= 0 || source.length() <= chunkSize) {
+            return null;
+        }
+
+        try {
+            return StreamingDocumentParser.parse(this.parser, source, chunkSize);
+        } catch (MarkdownCancelledException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ParseException(PARSE_ERROR, e);
+        }
+    }
+
+    private int getMaxInputLength()
+    {
+        return MarkdownOptions.MAX_INPUT_LENGTH.get(this.options);
+    }
+
+    private List<Document> parseDocuments(BasedSequence source, MarkdownCancellationToken cancellationToken)
+        throws ParseException
+    {
+        int parallelThreshold = MarkdownOptions.PARALLEL_PARSING_THRESHOLD.get(this.options);
+
+        List<Document> documents;
+        if (parallelThreshold > 0 && source.length() >= parallelThreshold) {
+            documents = new ParallelDocumentParser(this.parser, this.executor, cancellationToken).parse(source);
+        } else {
+            try {
+                documents = Collections.singletonList(this.parser.parse(source));
+            } catch (MarkdownCancelledException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ParseException(PARSE_ERROR, e);
+            }
+        }
+        return documents;
+    }
+}
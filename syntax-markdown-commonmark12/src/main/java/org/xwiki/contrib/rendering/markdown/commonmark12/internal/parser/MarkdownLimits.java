@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.Collections;
+
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.listener.MetaData;
+
+import com.vladsch.flexmark.util.data.DataKey;
+
+/**
+ * Reports the parsing limits (see {@link org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions})
+ * reached by a parse: the content affected by a limit is wrapped in a metadata group holding the name of the limit,
+ * so that the degradation can be found in the generated XDOM.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public final class MarkdownLimits
+{
+    /**
+     * The metadata holding the name of the limit (e.g. {@code MAX_NODES}) reached by the content it wraps.
+     */
+    public static final String LIMIT_METADATA = "markdownLimit";
+
+    private MarkdownLimits()
+    {
+        // Utility class
+    }
+
+    /**
+     * @param limit the option of the limit reached
+     * @return the metadata to wrap the content affected by the limit with
+     */
+    static MetaData getMetaData(DataKey<?> limit)
+    {
+        return new MetaData(Collections.singletonMap(LIMIT_METADATA, limit.getName()));
+    }
+
+    /**
+     * Generates the events of content that is not parsed because of a limit, as a verbatim block.
+     *
+     * @param listener receives the generated events
+     * @param limit the option of the limit reached
+     * @param content the source of the content that is not parsed
+     */
+    static void onLimitedContent(Listener listener, DataKey<?> limit, CharSequence content)
+    {
+        MetaData metaData = getMetaData(limit);
+        listener.beginMetaData(metaData);
+        if (content.length() > 0) {
+            listener.onVerbatim(content.toString(), false, Listener.EMPTY_PARAMETERS);
+        }
+        listener.endMetaData(metaData);
+    }
+}
@@ -0,0 +1,731 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Provider;
+
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancellationToken;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancelledException;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions;
+import org.xwiki.rendering.listener.HeaderLevel;
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.listener.QueueListener;
+import org.xwiki.rendering.listener.WrappingListener;
+import org.xwiki.rendering.parser.ParseException;
+import org.xwiki.rendering.syntax.Syntax;
+
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.Reference;
+import com.vladsch.flexmark.ext.abbreviation.AbbreviationBlock;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+
+/**
+ * Parses successive versions of the same Markdown source, as sent by an editor's live preview, re-parsing only the
+ * top-level blocks affected by an edit instead of the whole source.
+ * <p>
+ * The session remembers the boundaries of the top-level blocks of the last parsed source, and the reference and
+ * abbreviation definitions it contains. When the source is edited, the blocks around the edit are re-parsed together
+ * with the unchanged blocks surrounding them, with the definitions appended so that references used in the re-parsed
+ * blocks are resolved. If one of the surrounding blocks doesn't come out unchanged (because a fence or an HTML block
+ * was opened for example) the re-parsed region is widened. A full parse is done when a definition is added, modified
+ * or removed, since it can change the rendering of any block.
+ * <p>
+ * For an incremental update the listener only receives the events of the re-parsed blocks, wrapped in their own
+ * document; sections are thus computed only from the headings of these blocks. The heading ids are the same as for a
+ * full parse: the session remembers the ids generated for each block so that the re-parsed headings don't reuse the
+ * ids of the preceding ones, and does a full parse when the ids of the following headings would change.
+ * <p>
+ * The limits of the parser options apply as for a one-shot parse (see {@link MarkdownOptions}). A full parse is done
+ * when the source is longer than {@link MarkdownOptions#MAX_INPUT_LENGTH}, or when the previous or the new source may
+ * have more than {@link MarkdownOptions#MAX_NODES} nodes, since the events cut by these limits depend on the whole
+ * source. The nesting depth and table cells limits only depend on each top-level block. The parses can be aborted
+ * with a {@link MarkdownCancellationToken}. A session is not thread-safe.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public class MarkdownParsingSession
+{
+    /**
+     * Number of times the re-parsed region is widened before falling back to a full parse.
+     */
+    private static final int MAX_WIDENINGS = 4;
+
+    private static final String BLOCK_SEPARATOR = "\n\n";
+
+    private final Parser parser;
+
+    private final DataHolder options;
+
+    private final int maxInputLength;
+
+    private final int maxNodes;
+
+    private final Provider<FlexmarkNodeVisitor> visitorProvider;
+
+    private final Syntax syntax;
+
+    private String source;
+
+    private List<TopLevelBlock> blocks = Collections.emptyList();
+
+    private String definitions;
+
+    /**
+     * Whether the ids of the headings of each block are known (they are not when a limit cut the events).
+     */
+    private boolean headingIdsKnown;
+
+    /**
+     * Whether the end of the source was not parsed because of {@link MarkdownOptions#MAX_INPUT_LENGTH}.
+     */
+    private boolean truncated;
+
+    /**
+     * A top-level block of the parsed source.
+     *
+     * @version $Id$
+     */
+    public static final class TopLevelBlock
+    {
+        private final Class<? extends Node> type;
+
+        private final int start;
+
+        private final int end;
+
+        private final boolean definition;
+
+        private final int headingCount;
+
+        /**
+         * The number of nodes of the block, which is at least the number of nodes visited for it.
+         */
+        private final int nodeCount;
+
+        private List<String> headingIds = Collections.emptyList();
+
+        TopLevelBlock(Node node, int offset)
+        {
+            this.type = node.getClass();
+            this.start = node.getStartOffset() + offset;
+            this.end = node.getEndOffset() + offset;
+            this.definition = containsDefinition(node);
+            this.headingCount = countHeadings(node);
+            this.nodeCount = countNodes(node);
+        }
+
+        private TopLevelBlock(TopLevelBlock block, int delta)
+        {
+            this.type = block.type;
+            this.start = block.start + delta;
+            this.end = block.end + delta;
+            this.definition = block.definition;
+            this.headingCount = block.headingCount;
+            this.nodeCount = block.nodeCount;
+            this.headingIds = block.headingIds;
+        }
+
+        /**
+         * @return the type of Flexmark node of the block
+         */
+        public Class<? extends Node> getType()
+        {
+            return this.type;
+        }
+
+        /**
+         * @return the offset of the first character of the block in the source
+         */
+        public int getStart()
+        {
+            return this.start;
+        }
+
+        /**
+         * @return the offset following the last character of the block in the source
+         */
+        public int getEnd()
+        {
+            return this.end;
+        }
+
+        private boolean isSameAs(Node node, int offset)
+        {
+            return node.getClass() == this.type && node.getStartOffset() + offset == this.start
+                && node.getEndOffset() + offset == this.end;
+        }
+
+        private static boolean containsDefinition(Node node)
+        {
+            if (isDefinition(node)) {
+                return true;
+            }
+            for (Node child : node.getDescendants()) {
+                if (isDefinition(child)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int countHeadings(Node node)
+        {
+            int count = node instanceof Heading ? 1 : 0;
+            for (Node child : node.getDescendants()) {
+                if (child instanceof Heading) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private static int countNodes(Node node)
+        {
+            int count = 1;
+            Iterator<Node> descendants = node.getDescendants().iterator();
+            while (descendants.hasNext()) {
+                descendants.next();
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Records the ids of the headings, in the order of the events.
+     *
+     * @version $Id$
+     */
+    private static final class HeadingIdRecorder extends WrappingListener
+    {
+        private final List<String> ids = new ArrayList<>();
+
+        HeadingIdRecorder(Listener listener)
+        {
+            setWrappedListener(listener);
+        }
+
+        @Override
+        public void beginHeader(HeaderLevel level, String id, Map<String, String> parameters)
+        {
+            this.ids.add(id);
+            super.beginHeader(level, id, parameters);
+        }
+    }
+
+    /**
+     * Describes the top-level blocks replaced by a call to
+     * {@link #update(String, int, int, Listener, MarkdownCancellationToken)}.
+     *
+     * @version $Id$
+     */
+    public static final class Change
+    {
+        private final int firstBlock;
+
+        private final int removedBlocks;
+
+        private final int addedBlocks;
+
+        private final boolean fullParse;
+
+        Change(int firstBlock, int removedBlocks, int addedBlocks, boolean fullParse)
+        {
+            this.firstBlock = firstBlock;
+            this.removedBlocks = removedBlocks;
+            this.addedBlocks = addedBlocks;
+            this.fullParse = fullParse;
+        }
+
+        /**
+         * @return the index of the first replaced top-level block
+         */
+        public int getFirstBlock()
+        {
+            return this.firstBlock;
+        }
+
+        /**
+         * @return the number of top-level blocks of the previous source that have been replaced
+         */
+        public int getRemovedBlocks()
+        {
+            return this.removedBlocks;
+        }
+
+        /**
+         * @return the number of top-level blocks that have replaced them, for which events have been sent
+         */
+        public int getAddedBlocks()
+        {
+            return this.addedBlocks;
+        }
+
+        /**
+         * @return {@code true} if the whole source has been parsed again
+         */
+        public boolean isFullParse()
+        {
+            return this.fullParse;
+        }
+    }
+
+    /**
+     * @param parser the Flexmark parser to use
+     * @param visitorProvider provides the visitors converting Flexmark nodes into XWiki events
+     * @param syntax the syntax of the parsed source
+     */
+    public MarkdownParsingSession(Parser parser, Provider<FlexmarkNodeVisitor> visitorProvider, Syntax syntax)
+    {
+        this.parser = parser;
+        this.options = parser.getOptions();
+        this.maxInputLength = MarkdownOptions.MAX_INPUT_LENGTH.get(this.options);
+        this.maxNodes = MarkdownOptions.MAX_NODES.get(this.options);
+        this.visitorProvider = visitorProvider;
+        this.syntax = syntax;
+    }
+
+    /**
+     * Parses the whole source, forgetting about what was parsed before.
+     *
+     * @param newSource the Markdown source to parse
+     * @param listener receives the events generated for the whole source
+     * @throws ParseException if the source cannot be parsed
+     */
+    public void parse(String newSource, Listener listener) throws ParseException
+    {
+        parse(newSource, listener, null);
+    }
+
+    /**
+     * Parses the whole source, forgetting about what was parsed before, aborting the parse when the passed token is
+     * cancelled.
+     *
+     * @param newSource the Markdown source to parse
+     * @param listener receives the events generated for the whole source
+     * @param cancellationToken the token checked during the parse, or {@code null} if the parse cannot be cancelled
+     * @throws ParseException if the source cannot be parsed
+     * @throws MarkdownCancelledException if the parse is aborted; the listener may have received part of the events,
+     *             and the next update does a full parse
+     */
+    public void parse(String newSource, Listener listener, MarkdownCancellationToken cancellationToken)
+        throws ParseException
+    {
+        BasedSequence sequence = toSequence(newSource, cancellationToken);
+        int parsedLength = TruncatedContent.getParsedLength(sequence, this.maxInputLength);
+        Document document = parseDocument(sequence.subSequence(0, parsedLength));
+
+        List<TopLevelBlock> newBlocks = new ArrayList<>();
+        StringBuilder newDefinitions = new StringBuilder();
+        for (Node node : document.getChildren()) {
+            newBlocks.add(new TopLevelBlock(node, 0));
+            collectDefinitions(node, newDefinitions);
+        }
+
+        this.source = newSource;
+        this.blocks = newBlocks;
+        this.definitions = newDefinitions.toString();
+        this.truncated = parsedLength < newSource.length();
+        // Until the events are generated.
+        this.headingIdsKnown = false;
+
+        HeadingIdRecorder recorder = new HeadingIdRecorder(listener);
+        this.visitorProvider.get().visit(TruncatedContent.append(Collections.singletonList(document), sequence,
+            parsedLength, this.options), recorder, this.syntax, cancellationToken);
+        this.headingIdsKnown = assignHeadingIds(newBlocks, recorder.ids);
+    }
+
+    /**
+     * Parses a new version of the source, re-parsing only the top-level blocks affected by the passed edit.
+     *
+     * @param newSource the new version of the whole Markdown source
+     * @param offset the offset in the previous source where the edit starts
+     * @param removedLength the number of characters of the previous source replaced by the edit; the number of
+     *            inserted characters is deduced from the length of the new source
+     * @param listener receives the events generated for the re-parsed blocks
+     * @return the description of the replaced blocks
+     * @throws ParseException if the source cannot be parsed
+     */
+    public Change update(String newSource, int offset, int removedLength, Listener listener) throws ParseException
+    {
+        return update(newSource, offset, removedLength, listener, null);
+    }
+
+    /**
+     * Parses a new version of the source, re-parsing only the top-level blocks affected by the passed edit, and
+     * aborting the parse when the passed token is cancelled.
+     *
+     * @param newSource the new version of the whole Markdown source
+     * @param offset the offset in the previous source where the edit starts
+     * @param removedLength the number of characters of the previous source replaced by the edit; the number of
+     *            inserted characters is deduced from the length of the new source
+     * @param listener receives the events generated for the re-parsed blocks
+     * @param cancellationToken the token checked during the parse, or {@code null} if the parse cannot be cancelled
+     * @return the description of the replaced blocks
+     * @throws ParseException if the source cannot be parsed
+     * @throws MarkdownCancelledException if the parse is aborted; the events of the re-parsed blocks are only sent
+     *             once they are all generated, so the session is left unchanged unless a full parse was aborted
+     */
+    public Change update(String newSource, int offset, int removedLength, Listener listener,
+        MarkdownCancellationToken cancellationToken) throws ParseException
+    {
+        Change change = null;
+        if (this.headingIdsKnown && isIncrementalUpdatePossible(offset, removedLength) && isWithinLimits(newSource)) {
+            change = updateBlocks(newSource, offset, removedLength, listener, cancellationToken);
+        }
+        if (change == null) {
+            int previousBlocks = this.blocks.size();
+            parse(newSource, listener, cancellationToken);
+            change = new Change(0, previousBlocks, this.blocks.size(), true);
+        }
+        return change;
+    }
+
+    /**
+     * @return the top-level blocks of the last parsed source
+     */
+    public List<TopLevelBlock> getBlocks()
+    {
+        return Collections.unmodifiableList(this.blocks);
+    }
+
+    private boolean isIncrementalUpdatePossible(int offset, int removedLength)
+    {
+        return !this.blocks.isEmpty() && offset >= 0 && removedLength >= 0
+            && offset + removedLength <= this.source.length();
+    }
+
+    /**
+     * @return {@code true} if neither the previous nor the new source are cut by a limit: the truncated content and
+     *         the nodes cut by the limit depend on the whole source
+     */
+    private boolean isWithinLimits(String newSource)
+    {
+        if (this.truncated || (this.maxInputLength > 0 && newSource.length() > this.maxInputLength)) {
+            return false;
+        }
+        return this.maxNodes <= 0 || countNodes(this.blocks) <= this.maxNodes;
+    }
+
+    private Change updateBlocks(String newSource, int offset, int removedLength, Listener listener,
+        MarkdownCancellationToken cancellationToken) throws ParseException
+    {
+        int delta = newSource.length() - this.source.length();
+        int first = findFirstBlock(offset);
+        int last = findLastBlock(first, offset + removedLength);
+
+        for (int widening = 0; widening <= MAX_WIDENINGS && !containsDefinition(first, last); widening++) {
+            // Also parse the blocks surrounding the region (if any) to verify that the region starts and ends at the
+            // same place. The previous block also gives the context some blocks depend on (definition items).
+            TopLevelBlock previous = getBlock(first - 1, 0);
+            TopLevelBlock next = getBlock(last + 1, delta);
+            int regionStart = getRegionStart(newSource, first, offset);
+            int regionEnd = getRegionEnd(newSource, next);
+
+            Document document = parseRegion(newSource.substring(regionStart, regionEnd), cancellationToken);
+            List<Node> regionNodes = getRegionNodes(document, regionEnd - regionStart);
+            if (regionNodes == null) {
+                break;
+            }
+            boolean sameStart = isSameBlock(previous, regionNodes, 0, regionStart);
+            boolean sameEnd = isSameBlock(next, regionNodes, regionNodes.size() - 1, regionStart);
+            if (sameStart && sameEnd) {
+                List<Node> changedNodes = regionNodes.subList(previous != null ? 1 : 0,
+                    next != null ? regionNodes.size() - 1 : regionNodes.size());
+                List<TopLevelBlock> changedBlocks = createBlocks(changedNodes, regionStart);
+                // Only send the events of the blocks that have changed.
+                removeUnchangedNodes(document, changedNodes);
+                return replaceBlocks(newSource, first, last, document, changedBlocks, listener, cancellationToken);
+            }
+            first -= sameStart ? 0 : 1;
+            last += sameEnd ? 0 : 1;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the beginning of the line of the block preceding the region (or of the first block of the region if
+     *         it's the first block), since the offset of a block doesn't include its indentation
+     */
+    private int getRegionStart(String newSource, int first, int offset)
+    {
+        int blockStart = this.blocks.get(Math.max(first - 1, 0)).getStart();
+        return newSource.lastIndexOf('\n', Math.min(blockStart, offset) - 1) + 1;
+    }
+
+    private int getRegionEnd(String newSource, TopLevelBlock next)
+    {
+        return next != null ? next.getEnd() : newSource.length();
+    }
+
+    private Document parseRegion(String region, MarkdownCancellationToken cancellationToken) throws ParseException
+    {
+        return parseDocument(toSequence(
+            this.definitions.isEmpty() ? region : region + BLOCK_SEPARATOR + this.definitions, cancellationToken));
+    }
+
+    private TopLevelBlock getBlock(int index, int delta)
+    {
+        return index >= 0 && index < this.blocks.size() ? new TopLevelBlock(this.blocks.get(index), delta) : null;
+    }
+
+    /**
+     * @return {@code true} if there's no block to compare to, or if the block is the same as the node at the passed
+     *         index
+     */
+    private boolean isSameBlock(TopLevelBlock block, List<Node> nodes, int index, int offset)
+    {
+        return block == null || (index >= 0 && index < nodes.size() && block.isSameAs(nodes.get(index), offset));
+    }
+
+    /**
+     * @return the index of the block preceding the edit: the edit can make the last line of that block part of the
+     *         next block (a setext heading underline for example)
+     */
+    private int findFirstBlock(int offset)
+    {
+        int first = this.blocks.size() - 1;
+        for (int i = 0; i < this.blocks.size(); i++) {
+            if (this.blocks.get(i).getEnd() >= offset) {
+                first = i;
+                break;
+            }
+        }
+        return Math.max(first - 1, 0);
+    }
+
+    /**
+     * @return the index of the last block starting before the end of the edit
+     */
+    private int findLastBlock(int first, int editEnd)
+    {
+        int last = first;
+        for (int i = first; i < this.blocks.size() && this.blocks.get(i).getStart() <= editEnd; i++) {
+            last = i;
+        }
+        return last;
+    }
+
+    private boolean containsDefinition(int first, int last)
+    {
+        for (int i = first; i <= last; i++) {
+            if (this.blocks.get(i).definition) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the top-level nodes of the region (i.e. not the appended definitions), or {@code null} if a full
+     *         parse is required
+     */
+    private List<Node> getRegionNodes(Document document, int regionLength)
+    {
+        List<Node> regionNodes = new ArrayList<>();
+        for (Node node : document.getChildren()) {
+            if (node.getStartOffset() >= regionLength) {
+                break;
+            }
+            // A definition was added, or a block (an open fence for example) goes over the appended definitions.
+            if (node.getEndOffset() > regionLength || TopLevelBlock.containsDefinition(node)) {
+                return null;
+            }
+            regionNodes.add(node);
+        }
+        return regionNodes;
+    }
+
+    /**
+     * @return the description of the replaced blocks, or {@code null} if a full parse is required
+     */
+    private static List<TopLevelBlock> createBlocks(List<Node> nodes, int offset)
+    {
+        List<TopLevelBlock> nodeBlocks = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            nodeBlocks.add(new TopLevelBlock(node, offset));
+        }
+        return nodeBlocks;
+    }
+
+    private static void removeUnchangedNodes(Document document, List<Node> changedNodes)
+    {
+        Set<Node> changedNodeSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        changedNodeSet.addAll(changedNodes);
+        Node node = document.getFirstChild();
+        while (node != null) {
+            Node nextNode = node.getNext();
+            if (!changedNodeSet.contains(node)) {
+                node.unlink();
+            }
+            node = nextNode;
+        }
+    }
+
+    private Change replaceBlocks(String newSource, int first, int last, Document document,
+        List<TopLevelBlock> changedBlocks, Listener listener, MarkdownCancellationToken cancellationToken)
+    {
+        // The new source may be cut by the nodes limit.
+        if (this.maxNodes > 0 && countNodes(this.blocks) - countNodes(this.blocks.subList(first, last + 1))
+            + countNodes(changedBlocks) - 1 > this.maxNodes)
+        {
+            return null;
+        }
+
+        // Generate the same heading ids as a full parse, and buffer the events until we know that the ids of the
+        // following headings are unchanged.
+        document.set(HeadingNodeVisitor.RESERVED_IDS, getHeadingIds(this.blocks.subList(0, first)));
+        QueueListener queueListener = new QueueListener();
+        HeadingIdRecorder recorder = new HeadingIdRecorder(queueListener);
+        this.visitorProvider.get().visit(Collections.singletonList(document), recorder, this.syntax,
+            cancellationToken);
+        List<TopLevelBlock> followingBlocks = this.blocks.subList(last + 1, this.blocks.size());
+        if (!assignHeadingIds(changedBlocks, recorder.ids)
+            || haveFollowingIdsChanged(this.blocks.subList(first, last + 1), changedBlocks, followingBlocks))
+        {
+            return null;
+        }
+
+        int delta = newSource.length() - this.source.length();
+        List<TopLevelBlock> newBlocks = new ArrayList<>(first + changedBlocks.size() + followingBlocks.size());
+        newBlocks.addAll(this.blocks.subList(0, first));
+        newBlocks.addAll(changedBlocks);
+        for (TopLevelBlock block : followingBlocks) {
+            newBlocks.add(new TopLevelBlock(block, delta));
+        }
+
+        this.source = newSource;
+        this.blocks = newBlocks;
+
+        queueListener.consumeEvents(listener);
+
+        return new Change(first, last - first + 1, changedBlocks.size(), false);
+    }
+
+    /**
+     * Assigns the ids of the passed headings, in the order of their events, to the blocks containing them.
+     *
+     * @return {@code false} if the number of ids doesn't match the number of headings of the blocks
+     */
+    private static boolean assignHeadingIds(List<TopLevelBlock> blocks, List<String> ids)
+    {
+        int headingCount = 0;
+        for (TopLevelBlock block : blocks) {
+            headingCount += block.headingCount;
+        }
+        if (headingCount != ids.size()) {
+            return false;
+        }
+        int index = 0;
+        for (TopLevelBlock block : blocks) {
+            block.headingIds = ids.subList(index, index + block.headingCount);
+            index += block.headingCount;
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the ids of the headings following the replaced blocks would be different in a full parse
+     */
+    private static boolean haveFollowingIdsChanged(List<TopLevelBlock> removedBlocks,
+        List<TopLevelBlock> changedBlocks, List<TopLevelBlock> followingBlocks)
+    {
+        // Each id depends only on the set of ids generated before it.
+        return !new HashSet<>(getHeadingIds(removedBlocks)).equals(new HashSet<>(getHeadingIds(changedBlocks)))
+            && !getHeadingIds(followingBlocks).isEmpty();
+    }
+
+    private static List<String> getHeadingIds(List<TopLevelBlock> blocks)
+    {
+        List<String> ids = new ArrayList<>();
+        for (TopLevelBlock block : blocks) {
+            ids.addAll(block.headingIds);
+        }
+        return ids;
+    }
+
+    /**
+     * @return the number of nodes of the document made of the passed blocks, which is at least the number of nodes
+     *         visited for it
+     */
+    private static int countNodes(List<TopLevelBlock> blocks)
+    {
+        // The document is counted too.
+        int count = 1;
+        for (TopLevelBlock block : blocks) {
+            count += block.nodeCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return the passed content, read through the passed token if any
+     */
+    private static BasedSequence toSequence(CharSequence content, MarkdownCancellationToken cancellationToken)
+    {
+        if (cancellationToken != null) {
+            cancellationToken.check();
+            return BasedSequence.of(new CancellableCharSequence(content, cancellationToken));
+        }
+        return BasedSequence.of(content);
+    }
+
+    private Document parseDocument(BasedSequence content) throws ParseException
+    {
+        try {
+            return this.parser.parse(content);
+        } catch (MarkdownCancelledException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ParseException("Failed to parse Markdown content", e);
+        }
+    }
+
+    private static void collectDefinitions(Node node, StringBuilder definitions)
+    {
+        if (isDefinition(node)) {
+            definitions.append(node.getChars()).append(BLOCK_SEPARATOR);
+        } else {
+            for (Node child : node.getChildren()) {
+                collectDefinitions(child, definitions);
+            }
+        }
+    }
+
+    private static boolean isDefinition(Node node)
+    {
+        return node instanceof Reference || node instanceof AbbreviationBlock;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.xwiki.rendering.listener.HeaderLevel;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.listener.WrappingListener;
+
+/**
+ * Converts the structure of the Flexmark model to the XWiki model in a single listener, so that events don't go
+ * through a chain of wrapping listeners (one per nested list item or quote):
+ * <ul>
+ * <li>sections, since the notion of section doesn't exist in Markdown but XWiki requires it;</li>
+ * <li>paragraphs in quotes, replaced by quotation lines since XWiki only supports paragraphs in quotations (see
+ * http://jira.xwiki.org/browse/XRENDERING-259);</li>
+ * <li>paragraphs in list items and definitions, which are swallowed since the XWiki model doesn't wrap their content
+ * inside paragraphs.</li>
+ * </ul>
+ * Paragraphs are handled according to the innermost quote or list item, tracked in a stack of modes.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public class MarkdownStructureListener extends WrappingListener
+{
+    private static final byte SWALLOW_PARAGRAPHS = 1;
+
+    private static final byte QUOTE = 2;
+
+    /**
+     * Quote in which a quotation line has been started.
+     */
+    private static final byte QUOTE_LINE = 3;
+
+    private static final int INITIAL_MODES_SIZE = 16;
+
+    private static final int MAX_RETAINED_MODES_SIZE = 1024;
+
+    /**
+     * Depth of heading sections that will need to be closed.
+     */
+    private int sectionDepth;
+
+    private byte[] modes = new byte[INITIAL_MODES_SIZE];
+
+    private int modeDepth;
+
+    /**
+     * Forgets the state of the previous parse, including the wrapped listener, so that the listener can be reused.
+     */
+    public void reset()
+    {
+        setWrappedListener(null);
+        this.sectionDepth = 0;
+        this.modeDepth = 0;
+        if (this.modes.length > MAX_RETAINED_MODES_SIZE) {
+            this.modes = new byte[INITIAL_MODES_SIZE];
+        }
+    }
+
+    /**
+     * Start swallowing paragraphs, until {@link #endParagraphSwallowing()}.
+     */
+    public void beginParagraphSwallowing()
+    {
+        pushMode(SWALLOW_PARAGRAPHS);
+    }
+
+    /**
+     * Stop swallowing paragraphs.
+     */
+    public void endParagraphSwallowing()
+    {
+        this.modeDepth--;
+    }
+
+    /**
+     * Start replacing paragraphs with quotation lines, until {@link #endQuote()}.
+     */
+    public void beginQuote()
+    {
+        pushMode(QUOTE);
+    }
+
+    /**
+     * Close the opened quotation line, if any, and stop replacing paragraphs with quotation lines.
+     */
+    public void endQuote()
+    {
+        this.modeDepth--;
+        if (this.modes[this.modeDepth] == QUOTE_LINE) {
+            super.endQuotationLine();
+        }
+    }
+
+    private void pushMode(byte mode)
+    {
+        if (this.modeDepth == this.modes.length) {
+            this.modes = Arrays.copyOf(this.modes, this.modes.length * 2);
+        }
+        this.modes[this.modeDepth++] = mode;
+    }
+
+    @Override
+    public void beginParagraph(Map<String, String> parameters)
+    {
+        if (this.modeDepth == 0) {
+            super.beginParagraph(parameters);
+        } else if (this.modes[this.modeDepth - 1] != SWALLOW_PARAGRAPHS) {
+            if (this.modes[this.modeDepth - 1] == QUOTE_LINE) {
+                super.endQuotationLine();
+            }
+            super.beginQuotationLine();
+            this.modes[this.modeDepth - 1] = QUOTE_LINE;
+        }
+    }
+
+    @Override
+    public void endParagraph(Map<String, String> parameters)
+    {
+        if (this.modeDepth == 0) {
+            super.endParagraph(parameters);
+        }
+    }
+
+    @Override
+    public void beginHeader(HeaderLevel level, String id, Map<String, String> parameters)
+    {
+        if (level.getAsInt() - 1 < this.sectionDepth) {
+            for (int i = 0; i < this.sectionDepth - level.getAsInt() + 1; i++) {
+                super.endSection(Collections.emptyMap());
+            }
+            this.sectionDepth = level.getAsInt() - 1;
+        }
+
+        super.beginSection(Collections.emptyMap());
+        super.beginHeader(level, id, parameters);
+        this.sectionDepth++;
+    }
+
+    @Override
+    public void endDocument(MetaData metaData)
+    {
+        for (int i = 0; i < this.sectionDepth; i++) {
+            super.endSection(Collections.emptyMap());
+        }
+        this.sectionDepth = 0;
+        super.endDocument(metaData);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions;
+import org.xwiki.rendering.listener.MetaData;
+
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+
+/**
+ * Dispatches Flexmark nodes to the handlers registered for their exact class, or visits their children when there's
+ * none (as Flexmark's {@link com.vladsch.flexmark.util.ast.NodeVisitor} does). Unlike Flexmark's visitor the dispatcher
+ * holds no state related to a parse, so it's built once and shared by all parses: the handlers of each node class are
+ * resolved on first use and then read from a slot attached to the class.
+ * <p>
+ * Container nodes (lists, quotes, formatting...) are registered with a begin and an end handler and their children
+ * are traversed with an explicit stack (see {@link NodeStack}) rather than recursively, so that deeply nested content
+ * cannot exhaust the thread's stack. Nodes registered with a single handler are visited by it, recursively if it
+ * visits their children. Container nodes nested deeper than the maximum depth of the {@link VisitorContext} only
+ * generate the events of their content, and the nodes beyond its maximum number of nodes are skipped (see
+ * {@link MarkdownLimits}). Top-level blocks can be unlinked from their document once visited (see
+ * {@link VisitorContext#isReleasingVisitedNodes()}), and the cancellation token of the context is checked for each
+ * visited node (see {@link VisitorContext#checkpoint()}).
+ * <p>
+ * Handlers must all be registered before the dispatcher is used.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public final class NodeDispatcher
+{
+    private static final NodeHandler<Node> NO_OP = (node, context) -> { };
+
+    private static final MetaData NESTING_LIMIT_METADATA =
+        MarkdownLimits.getMetaData(MarkdownOptions.MAX_NESTING_DEPTH);
+
+    private static final NodeHandler<Node> END_NESTING_LIMIT =
+        (node, context) -> context.getListener().endMetaData(NESTING_LIMIT_METADATA);
+
+    private static final Handlers VISIT_CHILDREN = new Handlers(null, NO_OP, NO_OP);
+
+    private final Map<Class<? extends Node>, Handlers> handlers = new HashMap<>();
+
+    private final ClassValue<Handlers> resolvedHandlers = new ClassValue<Handlers>()
+    {
+        @Override
+        protected Handlers computeValue(Class<?> type)
+        {
+            Handlers nodeHandlers = NodeDispatcher.this.handlers.get(type);
+            return nodeHandlers != null ? nodeHandlers : VISIT_CHILDREN;
+        }
+    };
+
+    /**
+     * The handlers of a node class: either a handler visiting the node and its children, or the handlers to call
+     * before and after visiting its children.
+     */
+    private static final class Handlers
+    {
+        private final NodeHandler<Node> handler;
+
+        private final NodeHandler<Node> beginHandler;
+
+        private final NodeHandler<Node> endHandler;
+
+        @SuppressWarnings("unchecked")
+        Handlers(NodeHandler<?> handler, NodeHandler<?> beginHandler, NodeHandler<?> endHandler)
+        {
+            this.handler = (NodeHandler<Node>) handler;
+            this.beginHandler = (NodeHandler<Node>) beginHandler;
+            this.endHandler = (NodeHandler<Node>) endHandler;
+        }
+    }
+
+    /**
+     * @param <N> the type of node handled
+     * @param nodeClass the exact class of the nodes to handle (sub classes are not handled)
+     * @param handler the handler to call for these nodes, in charge of visiting their children, replacing any handler
+     *            previously registered
+     */
+    public <N extends Node> void register(Class<N> nodeClass, NodeHandler<? super N> handler)
+    {
+        this.handlers.put(nodeClass, new Handlers(handler, null, null));
+    }
+
+    /**
+     * @param <N> the type of node handled
+     * @param nodeClass the exact class of the nodes to handle (sub classes are not handled)
+     * @param beginHandler the handler to call before visiting the children of these nodes
+     * @param endHandler the handler to call after visiting the children of these nodes
+     */
+    public <N extends Node> void register(Class<N> nodeClass, NodeHandler<? super N> beginHandler,
+        NodeHandler<? super N> endHandler)
+    {
+        this.handlers.put(nodeClass, new Handlers(null, beginHandler, endHandler));
+    }
+
+    /**
+     * @param node the node to generate events for
+     * @param context the state of the current parse
+     */
+    public void visit(Node node, VisitorContext context)
+    {
+        traverse(node, false, context);
+    }
+
+    /**
+     * @param parent the node whose children to generate events for
+     * @param context the state of the current parse
+     */
+    public void visitChildren(Node parent, VisitorContext context)
+    {
+        traverse(parent.getFirstChild(), true, context);
+    }
+
+    private void traverse(Node first, boolean withSiblings, VisitorContext context)
+    {
+        NodeStack stack = context.getNodeStack();
+        int base = stack.size();
+        Node node = first;
+        do {
+            while (node != null) {
+                // Get the next node first in case the handler removes the current node from the tree.
+                Node next = withSiblings || stack.size() > base ? node.getNext() : null;
+                Handlers nodeHandlers = this.resolvedHandlers.get(node.getClass());
+                context.checkpoint();
+                if (!context.countNode() && node.getParent() != null) {
+                    skip(node, context);
+                    node = null;
+                } else if (nodeHandlers.handler != null) {
+                    nodeHandlers.handler.visit(node, context);
+                    release(node, context);
+                    node = next;
+                } else {
+                    enter(node, next, nodeHandlers, stack, context);
+                    node = node.getFirstChild();
+                }
+            }
+            while (node == null && stack.size() > base) {
+                Node visitedNode = stack.peek();
+                node = stack.pop(context);
+                release(visitedNode, context);
+            }
+        } while (node != null);
+    }
+
+    /**
+     * Unlinks a visited top-level block from its document when requested, so that it can be garbage collected.
+     */
+    private void release(Node node, VisitorContext context)
+    {
+        if (context.isReleasingVisitedNodes() && node.getParent() instanceof Document) {
+            node.unlink();
+        }
+    }
+
+    /**
+     * Skips a node beyond the maximum number of nodes, and thus the nodes following it. The content of the document
+     * from the first skipped node is generated at the end of the document.
+     */
+    private void skip(Node node, VisitorContext context)
+    {
+        if (context.getSkippedNodesOffset() < 0) {
+            context.setSkippedNodesOffset(node.getStartOffset());
+        }
+    }
+
+    private void enter(Node node, Node next, Handlers nodeHandlers, NodeStack stack, VisitorContext context)
+    {
+        int maxDepth = context.getMaxDepth();
+        if (maxDepth > 0 && stack.size() > maxDepth) {
+            stack.push(node, next, null);
+        } else if (maxDepth > 0 && stack.size() == maxDepth) {
+            // Wrap the content of the first level of nodes beyond the maximum depth to report the limit.
+            context.getListener().beginMetaData(NESTING_LIMIT_METADATA);
+            stack.push(node, next, END_NESTING_LIMIT);
+        } else {
+            nodeHandlers.beginHandler.visit(node, context);
+            stack.push(node, next, nodeHandlers.endHandler);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import com.vladsch.flexmark.util.ast.Node;
+
+/**
+ * Generates the events corresponding to a given type of Flexmark node. Handlers are registered once in a
+ * {@link NodeDispatcher} and get all the state of the current parse from the passed {@link VisitorContext}.
+ *
+ * @param <N> the type of node handled
+ * @version $Id$
+ * @since 8.9
+ */
+@FunctionalInterface
+public interface NodeHandler<N extends Node>
+{
+    /**
+     * @param node the node to handle
+     * @param context the state of the current parse
+     */
+    void visit(N node, VisitorContext context);
+}
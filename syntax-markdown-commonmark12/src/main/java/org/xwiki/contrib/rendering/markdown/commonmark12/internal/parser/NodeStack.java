@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.Arrays;
+
+import com.vladsch.flexmark.util.ast.Node;
+
+/**
+ * The container nodes being traversed by a {@link NodeDispatcher}, so that nesting is not limited by the size of the
+ * thread's stack. Each entry holds the node, the node to visit once its children have been visited and the handler
+ * to call at the end of the node. The arrays are kept for the whole parse so that entering a node doesn't allocate.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class NodeStack
+{
+    private static final int INITIAL_SIZE = 32;
+
+    /**
+     * Arrays bigger than this are not kept once cleared, so that a single deeply nested document doesn't keep memory
+     * allocated for the lifetime of a pooled {@link VisitorContext}.
+     */
+    private static final int MAX_RETAINED_SIZE = 1024;
+
+    private Node[] nodes = new Node[INITIAL_SIZE];
+
+    private Node[] nextNodes = new Node[INITIAL_SIZE];
+
+    private NodeHandler<Node>[] endHandlers = newHandlers(INITIAL_SIZE);
+
+    private int size;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static NodeHandler<Node>[] newHandlers(int size)
+    {
+        return new NodeHandler[size];
+    }
+
+    /**
+     * @return the number of nodes being traversed
+     */
+    int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @param node the node whose children are about to be visited
+     * @param next the node to visit after it, or {@code null} if there's none
+     * @param endHandler the handler to call once the children have been visited, or {@code null} if there's none
+     */
+    void push(Node node, Node next, NodeHandler<Node> endHandler)
+    {
+        if (this.size == this.nodes.length) {
+            int newSize = this.size * 2;
+            this.nodes = Arrays.copyOf(this.nodes, newSize);
+            this.nextNodes = Arrays.copyOf(this.nextNodes, newSize);
+            this.endHandlers = Arrays.copyOf(this.endHandlers, newSize);
+        }
+        this.nodes[this.size] = node;
+        this.nextNodes[this.size] = next;
+        this.endHandlers[this.size] = endHandler;
+        this.size++;
+    }
+
+    /**
+     * @return the last pushed node
+     */
+    Node peek()
+    {
+        return this.nodes[this.size - 1];
+    }
+
+    /**
+     * Removes the last pushed node, calling its end handler.
+     *
+     * @param context the state of the current parse
+     * @return the node to visit next, or {@code null} if there's none
+     */
+    Node pop(VisitorContext context)
+    {
+        this.size--;
+        Node node = this.nodes[this.size];
+        Node next = this.nextNodes[this.size];
+        NodeHandler<Node> endHandler = this.endHandlers[this.size];
+        // Don't retain the nodes once the parse is done.
+        this.nodes[this.size] = null;
+        this.nextNodes[this.size] = null;
+        this.endHandlers[this.size] = null;
+        if (endHandler != null) {
+            endHandler.visit(node, context);
+        }
+        return next;
+    }
+
+    /**
+     * Removes all the nodes without calling their end handlers, e.g. after a parse interrupted by an exception.
+     */
+    void clear()
+    {
+        if (this.nodes.length > MAX_RETAINED_SIZE) {
+            this.nodes = new Node[INITIAL_SIZE];
+            this.nextNodes = new Node[INITIAL_SIZE];
+            this.endHandlers = newHandlers(INITIAL_SIZE);
+        } else {
+            Arrays.fill(this.nodes, 0, this.size, null);
+            Arrays.fill(this.nextNodes, 0, this.size, null);
+            Arrays.fill(this.endHandlers, 0, this.size, null);
+        }
+        this.size = 0;
+    }
+}
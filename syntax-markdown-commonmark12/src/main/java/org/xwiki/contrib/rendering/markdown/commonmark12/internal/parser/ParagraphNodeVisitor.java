@@ -20,13 +20,9 @@
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
 import java.util.Collections;
-import java.util.Deque;
 
-import org.xwiki.rendering.listener.Listener;
 
 import com.vladsch.flexmark.ast.Paragraph;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 /**
  * Handle paragraph events.
@@ -36,23 +32,19 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class ParagraphNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends ParagraphNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(Paragraph.class, node -> visitor.visit(node))
-        };
+        dispatcher.register(Paragraph.class, this::begin, this::end);
     }
 
-    public ParagraphNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners)
+    public void begin(Paragraph node, VisitorContext context)
     {
-        super(visitor, listeners);
+        context.getListener().beginParagraph(Collections.emptyMap());
     }
 
-    public void visit(Paragraph node)
+    public void end(Paragraph node, VisitorContext context)
     {
-        getListener().beginParagraph(Collections.emptyMap());
-        getVisitor().visitChildren(node);
-        getListener().endParagraph(Collections.emptyMap());
-
+        context.getListener().endParagraph(Collections.emptyMap());
     }
 }
@@ -0,0 +1,362 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancellationToken;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancelledException;
+import org.xwiki.rendering.parser.ParseException;
+
+import com.vladsch.flexmark.ast.FencedCodeBlock;
+import com.vladsch.flexmark.ast.HtmlBlockBase;
+import com.vladsch.flexmark.ext.abbreviation.AbbreviationExtension;
+import com.vladsch.flexmark.ext.definition.DefinitionList;
+import com.vladsch.flexmark.ext.xwiki.macros.MacroBlock;
+import com.vladsch.flexmark.ext.xwiki.macros.MacroClose;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+
+/**
+ * Parses large content in parallel, by splitting it in chunks of top-level blocks (see {@link TopLevelBlockSplitter})
+ * parsed by a {@link ParsingExecutor}. When the parse is cancelled, the chunks being parsed are aborted through the
+ * cancellation token, and the chunks not parsed yet are not parsed at all.
+ * <p>
+ * Reference and abbreviation definitions apply to the whole content, so once all chunks are parsed the chunks that
+ * may use definitions from other chunks are parsed again with these definitions appended (appending them rather than
+ * prepending them doesn't change how the first block of the chunk is parsed). The definitions are appended in the
+ * order of the content, skipping the ones already defined by the chunk. A chunk redefining a definition of a previous
+ * chunk would take precedence over it, and a chunk ending inside a block would swallow the definitions, so in these
+ * cases the content is parsed at once.
+ * <p>
+ * The split is based on a light scan of the content which can be fooled by some constructs (e.g. a code fence inside
+ * an HTML block). When a chunk ends with an unterminated code fence, HTML block or macro, or when a definition list
+ * spans two chunks, the content is parsed at once as well.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class ParallelDocumentParser
+{
+    /**
+     * Chunks smaller than that (in characters) are not worth the overhead of parsing them separately.
+     */
+    private static final int MIN_CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * Create more chunks than threads since chunks don't all take the same time to parse.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final String BLOCK_SEPARATOR = "\n\n";
+
+    private final Parser parser;
+
+    private final ParsingExecutor executor;
+
+    private final MarkdownCancellationToken cancellationToken;
+
+    /**
+     * The definitions found in a chunk, indexed by their normalized label.
+     */
+    private static final class Definitions
+    {
+        private final Map<String, String> references = new LinkedHashMap<>();
+
+        private final Map<String, String> abbreviations = new LinkedHashMap<>();
+
+        Definitions(Document document)
+        {
+            collect(Parser.REFERENCES.get(document), this.references);
+            collect(AbbreviationExtension.ABBREVIATIONS.get(document), this.abbreviations);
+        }
+
+        private static void collect(Map<String, ? extends Node> repository, Map<String, String> definitions)
+        {
+            for (Map.Entry<String, ? extends Node> entry : repository.entrySet()) {
+                definitions.put(entry.getKey(), entry.getValue().getChars().toString());
+            }
+        }
+
+        boolean isEmpty()
+        {
+            return this.references.isEmpty() && this.abbreviations.isEmpty();
+        }
+    }
+
+    /**
+     * @param parser the Flexmark parser to use for each chunk
+     * @param executor runs the parses of the chunks
+     * @param cancellationToken the token checked while the chunks are parsed, or {@code null} if the parse cannot be
+     *            cancelled
+     */
+    ParallelDocumentParser(Parser parser, ParsingExecutor executor, MarkdownCancellationToken cancellationToken)
+    {
+        this.parser = parser;
+        this.executor = executor;
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * @param source the content to parse
+     * @return the documents corresponding to consecutive chunks of the content, in the order of the content
+     * @throws ParseException if the content cannot be parsed
+     */
+    List<Document> parse(CharSequence source) throws ParseException
+    {
+        List<CharSequence> chunks = split(source);
+        List<Callable<Document>> tasks = new ArrayList<>(chunks.size());
+        for (CharSequence chunk : chunks) {
+            tasks.add(() -> parseChunk(chunk));
+        }
+        List<Document> documents = invokeAll(tasks);
+        if (!areIndependent(documents)) {
+            return Collections.singletonList(parseChunk(source));
+        }
+
+        List<Definitions> definitions = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            definitions.add(new Definitions(document));
+        }
+        if (!definitions.stream().allMatch(Definitions::isEmpty)
+            && !parseWithDefinitions(chunks, definitions, documents))
+        {
+            return Collections.singletonList(parseChunk(source));
+        }
+
+        return documents;
+    }
+
+    private List<CharSequence> split(CharSequence source)
+    {
+        int chunkSize =
+            Math.max(source.length() / (this.executor.getParallelism() * CHUNKS_PER_THREAD), MIN_CHUNK_SIZE);
+        List<Integer> boundaries = TopLevelBlockSplitter.split(source, chunkSize);
+        List<CharSequence> chunks = new ArrayList<>(boundaries.size());
+        for (int i = 0; i < boundaries.size(); i++) {
+            int end = i + 1 < boundaries.size() ? boundaries.get(i + 1) : source.length();
+            // A view on the content, not a copy.
+            chunks.add(CharBuffer.wrap(source, boundaries.get(i), end));
+        }
+        return chunks;
+    }
+
+    /**
+     * @return {@code false} if a chunk, except the last one, ends inside a block which would have continued in the
+     *         following chunk
+     */
+    private boolean areIndependent(List<Document> documents)
+    {
+        for (int i = 0; i < documents.size() - 1; i++) {
+            Node lastChild = documents.get(i).getLastChild();
+            for (Node node = lastChild; node != null; node = node.getLastChild()) {
+                if (isUnterminated(node)) {
+                    return false;
+                }
+            }
+            // Definition items separated by blank lines still belong to the same list.
+            if (lastChild instanceof DefinitionList && documents.get(i + 1).getFirstChild() instanceof DefinitionList) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param node a node of a chunk
+     * @return {@code true} if the node is a block that would have continued after the end of the chunk
+     */
+    static boolean isUnterminated(Node node)
+    {
+        if (node instanceof FencedCodeBlock) {
+            return ((FencedCodeBlock) node).getClosingMarker().isEmpty();
+        } else if (node instanceof HtmlBlockBase) {
+            return TopLevelBlockSplitter.isUnterminatedHTMLBlock(node.getChars());
+        } else if (node instanceof MacroBlock) {
+            return !((MacroBlock) node).isClosedTag() && !(node.getLastChild() instanceof MacroClose);
+        }
+        return false;
+    }
+
+    /**
+     * Parse again the chunks that need definitions from the other chunks.
+     *
+     * @return {@code false} if the content has to be parsed at once
+     */
+    private boolean parseWithDefinitions(List<CharSequence> chunks, List<Definitions> definitions,
+        List<Document> documents) throws ParseException
+    {
+        List<Integer> indexes = new ArrayList<>();
+        List<Callable<Document>> tasks = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            if (redefinesPreviousChunks(definitions, i)) {
+                return false;
+            }
+            String context = getContext(definitions, i, chunks.get(i));
+            if (!context.isEmpty()) {
+                // The chunks are views on the content read through the token, but not their copies.
+                CharSequence chunk = cancellable(chunks.get(i) + BLOCK_SEPARATOR + context);
+                indexes.add(i);
+                tasks.add(() -> parseChunk(chunk));
+            }
+        }
+        List<Document> reparsedDocuments = invokeAll(tasks);
+        for (int i = 0; i < indexes.size(); i++) {
+            int index = indexes.get(i);
+            // The last block of the chunk may include the line ending of the separator, but not the definitions.
+            if (!endsBefore(reparsedDocuments.get(i), chunks.get(index).length() + 1)) {
+                return false;
+            }
+            documents.set(index, reparsedDocuments.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code false} if the chunk ends inside a block which swallowed the appended definitions
+     */
+    private boolean endsBefore(Document document, int offset)
+    {
+        for (Node node = document.getFirstChild(); node != null && node.getStartOffset() < offset;
+            node = node.getNext())
+        {
+            if (node.getEndOffset() > offset) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The definitions are appended to the chunk, so they cannot override the definitions of the chunk as the ones
+     * of the previous chunks should.
+     */
+    private boolean redefinesPreviousChunks(List<Definitions> definitions, int index)
+    {
+        Definitions chunkDefinitions = definitions.get(index);
+        for (int i = 0; i < index; i++) {
+            Definitions previousDefinitions = definitions.get(i);
+            if (!Collections.disjoint(previousDefinitions.references.keySet(), chunkDefinitions.references.keySet())
+                || !Collections.disjoint(previousDefinitions.abbreviations.keySet(),
+                    chunkDefinitions.abbreviations.keySet()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the definitions to append to the chunk, or an empty string if the chunk cannot use definitions from
+     *         the other chunks
+     */
+    private String getContext(List<Definitions> definitions, int index, CharSequence chunk)
+    {
+        Definitions chunkDefinitions = definitions.get(index);
+        StringBuilder references = new StringBuilder();
+        StringBuilder abbreviations = new StringBuilder();
+        for (int i = 0; i < definitions.size(); i++) {
+            if (i != index) {
+                append(definitions.get(i).references, chunkDefinitions.references, references);
+                append(definitions.get(i).abbreviations, chunkDefinitions.abbreviations, abbreviations);
+            }
+        }
+
+        // Abbreviations apply to any text but references are only used by links and images.
+        if (abbreviations.length() == 0 && (references.length() == 0 || !contains(chunk, '['))) {
+            return "";
+        }
+        return references.append(abbreviations).toString();
+    }
+
+    private void append(Map<String, String> definitions, Map<String, String> chunkDefinitions, StringBuilder context)
+    {
+        for (Map.Entry<String, String> entry : definitions.entrySet()) {
+            // A definition following the chunk is overridden by the chunk's own definition.
+            if (!chunkDefinitions.containsKey(entry.getKey())) {
+                context.append(entry.getValue()).append(BLOCK_SEPARATOR);
+            }
+        }
+    }
+
+    private boolean contains(CharSequence chunk, char character)
+    {
+        for (int i = 0; i < chunk.length(); i++) {
+            if (chunk.charAt(i) == character) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CharSequence cancellable(CharSequence chunk)
+    {
+        return this.cancellationToken != null ? new CancellableCharSequence(chunk, this.cancellationToken) : chunk;
+    }
+
+    private Document parseChunk(CharSequence chunk)
+    {
+        // The chunks waiting for a thread when the parse is cancelled are not parsed.
+        if (this.cancellationToken != null) {
+            this.cancellationToken.check();
+        }
+        return this.parser.parse(BasedSequence.of(chunk));
+    }
+
+    private List<Document> invokeAll(List<Callable<Document>> tasks) throws ParseException
+    {
+        List<Future<Document>> futures = new ArrayList<>(tasks.size());
+        for (Callable<Document> task : tasks) {
+            futures.add(this.executor.submit(task));
+        }
+        List<Document> documents = new ArrayList<>(tasks.size());
+        try {
+            for (Future<Document> future : futures) {
+                documents.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MarkdownCancelledException) {
+                throw (MarkdownCancelledException) e.getCause();
+            }
+            throw new ParseException("Failed to parse Markdown content", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ParseException("Interrupted while parsing Markdown content", e);
+        } finally {
+            // The remaining chunks are not needed when a chunk fails, the parse fails anyway.
+            if (documents.size() < futures.size()) {
+                for (Future<Document> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownConfigurationSnapshot;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.parser.ParseException;
+import org.xwiki.rendering.syntax.Syntax;
+
+/**
+ * Keeps the XDOMs of recently parsed content so that content parsed again unchanged (the same page displayed several
+ * times for example) doesn't have to be parsed again. Entries are keyed by a hash of the content, the syntax and the
+ * fingerprint of the configuration used to parse it. The entries of each syntax are bounded by the estimated size of
+ * the XDOMs they keep (see {@link MarkdownOptions#XDOM_CACHE_SIZE}), evicting the least recently used entries first,
+ * so that a syntax configured with a small cache doesn't evict the entries of the others.
+ * <p>
+ * XDOMs are mutable so the cache always stores and returns clones: modifying a returned XDOM (e.g. when executing
+ * transformations) doesn't affect the cached one.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@Role
+public interface ParsedXDOMCache
+{
+    /**
+     * @param source the content to parse
+     * @param syntax the syntax of the content
+     * @param configuration the configuration the content is parsed with
+     * @return a clone of the cached XDOM or {@code null} if the content is not in the cache
+     */
+    XDOM get(CharSequence source, Syntax syntax, MarkdownConfigurationSnapshot configuration);
+
+    /**
+     * Returns the cached XDOM of some content, or parses the content and stores its XDOM if it's not in the cache. The
+     * content is only hashed once for both, which is cheaper than calling {@link #get} then {@link #put}.
+     *
+     * @param source the content to parse
+     * @param syntax the syntax of the content
+     * @param configuration the configuration the content is parsed with
+     * @param parser parses the content if it's not in the cache
+     * @return a clone of the cached XDOM, or the XDOM returned by the parser
+     * @throws ParseException if the content is not in the cache and cannot be parsed
+     */
+    XDOM get(CharSequence source, Syntax syntax, MarkdownConfigurationSnapshot configuration, XDOMParser parser)
+        throws ParseException;
+
+    /**
+     * Stores the XDOM of some content, evicting the least recently used entries of the same syntax if they become
+     * larger than the {@link MarkdownOptions#XDOM_CACHE_SIZE} of the passed configuration.
+     *
+     * @param source the parsed content
+     * @param syntax the syntax of the content
+     * @param configuration the configuration the content has been parsed with
+     * @param xdom the result of the parsing, cloned before being stored
+     */
+    void put(CharSequence source, Syntax syntax, MarkdownConfigurationSnapshot configuration, XDOM xdom);
+
+    /**
+     * Parses the content that is not in the cache.
+     *
+     * @version $Id$
+     * @since 8.9
+     */
+    @FunctionalInterface
+    interface XDOMParser
+    {
+        /**
+         * @param source the content to parse
+         * @return the XDOM corresponding to the content
+         * @throws ParseException if the content cannot be parsed
+         */
+        XDOM parse(CharSequence source) throws ParseException;
+    }
+
+    /**
+     * @return the number of times a cached XDOM has been returned
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of times the requested content was not in the cache
+     */
+    long getMissCount();
+
+    /**
+     * @return the number of entries removed to keep the entries of each syntax within their maximum size
+     */
+    long getEvictionCount();
+
+    /**
+     * @return the estimated size, in bytes, of the cached entries
+     */
+    long getRetainedSize();
+
+    /**
+     * Removes all the entries, without resetting the counters.
+     */
+    void clear();
+}
@@ -0,0 +1,51 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Runs the tasks of the parses split in chunks parsed in parallel (see
+ * {@link org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions#PARALLEL_PARSING_THRESHOLD}). The
+ * tasks don't run on a pool shared with the rest of the JVM (like the common
+ * {@link java.util.concurrent.ForkJoinPool}), so that the parses cannot be starved by other tasks nor starve them. A
+ * different implementation can be registered to use another pool.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@Role
+public interface ParsingExecutor
+{
+    /**
+     * @return the number of tasks that can run at the same time, used to choose the number of chunks
+     */
+    int getParallelism();
+
+    /**
+     * @param <T> the type of the result of the task
+     * @param task a task parsing a chunk of content
+     * @return the result of the task, which can be cancelled if the parse fails or is cancelled before it runs
+     */
+    <T> Future<T> submit(Callable<T> task);
+}
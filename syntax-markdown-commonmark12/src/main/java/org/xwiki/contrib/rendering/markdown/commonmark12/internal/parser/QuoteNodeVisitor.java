@@ -20,13 +20,8 @@
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
 import java.util.Collections;
-import java.util.Deque;
-
-import org.xwiki.rendering.listener.Listener;
 
 import com.vladsch.flexmark.ast.BlockQuote;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 /**
  * Handle quote events.
@@ -36,31 +31,25 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class QuoteNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends QuoteNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
-    {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(BlockQuote.class, node -> visitor.visit(node))
-        };
-    }
-
-    public QuoteNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        super(visitor, listeners);
+        dispatcher.register(BlockQuote.class, this::begin, this::end);
     }
 
-    public void visit(BlockQuote node)
+    public void begin(BlockQuote node, VisitorContext context)
     {
-        getListener().beginQuotation(Collections.emptyMap());
+        context.getListener().beginQuotation(Collections.emptyMap());
 
         // XWiki only supports paragraph in quotations, see http://jira.xwiki.org/browse/XRENDERING-259.
         // We replace Paragraph events with QuotationLine events.
-        QuoteListener quoteListener = new QuoteListener();
-        quoteListener.setWrappedListener(getListener());
-        pushListener(quoteListener);
-        getVisitor().visitChildren(node);
-        popListener();
-        quoteListener.closeOpenedQuotationLines();
+        context.getStructureListener().beginQuote();
+    }
+
+    public void end(BlockQuote node, VisitorContext context)
+    {
+        context.getStructureListener().endQuote();
 
-        getListener().endQuotation(Collections.emptyMap());
+        context.getListener().endQuotation(Collections.emptyMap());
     }
 }
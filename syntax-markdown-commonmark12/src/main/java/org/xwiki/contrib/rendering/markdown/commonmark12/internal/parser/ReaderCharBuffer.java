@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the whole content of a {@link Reader} into a {@code char[]} sized from the expected length of the content, and
+ * exposes it as a {@link CharSequence} view instead of copying it into a {@link String}. The array is allocated for
+ * each read: it's not shared with other reads, so the view can be kept (by the parsed nodes for example) and doesn't
+ * leak the content to the next parses made from the same thread. Files are memory-mapped and decoded at once instead of
+ * being read through a {@link Reader}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class ReaderCharBuffer
+{
+    private static final int INITIAL_SIZE = 8 * 1024;
+
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private ReaderCharBuffer()
+    {
+    }
+
+    /**
+     * @param reader the reader for which to compute a length hint
+     * @return the number of characters left to read, or -1 if it cannot be known without reading the content
+     * @throws IOException if the reader fails
+     */
+    static int getLengthHint(Reader reader) throws IOException
+    {
+        // These readers support skipping and resetting without buffering anything.
+        if (reader instanceof StringReader || reader instanceof CharArrayReader) {
+            reader.mark(0);
+            long length = reader.skip(Long.MAX_VALUE);
+            reader.reset();
+            return length > MAX_SIZE ? -1 : (int) length;
+        }
+        return -1;
+    }
+
+    /**
+     * @param reader the reader to read until its end
+     * @param lengthHint the expected number of characters, or a negative value if unknown
+     * @return a view of the array the characters have been read into, which is not copied
+     * @throws IOException if the reader fails
+     */
+    static CharSequence read(Reader reader, int lengthHint) throws IOException
+    {
+        // Allocate one more character than expected so that reaching the end doesn't require growing the array.
+        char[] chars = new char[lengthHint >= 0 && lengthHint < MAX_SIZE ? lengthHint + 1 : INITIAL_SIZE];
+
+        int length = 0;
+        int count;
+        while ((count = reader.read(chars, length, chars.length - length)) != -1) {
+            length += count;
+            if (length == chars.length) {
+                if (length == MAX_SIZE) {
+                    throw new IOException("Content is too large to be read in memory");
+                }
+                chars = Arrays.copyOf(chars, (int) Math.min((long) length * 2, MAX_SIZE));
+            }
+        }
+
+        return CharBuffer.wrap(chars, 0, length);
+    }
+
+    /**
+     * Decodes a file after memory-mapping it, which avoids the intermediate copies of a {@link Reader}. Malformed or
+     * unmappable input is replaced with the charset's default replacement, as it would be when reading through an
+     * {@link java.io.InputStreamReader}.
+     *
+     * @param file the path of the file to read
+     * @param charset the encoding of the file
+     * @return the decoded content of the file
+     * @throws IOException if the file cannot be read
+     */
+    static CharSequence read(Path file, Charset charset) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.function.Function;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+
+/**
+ * Holds the resource references parsed from the raw references of wiki links and wiki images, since pages often
+ * repeat the same references (e.g. navigation links). Parsing a reference is assumed to depend only on the raw
+ * reference and on the registered reference parsers, which is the case for typed references (e.g. "doc:Page") parsed
+ * by their type parser. Untyped references are never cached since reference parsers may resolve them against the
+ * current document and wiki (e.g. as a document or a space reference depending on which page exists).
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@Role
+public interface ResourceReferenceCache
+{
+    /**
+     * @param parserHint the hint of the reference parser used by the passed function, e.g. "link" or "image"
+     * @param rawReference the reference to parse, as found in the content
+     * @param parser parses the raw reference when it's not in the cache
+     * @return the parsed reference, a new instance that can be modified by the caller
+     */
+    ResourceReference get(String parserHint, String rawReference, Function<String, ResourceReference> parser);
+
+    /**
+     * @return the number of times a cached reference has been returned
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of times the requested reference was not in the cache
+     */
+    long getMissCount();
+
+    /**
+     * @return the number of entries removed to keep the cache within its maximum size
+     */
+    long getEvictionCount();
+
+    /**
+     * Removes all the entries, without resetting the counters.
+     */
+    void clear();
+}
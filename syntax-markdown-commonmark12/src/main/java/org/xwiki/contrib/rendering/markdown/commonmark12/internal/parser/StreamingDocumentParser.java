@@ -0,0 +1,236 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.nio.CharBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancelledException;
+
+import com.vladsch.flexmark.ast.Reference;
+import com.vladsch.flexmark.ext.abbreviation.AbbreviationBlock;
+import com.vladsch.flexmark.ext.abbreviation.AbbreviationExtension;
+import com.vladsch.flexmark.ext.definition.DefinitionList;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+
+/**
+ * Parses content chunk by chunk (see {@link TopLevelBlockSplitter}) while its events are generated, so that the
+ * events of the first top-level blocks are generated before the rest of the content is parsed.
+ * <p>
+ * Reference and abbreviation definitions apply to the whole content, including the blocks before them. They are
+ * found beforehand by a light scan of the content (see {@link TopLevelBlockSplitter#findDefinitions(CharSequence)})
+ * whose result is parsed on its own, and appended to each chunk as {@link ParallelDocumentParser} does. When the scan
+ * cannot find the definitions reliably, or when a definition is defined twice (the first one applies to the whole
+ * content, while a chunk would use its own), the content is parsed at once.
+ * <p>
+ * A chunk ending inside a block which would have continued in the following chunk (an unterminated code fence, HTML
+ * block or macro, or a definition list) is parsed again with the following chunk.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class StreamingDocumentParser
+{
+    private static final String BLOCK_SEPARATOR = "\n\n";
+
+    private final Parser parser;
+
+    private final CharSequence source;
+
+    private final List<Integer> boundaries;
+
+    private final String references;
+
+    private final String abbreviations;
+
+    /**
+     * Thrown while iterating the documents when a chunk cannot be parsed, since iterators cannot throw checked
+     * exceptions.
+     */
+    static final class ChunkParseException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        ChunkParseException(Throwable cause)
+        {
+            super(cause);
+        }
+    }
+
+    /**
+     * Parses the chunks lazily, when the events of the previous chunk have been generated.
+     */
+    private final class ChunkIterator implements Iterator<Document>
+    {
+        private int index;
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.index < boundaries.size();
+        }
+
+        @Override
+        public Document next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            int start = boundaries.get(this.index);
+            Document document = null;
+            while (document == null) {
+                this.index++;
+                boolean last = !hasNext();
+                int end = last ? source.length() : boundaries.get(this.index);
+                try {
+                    document = parseChunk(CharBuffer.wrap(source, start, end), last);
+                } catch (MarkdownCancelledException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new ChunkParseException(e);
+                }
+            }
+            return document;
+        }
+    }
+
+    private StreamingDocumentParser(Parser parser, CharSequence source, int chunkSize, Document definitions)
+    {
+        this.parser = parser;
+        this.source = source;
+        this.boundaries = TopLevelBlockSplitter.split(source, chunkSize);
+        this.references = getDefinitions(Parser.REFERENCES.get(definitions));
+        this.abbreviations = getDefinitions(AbbreviationExtension.ABBREVIATIONS.get(definitions));
+    }
+
+    /**
+     * @param parser the Flexmark parser to use for each chunk
+     * @param source the content to parse
+     * @param chunkSize the minimum number of characters of a chunk
+     * @return the documents corresponding to consecutive chunks of the content, parsed as they are iterated (a
+     *         {@link ChunkParseException} being thrown if a chunk cannot be parsed), or {@code null} if the content has
+     *         to be parsed at once
+     */
+    static Iterable<Document> parse(Parser parser, CharSequence source, int chunkSize)
+    {
+        String definitionsSource = TopLevelBlockSplitter.findDefinitions(source);
+        if (definitionsSource == null) {
+            return null;
+        }
+
+        Document definitions = parser.parse(BasedSequence.of(definitionsSource));
+        if (hasDuplicateDefinitions(definitions)) {
+            return null;
+        }
+
+        StreamingDocumentParser streamingParser = new StreamingDocumentParser(parser, source, chunkSize, definitions);
+        return () -> streamingParser.new ChunkIterator();
+    }
+
+    private static boolean hasDuplicateDefinitions(Document definitions)
+    {
+        int referenceCount = 0;
+        int abbreviationCount = 0;
+        for (Node node : definitions.getChildren()) {
+            if (node instanceof Reference) {
+                referenceCount++;
+            } else if (node instanceof AbbreviationBlock) {
+                abbreviationCount++;
+            }
+        }
+        return referenceCount != Parser.REFERENCES.get(definitions).size()
+            || abbreviationCount != AbbreviationExtension.ABBREVIATIONS.get(definitions).size();
+    }
+
+    private static String getDefinitions(Map<String, ? extends Node> repository)
+    {
+        StringBuilder definitions = new StringBuilder();
+        for (Node definition : repository.values()) {
+            definitions.append(definition.getChars()).append(BLOCK_SEPARATOR);
+        }
+        return definitions.toString();
+    }
+
+    /**
+     * @return the document of the chunk, or {@code null} if the chunk ends inside a block and has to be parsed with
+     *         the following chunk
+     */
+    private Document parseChunk(CharSequence chunk, boolean last)
+    {
+        String context = getContext(chunk);
+        if (context.isEmpty()) {
+            Document document = this.parser.parse(BasedSequence.of(chunk));
+            return last || isComplete(document, chunk.length()) ? document : null;
+        }
+
+        Document document = this.parser.parse(BasedSequence.of(chunk + BLOCK_SEPARATOR + context));
+        if (isComplete(document, chunk.length())) {
+            return document;
+        } else if (last) {
+            // The last block continues until the end of the content, so it would swallow the appended definitions.
+            // The chunk starts at a safe boundary, so the definitions can be prepended instead.
+            return this.parser.parse(BasedSequence.of(context + chunk));
+        }
+        return null;
+    }
+
+    /**
+     * Abbreviations apply to any text but references are only used by links and images.
+     */
+    private String getContext(CharSequence chunk)
+    {
+        boolean useReferences = !this.references.isEmpty() && CharBuffer.wrap(chunk).chars().anyMatch(c -> c == '[');
+        return useReferences ? this.references + this.abbreviations : this.abbreviations;
+    }
+
+    /**
+     * @return {@code false} if the last block of the chunk would have continued in the following chunk
+     */
+    private boolean isComplete(Document document, int chunkLength)
+    {
+        Node lastBlock = null;
+        for (Node node = document.getFirstChild(); node != null && node.getStartOffset() < chunkLength;
+            node = node.getNext())
+        {
+            lastBlock = node;
+        }
+        if (lastBlock == null) {
+            return true;
+        }
+        // The last block may include the line ending of the separator, but not the definitions. Definition items
+        // separated by blank lines belong to the same list, which may continue in the following chunk.
+        if (lastBlock instanceof DefinitionList || lastBlock.getEndOffset() > chunkLength + 1) {
+            return false;
+        }
+        for (Node node = lastBlock; node != null; node = node.getLastChild()) {
+            if (ParallelDocumentParser.isUnterminated(node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -20,14 +20,10 @@
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
 import java.util.Collections;
-import java.util.Deque;
 
 import org.xwiki.rendering.listener.Format;
-import org.xwiki.rendering.listener.Listener;
 
 import com.vladsch.flexmark.ext.gfm.strikethrough.Strikethrough;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 /**
  * Handle strikethrough events.
@@ -37,23 +33,19 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class StrikethroughNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends StrikethroughNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(Strikethrough.class, node -> visitor.visit(node))
-        };
+        dispatcher.register(Strikethrough.class, this::begin, this::end);
     }
 
-    public StrikethroughNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners)
+    public void begin(Strikethrough node, VisitorContext context)
     {
-        super(visitor, listeners);
+        context.getListener().beginFormat(Format.STRIKEDOUT, Collections.emptyMap());
     }
 
-    public void visit(Strikethrough node)
+    public void end(Strikethrough node, VisitorContext context)
     {
-        Format format = Format.STRIKEDOUT;
-        getListener().beginFormat(format, Collections.emptyMap());
-        getVisitor().visitChildren(node);
-        getListener().endFormat(format, Collections.emptyMap());
+        context.getListener().endFormat(Format.STRIKEDOUT, Collections.emptyMap());
     }
 }
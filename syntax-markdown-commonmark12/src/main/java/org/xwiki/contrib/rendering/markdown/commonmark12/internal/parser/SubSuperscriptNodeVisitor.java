@@ -20,15 +20,11 @@
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
 import java.util.Collections;
-import java.util.Deque;
 
 import org.xwiki.rendering.listener.Format;
-import org.xwiki.rendering.listener.Listener;
 
 import com.vladsch.flexmark.ext.gfm.strikethrough.Subscript;
 import com.vladsch.flexmark.ext.superscript.Superscript;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 /**
  * Handle subscript and superscript events.
@@ -38,32 +34,30 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class SubSuperscriptNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends SubSuperscriptNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(Superscript.class, node -> visitor.visit(node)),
-                new VisitHandler<>(Subscript.class, node -> visitor.visit(node))
-        };
+        dispatcher.register(Superscript.class, this::begin, this::end);
+        dispatcher.register(Subscript.class, this::begin, this::end);
     }
 
-    public SubSuperscriptNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners)
+    public void begin(Superscript node, VisitorContext context)
     {
-        super(visitor, listeners);
+        context.getListener().beginFormat(Format.SUPERSCRIPT, Collections.emptyMap());
     }
 
-    public void visit(Superscript node)
+    public void end(Superscript node, VisitorContext context)
     {
-        Format format = Format.SUPERSCRIPT;
-        getListener().beginFormat(format, Collections.emptyMap());
-        getVisitor().visitChildren(node);
-        getListener().endFormat(format, Collections.emptyMap());
+        context.getListener().endFormat(Format.SUPERSCRIPT, Collections.emptyMap());
     }
 
-    public void visit(Subscript node)
+    public void begin(Subscript node, VisitorContext context)
     {
-        Format format = Format.SUBSCRIPT;
-        getListener().beginFormat(format, Collections.emptyMap());
-        getVisitor().visitChildren(node);
-        getListener().endFormat(format, Collections.emptyMap());
+        context.getListener().beginFormat(Format.SUBSCRIPT, Collections.emptyMap());
+    }
+
+    public void end(Subscript node, VisitorContext context)
+    {
+        context.getListener().endFormat(Format.SUBSCRIPT, Collections.emptyMap());
     }
 }
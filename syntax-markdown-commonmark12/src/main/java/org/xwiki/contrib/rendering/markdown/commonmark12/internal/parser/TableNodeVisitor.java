@@ -19,14 +19,11 @@
  */
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
-import java.util.ArrayDeque;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.xwiki.rendering.listener.Listener;
-import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions;
 import org.xwiki.rendering.syntax.Syntax;
 
 import com.vladsch.flexmark.ext.tables.TableBlock;
@@ -35,8 +32,7 @@ import com.vladsch.flexmark.ext.tables.TableCell;
 import com.vladsch.flexmark.ext.tables.TableHead;
 import com.vladsch.flexmark.ext.tables.TableRow;
 import com.vladsch.flexmark.ext.tables.TableSeparator;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
+import com.vladsch.flexmark.util.ast.Node;
 
 /**
  * Handle table events.
@@ -46,64 +42,72 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class TableNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends TableNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
-    {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(TableBlock.class, node -> visitor.visit(node)),
-                new VisitHandler<>(TableHead.class, node -> visitor.visit(node)),
-                new VisitHandler<>(TableRow.class, node -> visitor.visit(node)),
-                new VisitHandler<>(TableCell.class, node -> visitor.visit(node)),
-                new VisitHandler<>(TableCaption.class, node -> visitor.visit(node)),
-                new VisitHandler<>(TableSeparator.class, node -> visitor.visit(node))
-        };
-    }
-
     /**
      * HTML Align attribute for table cells.
      */
     private static final String ALIGN_ATTRIBUTE = "align";
 
-    /**
-     * The current table node we're in. It's stacked to support nested tables.
-     */
-    private Deque<TableBlock> currentTableStack = new ArrayDeque<>();
-
-    /**
-     * The current column position in the current table; used to handle colspan. It's stacked to support nested tables.
-     */
-    private Deque<Integer> currentTableColumnPositionStack = new ArrayDeque<>();
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
+    {
+        dispatcher.register(TableBlock.class, this::visit);
+        dispatcher.register(TableHead.class, this::visit);
+        dispatcher.register(TableRow.class, this::visit);
+        dispatcher.register(TableCell.class, this::visit);
+        dispatcher.register(TableCaption.class, this::visit);
+        dispatcher.register(TableSeparator.class, this::visit);
+    }
 
-    public TableNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners, PrintRendererFactory plainRendererFactory)
+    public void visit(TableBlock node, VisitorContext context)
     {
-        super(visitor, listeners, plainRendererFactory);
+        int maxCells = context.getMaxTableCells();
+        if (maxCells > 0 && countCells(node, maxCells) > maxCells) {
+            MarkdownLimits.onLimitedContent(context.getListener(), MarkdownOptions.MAX_TABLE_CELLS, node.getChars());
+            return;
+        }
+
+        context.getListener().beginTable(Collections.emptyMap());
+        context.visitChildren(node);
+        context.getListener().endTable(Collections.emptyMap());
     }
 
-    public void visit(TableBlock node)
+    /**
+     * @return the number of cells of the table, counted up to the first one beyond the passed maximum
+     */
+    private int countCells(TableBlock node, int maxCells)
     {
-        this.currentTableStack.push(node);
-        getListener().beginTable(Collections.emptyMap());
-        getVisitor().visitChildren(node);
-        getListener().endTable(Collections.emptyMap());
-        this.currentTableStack.pop();
+        int count = 0;
+        for (Node section : node.getChildren()) {
+            // The separator line is represented as a row too.
+            if (section instanceof TableSeparator) {
+                continue;
+            }
+            for (Node row = section.getFirstChild(); row != null && count <= maxCells; row = row.getNext()) {
+                if (row instanceof TableRow) {
+                    for (Node cell = row.getFirstChild(); cell != null; cell = cell.getNext()) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
     }
 
-    public void visit(TableHead node)
+    public void visit(TableHead node, VisitorContext context)
     {
 //        this.isInTableHeaderStack.push(true);
-        getVisitor().visitChildren(node);
+        context.visitChildren(node);
 //        this.isInTableHeaderStack.pop();
     }
 
-    public void visit(TableRow node)
+    public void visit(TableRow node, VisitorContext context)
     {
-        this.currentTableColumnPositionStack.push(0);
-        getListener().beginTableRow(Collections.emptyMap());
-        getVisitor().visitChildren(node);
-        getListener().endTableRow(Collections.emptyMap());
-        this.currentTableColumnPositionStack.pop();
+        context.getListener().beginTableRow(Collections.emptyMap());
+        context.visitChildren(node);
+        context.getListener().endTableRow(Collections.emptyMap());
     }
 
-    public void visit(TableCell node)
+    public void visit(TableCell node, VisitorContext context)
     {
         boolean isInHeader = node.isHeader();
 
@@ -130,30 +134,30 @@ public class TableNodeVisitor extends AbstractNodeVisitor
         }
 
         if (isInHeader) {
-            getListener().beginTableHeadCell(parameters);
+            context.getListener().beginTableHeadCell(parameters);
         } else {
-            getListener().beginTableCell(parameters);
+            context.getListener().beginTableCell(parameters);
         }
 
-        getVisitor().visitChildren(node);
+        context.visitChildren(node);
 
         if (isInHeader) {
-            getListener().endTableHeadCell(parameters);
+            context.getListener().endTableHeadCell(parameters);
         } else {
-            getListener().endTableCell(parameters);
+            context.getListener().endTableCell(parameters);
         }
     }
 
-    public void visit(TableCaption node)
+    public void visit(TableCaption node, VisitorContext context)
     {
         // TODO: XWiki Rendering doesn't support Caption in tables ATM. Add proper support. Also note that the
         // HTML caption tag is supposed to be sent just after the <table> tag and thus the limited solution we have
         // below is probably wrong...
-        String captionText = extractText(node);
-        getListener().onRawText(String.format("<caption>%s</caption>", captionText), Syntax.HTML_4_01);
+        String captionText = extractText(node, context);
+        context.getListener().onRawText(String.format("<caption>%s</caption>", captionText), Syntax.HTML_4_01);
     }
 
-    public void visit(TableSeparator node)
+    public void visit(TableSeparator node, VisitorContext context)
     {
         // Just capture table separators and don't do anything with them.
     }
@@ -19,14 +19,7 @@
  */
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
-import java.util.Deque;
-
-import org.xwiki.rendering.listener.Listener;
-import org.xwiki.rendering.parser.StreamParser;
-
 import com.vladsch.flexmark.ast.Text;
-import com.vladsch.flexmark.util.ast.NodeVisitor;
-import com.vladsch.flexmark.util.ast.VisitHandler;
 
 /**
  * Handle text events.
@@ -36,23 +29,17 @@ import com.vladsch.flexmark.util.ast.VisitHandler;
  */
 public class TextNodeVisitor extends AbstractNodeVisitor
 {
-    static <V extends TextNodeVisitor> VisitHandler<?>[] VISIT_HANDLERS(final V visitor)
-    {
-        return new VisitHandler<?>[]{
-                new VisitHandler<>(Text.class, node -> visitor.visit(node))
-        };
-    }
-
-    public TextNodeVisitor(NodeVisitor visitor, Deque<Listener> listeners, StreamParser plainTextStreamParser)
+    @Override
+    public void registerHandlers(NodeDispatcher dispatcher)
     {
-        super(visitor, listeners, null, plainTextStreamParser);
+        dispatcher.register(Text.class, this::visit);
     }
 
-    public void visit(Text node)
+    public void visit(Text node, VisitorContext context)
     {
-        parseInline(node.getChars().toString());
+        parseInline(node.getChars(), context);
 
         // Descend into children (could be omitted in this case because Text nodes don't have children).
-        getVisitor().visitChildren(node);
+        context.visitChildren(node);
     }
 }
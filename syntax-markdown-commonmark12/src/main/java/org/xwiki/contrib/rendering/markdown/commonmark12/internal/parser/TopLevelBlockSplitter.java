@@ -0,0 +1,333 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits Markdown content at top-level block boundaries that are safe, i.e. where parsing the content before and after
+ * the boundary separately gives the same blocks as parsing the whole content. A line is a safe boundary when it
+ * follows a blank line, starts at the first column with a character that cannot continue the previous block (list
+ * items and definition items can continue after a blank line) and is not inside a fenced code block, a multi-line
+ * HTML block or a macro.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class TopLevelBlockSplitter
+{
+    /**
+     * HTML blocks that can contain blank lines, see the CommonMark specification (HTML blocks of type 1 to 5).
+     */
+    private static final Pattern HTML_BLOCK_START = Pattern.compile(
+        "<(?:(script|pre|style|textarea)(?:\\s|>|$)|(!--)|(\\?)|(![A-Za-z])|(!\\[CDATA\\[))", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * A line that may start a reference or abbreviation definition, possibly inside a quote or a list item (captured
+     * prefix). Only labels on a single line are detected.
+     */
+    private static final Pattern DEFINITION_START =
+        Pattern.compile("([ \\t>]*(?:(?:[-*+]|\\d{1,9}[.)])[ \\t]+)?)\\*?\\[(?:[^\\]\\\\]|\\\\.)+\\]:");
+
+    private static final String[] HTML_BLOCK_ENDS = { null, null, "-->", "?>", ">", "]]>" };
+
+    /**
+     * The other HTML blocks (types 6 and 7) end at the first blank line, and the lines they contain are not block
+     * starts.
+     */
+    private static final String BLANK_LINE = "";
+
+    private static final String NON_SPLITTABLE_CHARACTERS = "*-+:~|";
+
+    private static final int MAX_INDENT = 3;
+
+    private static final int MIN_FENCE_LENGTH = 3;
+
+    private static final String MACRO_START = "{{";
+
+    private static final String MACRO_END_START = "{{/";
+
+    private final CharSequence source;
+
+    private boolean previousLineBlank = true;
+
+    private char fenceCharacter;
+
+    private int fenceLength;
+
+    private String htmlBlockEnd;
+
+    private int macroDepth;
+
+    private TopLevelBlockSplitter(CharSequence source)
+    {
+        this.source = source;
+    }
+
+    /**
+     * @param source the content to split
+     * @param chunkSize the minimum number of characters of a chunk
+     * @return the offsets at which the chunks start, the first one being always 0
+     */
+    static List<Integer> split(CharSequence source, int chunkSize)
+    {
+        TopLevelBlockSplitter splitter = new TopLevelBlockSplitter(source);
+        List<Integer> boundaries = new ArrayList<>();
+        boundaries.add(0);
+        int nextBoundary = chunkSize;
+        int lineStart = 0;
+        while (lineStart < source.length()) {
+            int lineEnd = splitter.getLineEnd(lineStart);
+            if (lineStart >= nextBoundary && splitter.isSafeBoundary(lineStart, lineEnd)) {
+                boundaries.add(lineStart);
+                nextBoundary = lineStart + chunkSize;
+            }
+            splitter.processLine(lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+        }
+        return boundaries;
+    }
+
+    /**
+     * Collects the paragraphs of the content that may start with reference or abbreviation definitions, so that the
+     * definitions can be known before the content is parsed. Definitions can only start a paragraph, so the paragraphs
+     * are collected entirely and parsing them separately gives the same definitions as parsing the whole content.
+     *
+     * @param source the content to scan
+     * @return the paragraphs starting with a definition, separated by blank lines, or {@code null} if the content may
+     *         contain definitions that cannot be collected that way (inside quotes or list items, or following a block
+     *         without a blank line)
+     */
+    static String findDefinitions(CharSequence source)
+    {
+        TopLevelBlockSplitter splitter = new TopLevelBlockSplitter(source);
+        StringBuilder definitions = new StringBuilder();
+        boolean insideDefinitions = false;
+        int lineStart = 0;
+        while (lineStart < source.length()) {
+            int lineEnd = splitter.getLineEnd(lineStart);
+            boolean blank = splitter.getIndent(lineStart, lineEnd) == lineEnd - lineStart;
+            if (insideDefinitions && blank) {
+                definitions.append('\n');
+                insideDefinitions = false;
+            } else if (!insideDefinitions && !splitter.isInsideMultiLineBlock()) {
+                Matcher matcher = DEFINITION_START.matcher(source).region(lineStart, lineEnd);
+                if (matcher.lookingAt()) {
+                    if (!splitter.isParagraphStart(matcher.group(1))) {
+                        return null;
+                    }
+                    insideDefinitions = true;
+                }
+            }
+            if (insideDefinitions) {
+                definitions.append(source, lineStart, lineEnd).append('\n');
+            }
+            splitter.processLine(lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+        }
+        return definitions.toString();
+    }
+
+    /**
+     * @param html the content of an HTML block
+     * @return {@code true} if the HTML block can contain blank lines and its end condition is not met, i.e. it
+     *         continues until the end of the content
+     */
+    static boolean isUnterminatedHTMLBlock(CharSequence html)
+    {
+        TopLevelBlockSplitter splitter = new TopLevelBlockSplitter(html);
+        int start = splitter.getIndent(0, html.length());
+        splitter.processHTMLBlockStart(start, splitter.getLineEnd(start));
+        return splitter.htmlBlockEnd != null && !splitter.htmlBlockEnd.isEmpty()
+            && splitter.indexOfIgnoreCase(splitter.htmlBlockEnd, start, html.length()) < 0;
+    }
+
+    /**
+     * @param prefix the characters before the start of a definition on its line
+     * @return {@code true} if a definition with this prefix would start a top-level paragraph
+     */
+    private boolean isParagraphStart(String prefix)
+    {
+        return this.previousLineBlank && prefix.length() <= MAX_INDENT
+            && prefix.chars().allMatch(character -> character == ' ');
+    }
+
+    private int getLineEnd(int lineStart)
+    {
+        int index = lineStart;
+        while (index < this.source.length() && this.source.charAt(index) != '\n') {
+            index++;
+        }
+        return index;
+    }
+
+    private boolean isSafeBoundary(int lineStart, int lineEnd)
+    {
+        if (!this.previousLineBlank || isInsideMultiLineBlock() || lineStart == lineEnd) {
+            return false;
+        }
+        char character = this.source.charAt(lineStart);
+        return !Character.isWhitespace(character) && !Character.isDigit(character)
+            && NON_SPLITTABLE_CHARACTERS.indexOf(character) < 0;
+    }
+
+    private boolean isInsideMultiLineBlock()
+    {
+        return this.fenceCharacter != 0 || this.htmlBlockEnd != null || this.macroDepth > 0;
+    }
+
+    private void processLine(int lineStart, int lineEnd)
+    {
+        int indent = getIndent(lineStart, lineEnd);
+        boolean blank = lineStart + indent == lineEnd;
+        if (this.fenceCharacter != 0) {
+            if (isClosingFence(lineStart + indent, lineEnd, indent)) {
+                this.fenceCharacter = 0;
+            }
+        } else if (this.htmlBlockEnd != null) {
+            if (isHTMLBlockEnd(lineStart, lineEnd, blank)) {
+                this.htmlBlockEnd = null;
+            }
+        } else if (!blank && indent <= MAX_INDENT) {
+            processBlockStart(lineStart + indent, lineEnd);
+        }
+        this.previousLineBlank = blank;
+    }
+
+    private void processBlockStart(int start, int lineEnd)
+    {
+        char character = this.source.charAt(start);
+        if (character == '`' || character == '~') {
+            processFenceStart(character, start, lineEnd);
+        } else if (character == '<') {
+            processHTMLBlockStart(start, lineEnd);
+        } else if (character == '{') {
+            processMacroStart(start, lineEnd);
+        }
+    }
+
+    private void processFenceStart(char character, int start, int lineEnd)
+    {
+        int length = countCharacter(character, start, lineEnd);
+        // The info string of a backtick fence cannot contain backticks.
+        if (length >= MIN_FENCE_LENGTH && (character == '~' || indexOfIgnoreCase("`", start + length, lineEnd) < 0)) {
+            this.fenceCharacter = character;
+            this.fenceLength = length;
+        }
+    }
+
+    private void processHTMLBlockStart(int start, int lineEnd)
+    {
+        Matcher matcher = HTML_BLOCK_START.matcher(this.source).region(start, lineEnd);
+        if (matcher.lookingAt()) {
+            String end = getHTMLBlockEnd(matcher);
+            if (indexOfIgnoreCase(end, matcher.end(), lineEnd) < 0) {
+                this.htmlBlockEnd = end;
+            }
+        } else if (this.previousLineBlank && start + 1 < lineEnd
+            && (Character.isLetter(this.source.charAt(start + 1)) || this.source.charAt(start + 1) == '/'))
+        {
+            this.htmlBlockEnd = BLANK_LINE;
+        }
+    }
+
+    private boolean isHTMLBlockEnd(int lineStart, int lineEnd, boolean blank)
+    {
+        if (this.htmlBlockEnd.isEmpty()) {
+            return blank;
+        }
+        return indexOfIgnoreCase(this.htmlBlockEnd, lineStart, lineEnd) >= 0;
+    }
+
+    private void processMacroStart(int start, int lineEnd)
+    {
+        if (startsWith(MACRO_END_START, start, lineEnd)) {
+            this.macroDepth = Math.max(this.macroDepth - 1, 0);
+        } else if (startsWith(MACRO_START, start, lineEnd) && indexOfIgnoreCase("/}}", start, lineEnd) < 0
+            && indexOfIgnoreCase(MACRO_END_START, start, lineEnd) < 0)
+        {
+            this.macroDepth++;
+        }
+    }
+
+    private String getHTMLBlockEnd(Matcher matcher)
+    {
+        String tag = matcher.group(1);
+        if (tag != null) {
+            return "</" + tag.toLowerCase(Locale.ROOT) + '>';
+        }
+        for (int group = 2; group < HTML_BLOCK_ENDS.length; group++) {
+            if (matcher.group(group) != null) {
+                return HTML_BLOCK_ENDS[group];
+            }
+        }
+        return null;
+    }
+
+    private boolean isClosingFence(int start, int lineEnd, int indent)
+    {
+        int length = countCharacter(this.fenceCharacter, start, lineEnd);
+        return indent <= MAX_INDENT && length >= this.fenceLength && getIndent(start + length, lineEnd) == lineEnd
+            - start - length;
+    }
+
+    private int getIndent(int start, int lineEnd)
+    {
+        int index = start;
+        while (index < lineEnd && Character.isWhitespace(this.source.charAt(index))) {
+            index++;
+        }
+        return index - start;
+    }
+
+    private int countCharacter(char character, int start, int lineEnd)
+    {
+        int index = start;
+        while (index < lineEnd && this.source.charAt(index) == character) {
+            index++;
+        }
+        return index - start;
+    }
+
+    private boolean startsWith(String prefix, int start, int lineEnd)
+    {
+        return lineEnd - start >= prefix.length() && indexOfIgnoreCase(prefix, start, start + prefix.length()) == start;
+    }
+
+    private int indexOfIgnoreCase(String text, int start, int end)
+    {
+        for (int index = start; index <= end - text.length(); index++) {
+            int i = 0;
+            while (i < text.length()
+                && Character.toLowerCase(this.source.charAt(index + i)) == text.charAt(i))
+            {
+                i++;
+            }
+            if (i == text.length()) {
+                return index;
+            }
+        }
+        return -1;
+    }
+}
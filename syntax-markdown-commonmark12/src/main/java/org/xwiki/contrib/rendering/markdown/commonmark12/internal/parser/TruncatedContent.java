@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.vladsch.flexmark.util.ast.Block;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+
+/**
+ * The end of content longer than
+ * {@link org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions#MAX_INPUT_LENGTH}, which is not
+ * parsed. It's visited as the only node of a document following the documents of the parsed content.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class TruncatedContent extends Block
+{
+    /**
+     * @param chars the content that is not parsed
+     */
+    TruncatedContent(BasedSequence chars)
+    {
+        super(chars);
+    }
+
+    /**
+     * @param source the content to parse
+     * @param maxLength the maximum number of characters to parse, 0 for no limit
+     * @return the number of characters of the content to parse, which ends at a line ending when the content is
+     *         longer than the maximum length
+     */
+    static int getParsedLength(CharSequence source, int maxLength)
+    {
+        if (maxLength <= 0 || source.length() <= maxLength) {
+            return source.length();
+        }
+        for (int index = maxLength - 1; index >= 0; index--) {
+            if (source.charAt(index) == '\n') {
+                return index + 1;
+            }
+        }
+        return maxLength;
+    }
+
+    /**
+     * @param documents the documents of the parsed content
+     * @param source the whole content
+     * @param parsedLength the number of characters of the content that have been parsed
+     * @param options the options of the parsed documents
+     * @return the passed documents, followed by a document holding the end of the content if it's not parsed
+     */
+    static Iterable<Document> append(Iterable<Document> documents, BasedSequence source, int parsedLength,
+        DataHolder options)
+    {
+        if (parsedLength == source.length()) {
+            return documents;
+        }
+
+        BasedSequence truncatedContent = source.subSequence(parsedLength);
+        Document truncatedDocument = new Document(options, truncatedContent);
+        truncatedDocument.appendChild(new TruncatedContent(truncatedContent));
+        return () -> Stream.concat(StreamSupport.stream(documents.spliterator(), false), Stream.of(truncatedDocument))
+            .iterator();
+    }
+
+    @Override
+    public BasedSequence[] getSegments()
+    {
+        return EMPTY_SEGMENTS;
+    }
+}
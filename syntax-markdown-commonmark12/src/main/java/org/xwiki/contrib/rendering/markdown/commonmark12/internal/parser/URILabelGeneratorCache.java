@@ -19,45 +19,27 @@
  */
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
 
-import java.util.Map;
-
-import org.xwiki.rendering.listener.WrappingListener;
+import org.xwiki.component.annotation.Role;
+import org.xwiki.rendering.renderer.reference.link.URILabelGenerator;
 
 /**
- * Special listener for handling blockquotes and converting them from the Flexmark Model to the XWiki Model.
+ * Holds the {@link URILabelGenerator} of each resource reference scheme, including the schemes that have none, so that
+ * the component manager is not queried for each image.
  *
  * @version $Id$
- * @since 8.4
+ * @since 8.9
  */
-public class QuoteListener extends WrappingListener
+@Role
+public interface URILabelGeneratorCache
 {
     /**
-     * Whether a quotation line has been started or not.
+     * @param scheme the scheme of a resource reference type
+     * @return the label generator registered for the scheme, or {@code null} if there's none
      */
-    private boolean quotationLineStarted;
+    URILabelGenerator getLabelGenerator(String scheme);
 
     /**
-     * Close open quotation lines events.
+     * Forgets all the label generators, e.g. when label generators are registered or unregistered.
      */
-    public void closeOpenedQuotationLines()
-    {
-        if (this.quotationLineStarted) {
-            endQuotationLine();
-        }
-        this.quotationLineStarted = false;
-    }
-
-    @Override
-    public void beginParagraph(Map<String, String> parameters)
-    {
-        closeOpenedQuotationLines();
-        beginQuotationLine();
-        this.quotationLineStarted = true;
-    }
-
-    @Override
-    public void endParagraph(Map<String, String> parameters)
-    {
-        // Ignore
-    }
+    void invalidate();
 }
@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.rendering.renderer.reference.link.URILabelGenerator;
+
+/**
+ * Invalidates the {@link URILabelGeneratorCache} when a label generator is registered or unregistered.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@Component
+@Named(URILabelGeneratorCacheInvalidator.NAME)
+@Singleton
+public class URILabelGeneratorCacheInvalidator extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.rendering.markdown.URILabelGeneratorCacheInvalidator";
+
+    @Inject
+    private URILabelGeneratorCache cache;
+
+    /**
+     * Default constructor.
+     */
+    public URILabelGeneratorCacheInvalidator()
+    {
+        super(NAME, Arrays.<Event>asList(new ComponentDescriptorAddedEvent(URILabelGenerator.class),
+            new ComponentDescriptorRemovedEvent(URILabelGenerator.class)));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        this.cache.invalidate();
+    }
+}
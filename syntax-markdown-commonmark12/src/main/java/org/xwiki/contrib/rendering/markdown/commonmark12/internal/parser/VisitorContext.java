@@ -0,0 +1,349 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancellationToken;
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.parser.ResourceReferenceParser;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.util.IdGenerator;
+
+import com.vladsch.flexmark.ast.util.ReferenceRepository;
+import com.vladsch.flexmark.util.ast.Node;
+
+/**
+ * The state of a parse, passed to the {@link NodeHandler}s so that they can be shared by all parses.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public class VisitorContext
+{
+    private final NodeDispatcher dispatcher;
+
+    /**
+     * Listener(s) for the generated XWiki Events. Organized as a stack so that a buffering listener can hijack all
+     * events for a while, for example. All generated events are sent to the top of the stack.
+     */
+    private final Deque<Listener> listeners = new ArrayDeque<>();
+
+    /**
+     * Used to generate a unique id for Headings.
+     */
+    private final IdGenerator idGenerator = new IdGenerator();
+
+    private final MarkdownStructureListener structureListener;
+
+    private final NodeStack nodeStack = new NodeStack();
+
+    private ReferenceRepository referenceRepository;
+
+    private int maxDepth;
+
+    private boolean releasingVisitedNodes;
+
+    private int maxNodes;
+
+    private int nodeCount;
+
+    private int skippedNodesOffset = -1;
+
+    private int maxTableCells;
+
+    private MarkdownCancellationToken cancellationToken;
+
+    private ResourceReferenceParser linkReferenceParser;
+
+    private ResourceReferenceParser imageReferenceParser;
+
+    private PrintRendererFactory plainRendererFactory;
+
+    /**
+     * @param dispatcher the dispatcher used to visit child nodes
+     * @param structureListener the listener receiving the generated events, at the bottom of the stack
+     */
+    public VisitorContext(NodeDispatcher dispatcher, MarkdownStructureListener structureListener)
+    {
+        this.dispatcher = dispatcher;
+        this.structureListener = structureListener;
+        this.listeners.push(structureListener);
+    }
+
+    /**
+     * Forgets the state of the previous parse so that the context can be reused by another parse. The listener
+     * receiving the generated events has to be set again on the {@link #getStructureListener() structure listener}.
+     */
+    public void reset()
+    {
+        this.listeners.clear();
+        this.listeners.push(this.structureListener);
+        this.structureListener.reset();
+        this.idGenerator.reset();
+        this.nodeStack.clear();
+        this.referenceRepository = null;
+        this.maxDepth = 0;
+        this.releasingVisitedNodes = false;
+        this.maxNodes = 0;
+        this.nodeCount = 0;
+        this.skippedNodesOffset = -1;
+        this.maxTableCells = 0;
+        this.cancellationToken = null;
+        this.linkReferenceParser = null;
+        this.imageReferenceParser = null;
+        this.plainRendererFactory = null;
+    }
+
+    /**
+     * @return the top listener on the stack
+     */
+    public Listener getListener()
+    {
+        return this.listeners.peek();
+    }
+
+    /**
+     * @return the listener converting the structure of the generated events, at the bottom of the stack
+     */
+    public MarkdownStructureListener getStructureListener()
+    {
+        return this.structureListener;
+    }
+
+    /**
+     * @param listener the listener receiving the events generated until it's popped
+     */
+    public void pushListener(Listener listener)
+    {
+        this.listeners.push(listener);
+    }
+
+    /**
+     * Restores the listener active before the last {@link #pushListener(Listener)}.
+     */
+    public void popListener()
+    {
+        this.listeners.pop();
+    }
+
+    /**
+     * @param node the node to generate events for
+     */
+    public void visit(Node node)
+    {
+        this.dispatcher.visit(node, this);
+    }
+
+    /**
+     * @param node the node whose children to generate events for
+     */
+    public void visitChildren(Node node)
+    {
+        this.dispatcher.visitChildren(node, this);
+    }
+
+    /**
+     * @return the reference definitions of the document being visited
+     */
+    public ReferenceRepository getReferenceRepository()
+    {
+        return this.referenceRepository;
+    }
+
+    /**
+     * @param referenceRepository the reference definitions of the document being visited
+     */
+    public void setReferenceRepository(ReferenceRepository referenceRepository)
+    {
+        this.referenceRepository = referenceRepository;
+    }
+
+    /**
+     * @return the generator of the heading ids, shared by all the headings of the content
+     */
+    public IdGenerator getIdGenerator()
+    {
+        return this.idGenerator;
+    }
+
+    /**
+     * @return the maximum number of nested container nodes for which events are generated, 0 for no limit
+     */
+    public int getMaxDepth()
+    {
+        return this.maxDepth;
+    }
+
+    /**
+     * @param maxDepth the maximum number of nested container nodes for which events are generated, 0 for no limit
+     */
+    public void setMaxDepth(int maxDepth)
+    {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return {@code true} if the top-level blocks are unlinked from their document once visited
+     */
+    public boolean isReleasingVisitedNodes()
+    {
+        return this.releasingVisitedNodes;
+    }
+
+    /**
+     * @param releasingVisitedNodes {@code true} to unlink the top-level blocks from their document once visited, so
+     *            that they can be garbage collected before the end of the parse
+     */
+    public void setReleasingVisitedNodes(boolean releasingVisitedNodes)
+    {
+        this.releasingVisitedNodes = releasingVisitedNodes;
+    }
+
+    /**
+     * @param maxNodes the maximum number of nodes of the content for which events are generated, 0 for no limit
+     */
+    public void setMaxNodes(int maxNodes)
+    {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Counts a node about to be visited.
+     *
+     * @return {@code false} if the node is beyond the maximum number of nodes and must be skipped
+     */
+    public boolean countNode()
+    {
+        return this.maxNodes <= 0 || ++this.nodeCount <= this.maxNodes;
+    }
+
+    /**
+     * @return the offset of the first node of the current document skipped because of the maximum number of nodes, or
+     *         -1 if none has been skipped
+     */
+    public int getSkippedNodesOffset()
+    {
+        return this.skippedNodesOffset;
+    }
+
+    /**
+     * @param skippedNodesOffset the offset of the first node of the current document skipped because of the maximum
+     *            number of nodes, or -1 to forget it
+     */
+    public void setSkippedNodesOffset(int skippedNodesOffset)
+    {
+        this.skippedNodesOffset = skippedNodesOffset;
+    }
+
+    /**
+     * @return the maximum number of cells of a table, 0 for no limit
+     */
+    public int getMaxTableCells()
+    {
+        return this.maxTableCells;
+    }
+
+    /**
+     * @param maxTableCells the maximum number of cells of a table, 0 for no limit
+     */
+    public void setMaxTableCells(int maxTableCells)
+    {
+        this.maxTableCells = maxTableCells;
+    }
+
+    /**
+     * @param cancellationToken the token checked while the nodes are visited, or {@code null} to never abort
+     */
+    public void setCancellationToken(MarkdownCancellationToken cancellationToken)
+    {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * Marks the visit of a node, aborting the parse periodically if its cancellation token is cancelled.
+     *
+     * @throws org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancelledException if the parse is
+     *             aborted
+     */
+    public void checkpoint()
+    {
+        if (this.cancellationToken != null) {
+            this.cancellationToken.checkpoint();
+        }
+    }
+
+    /**
+     * @return the parser of the wiki link references, looked up for the current parse
+     */
+    public ResourceReferenceParser getLinkReferenceParser()
+    {
+        return this.linkReferenceParser;
+    }
+
+    /**
+     * @param linkReferenceParser the parser of the wiki link references
+     */
+    public void setLinkReferenceParser(ResourceReferenceParser linkReferenceParser)
+    {
+        this.linkReferenceParser = linkReferenceParser;
+    }
+
+    /**
+     * @return the parser of the wiki image references, looked up for the current parse
+     */
+    public ResourceReferenceParser getImageReferenceParser()
+    {
+        return this.imageReferenceParser;
+    }
+
+    /**
+     * @param imageReferenceParser the parser of the wiki image references
+     */
+    public void setImageReferenceParser(ResourceReferenceParser imageReferenceParser)
+    {
+        this.imageReferenceParser = imageReferenceParser;
+    }
+
+    /**
+     * @return the factory of the renderers used to extract the plain text of nodes, looked up for the current parse
+     */
+    public PrintRendererFactory getPlainRendererFactory()
+    {
+        return this.plainRendererFactory;
+    }
+
+    /**
+     * @param plainRendererFactory the factory of the renderers used to extract the plain text of nodes
+     */
+    public void setPlainRendererFactory(PrintRendererFactory plainRendererFactory)
+    {
+        this.plainRendererFactory = plainRendererFactory;
+    }
+
+    /**
+     * @return the container nodes being traversed
+     */
+    NodeStack getNodeStack()
+    {
+        return this.nodeStack;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.xwiki.rendering.listener.Listener;
+
+/**
+ * A bounded pool of {@link VisitorContext}s, so that parses don't allocate a new listener stack, id generator and node
+ * stack each time. Contexts are reset when released, and a new context is created when the pool is empty (e.g. when
+ * more parses than the capacity run concurrently, or when content is parsed from a listener); contexts released when
+ * the pool is full are dropped.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class VisitorContextPool
+{
+    private final NodeDispatcher dispatcher;
+
+    private final BlockingQueue<VisitorContext> contexts;
+
+    /**
+     * @param dispatcher the dispatcher of the created contexts
+     * @param capacity the maximum number of contexts kept in the pool
+     */
+    VisitorContextPool(NodeDispatcher dispatcher, int capacity)
+    {
+        this.dispatcher = dispatcher;
+        this.contexts = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * @param listener the listener receiving the events generated with the context
+     * @return a context used by no other parse, until it's {@link #release(VisitorContext) released}
+     */
+    VisitorContext acquire(Listener listener)
+    {
+        VisitorContext context = this.contexts.poll();
+        if (context == null) {
+            context = new VisitorContext(this.dispatcher, new MarkdownStructureListener());
+        }
+        context.getStructureListener().setWrappedListener(listener);
+        return context;
+    }
+
+    /**
+     * @param context a context acquired from this pool, which must not be used anymore
+     */
+    void release(VisitorContext context)
+    {
+        context.reset();
+        this.contexts.offer(context);
+    }
+}
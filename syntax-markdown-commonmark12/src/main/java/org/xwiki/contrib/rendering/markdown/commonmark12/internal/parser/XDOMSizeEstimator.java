@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.ImageBlock;
+import org.xwiki.rendering.block.LinkBlock;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.MacroMarkerBlock;
+import org.xwiki.rendering.block.RawBlock;
+import org.xwiki.rendering.block.VerbatimBlock;
+import org.xwiki.rendering.block.WordBlock;
+
+/**
+ * Estimates the memory retained by the XDOMs kept by the {@link DefaultParsedXDOMCache}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+final class XDOMSizeEstimator
+{
+    /**
+     * Estimated size of a block without its content: the block object, its children list and parameters map.
+     */
+    private static final int BLOCK_SIZE = 96;
+
+    /**
+     * Estimated size of an empty string or of a map entry.
+     */
+    private static final int OBJECT_SIZE = 40;
+
+    private XDOMSizeEstimator()
+    {
+    }
+
+    /**
+     * @return a rough estimate of the memory retained by the passed block and its descendants
+     */
+    static long estimateSize(Block block)
+    {
+        long size = 0;
+        Deque<Block> blocks = new ArrayDeque<>();
+        blocks.push(block);
+        while (!blocks.isEmpty()) {
+            Block current = blocks.pop();
+            size += BLOCK_SIZE + estimateContentSize(current);
+            for (Map.Entry<String, String> parameter : current.getParameters().entrySet()) {
+                size += OBJECT_SIZE + estimateSize(parameter.getKey()) + estimateSize(parameter.getValue());
+            }
+            for (Block child : current.getChildren()) {
+                blocks.push(child);
+            }
+        }
+        return size;
+    }
+
+    private static long estimateContentSize(Block block)
+    {
+        String content = null;
+        if (block instanceof WordBlock) {
+            content = ((WordBlock) block).getWord();
+        } else if (block instanceof RawBlock) {
+            content = ((RawBlock) block).getRawContent();
+        } else if (block instanceof VerbatimBlock) {
+            content = ((VerbatimBlock) block).getProtectedString();
+        } else if (block instanceof MacroBlock) {
+            content = ((MacroBlock) block).getContent();
+        } else if (block instanceof MacroMarkerBlock) {
+            content = ((MacroMarkerBlock) block).getContent();
+        } else if (block instanceof LinkBlock) {
+            content = ((LinkBlock) block).getReference().getReference();
+        } else if (block instanceof ImageBlock) {
+            content = ((ImageBlock) block).getReference().getReference();
+        }
+        return estimateSize(content);
+    }
+
+    /**
+     * @return a rough estimate of the memory retained by the passed string, 0 if it's {@code null}
+     */
+    static long estimateSize(String value)
+    {
+        return value != null ? OBJECT_SIZE + 2L * value.length() : 0;
+    }
+}
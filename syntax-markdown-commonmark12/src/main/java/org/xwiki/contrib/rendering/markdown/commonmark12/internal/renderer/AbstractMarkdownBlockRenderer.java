@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancellationToken;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.TableBlock;
+import org.xwiki.rendering.internal.renderer.AbstractBlockRenderer;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+
+/**
+ * Base class for the Block Renderers of the various Markdown flavors. When the tables are rendered in two passes (see
+ * {@link org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions.TableRendering#TWO_PASS}), the
+ * tables of the blocks are first rendered alone without output to measure the widths of their columns. Both passes
+ * are aborted when the cancellation token passed to {@link #render(Collection, WikiPrinter, MarkdownCancellationToken)}
+ * is cancelled.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public abstract class AbstractMarkdownBlockRenderer extends AbstractBlockRenderer
+{
+    /**
+     * Discards the output of the measuring rendering.
+     */
+    private static final WikiPrinter NO_OUTPUT = new WikiPrinter()
+    {
+        @Override
+        public void print(String text)
+        {
+            // Discarded.
+        }
+
+        @Override
+        public void println(String text)
+        {
+            // Discarded.
+        }
+    };
+
+    @Override
+    public void render(Collection<Block> blocks, WikiPrinter printer)
+    {
+        render(blocks, printer, null);
+    }
+
+    /**
+     * Renders blocks, aborting the rendering by throwing a
+     * {@link org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancelledException} when the passed
+     * token is cancelled or its deadline passes.
+     *
+     * @param blocks the blocks to render
+     * @param printer receives the rendered Markdown
+     * @param cancellationToken the token to check while rendering, or {@code null} to never abort
+     * @since 8.9
+     */
+    public void render(Collection<Block> blocks, WikiPrinter printer, MarkdownCancellationToken cancellationToken)
+    {
+        PrintRenderer renderer = getPrintRendererFactory().createRenderer(printer);
+        if (renderer instanceof AbstractMarkdownRenderer) {
+            AbstractMarkdownRenderer markdownRenderer = (AbstractMarkdownRenderer) renderer;
+            markdownRenderer.setCancellationToken(cancellationToken);
+            if (markdownRenderer.isMeasuringTableColumns()) {
+                List<Block> tables = new ArrayList<>();
+                for (Block block : blocks) {
+                    collectTables(block, tables);
+                }
+                if (!tables.isEmpty()) {
+                    markdownRenderer.setTableColumnWidths(measureTableColumns(tables, cancellationToken));
+                }
+            }
+        }
+
+        for (Block block : blocks) {
+            block.traverse(renderer);
+        }
+
+        if (renderer instanceof Flushable) {
+            try {
+                ((Flushable) renderer).flush();
+            } catch (IOException e) {
+                if (this.logger != null) {
+                    this.logger.error("Failed to flush renderer [{}]", renderer, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the tables that are not nested in another table, in the order of the content.
+     */
+    private void collectTables(Block block, List<Block> tables)
+    {
+        if (block instanceof TableBlock) {
+            tables.add(block);
+        } else {
+            for (Block child : block.getChildren()) {
+                collectTables(child, tables);
+            }
+        }
+    }
+
+    private TableColumnWidths measureTableColumns(List<Block> tables, MarkdownCancellationToken cancellationToken)
+    {
+        TableColumnWidths tableColumnWidths = new TableColumnWidths();
+        AbstractMarkdownRenderer measuringRenderer =
+            (AbstractMarkdownRenderer) getPrintRendererFactory().createRenderer(NO_OUTPUT);
+        // The measuring pass prints as much as the rendering, so it's aborted the same way.
+        measuringRenderer.setCancellationToken(cancellationToken);
+        measuringRenderer.setTableColumnWidths(tableColumnWidths);
+        // Only the tables are rendered: the nested tables are rendered (and buffered) with the table containing them.
+        // The document events flush the events delayed by the listener chain, and start the document state.
+        measuringRenderer.beginDocument(MetaData.EMPTY);
+        for (Block table : tables) {
+            table.traverse(measuringRenderer);
+        }
+        measuringRenderer.endDocument(MetaData.EMPTY);
+        tableColumnWidths.setMeasured();
+        return tableColumnWidths;
+    }
+}
@@ -22,7 +22,9 @@ package org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancellationToken;
 import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownConfiguration;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions;
 import org.xwiki.rendering.internal.renderer.xwiki20.AbstractXWikiSyntaxRenderer;
 import org.xwiki.rendering.listener.chaining.ChainingListener;
 import org.xwiki.rendering.listener.chaining.ListenerChain;
@@ -50,11 +52,52 @@ public abstract class AbstractMarkdownRenderer extends AbstractXWikiSyntaxRender
     @Named("markdown/1.2/image")
     protected ResourceReferenceSerializer imageReferenceSerializer;
 
+    private MarkdownChainingRenderer chainingRenderer;
+
     @Override
     protected ChainingListener createXWikiSyntaxChainingRenderer(ListenerChain chain)
     {
-        return new Markdown12ChainingRenderer(chain, this.linkReferenceSerializer, this.imageReferenceSerializer,
-            getConfiguration());
+        this.chainingRenderer = new Markdown12ChainingRenderer(chain, this.linkReferenceSerializer,
+            this.imageReferenceSerializer, getConfiguration());
+        return this.chainingRenderer;
+    }
+
+    /**
+     * Aborts the rendering when the passed token is cancelled or its deadline passes, by throwing a
+     * {@link org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancelledException} from the event
+     * being handled. The token is checked periodically, as the events print Markdown.
+     *
+     * @param cancellationToken the token to check while rendering, or {@code null} to never abort
+     * @since 8.9
+     */
+    public void setCancellationToken(MarkdownCancellationToken cancellationToken)
+    {
+        this.chainingRenderer.setCancellationToken(cancellationToken);
+    }
+
+    /**
+     * @return {@code true} if the widths of the columns of the tables should be measured before the rendering (see
+     *         {@link #setTableColumnWidths(TableColumnWidths)})
+     * @since 8.9
+     */
+    public boolean isMeasuringTableColumns()
+    {
+        // Read from the chaining renderer, which is configured with a single configuration snapshot.
+        return this.chainingRenderer.getTableRendering() == MarkdownOptions.TableRendering.TWO_PASS;
+    }
+
+    /**
+     * Renders the tables using widths of columns measured beforehand, instead of rendering them as configured. The
+     * widths are measured by a first rendering with widths that are not {@link TableColumnWidths#isMeasured()
+     * measured} yet, during which the tables are not printed.
+     *
+     * @param tableColumnWidths the widths of the columns of the rendered tables, or {@code null} to render the tables
+     *            as configured
+     * @since 8.9
+     */
+    public void setTableColumnWidths(TableColumnWidths tableColumnWidths)
+    {
+        this.chainingRenderer.setTableColumnWidths(tableColumnWidths);
     }
 
     @Override
@@ -0,0 +1,144 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+
+/**
+ * A printer writing the rendered content to a {@link Writer} (an export file or an HTTP response for example) through
+ * a fixed-size buffer, instead of keeping the whole output in memory as a
+ * {@link org.xwiki.rendering.renderer.printer.DefaultWikiPrinter} does. The buffer is written whenever it's full and
+ * the Markdown renderers {@link #flush() flush} the printer between top-level blocks, so that the output reaches the
+ * writer progressively.
+ * <p>
+ * Printers can't throw checked exceptions, so the write errors are thrown as {@link UncheckedIOException}s. The
+ * printer doesn't close the writer.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public class BufferedWriterWikiPrinter implements WikiPrinter, Flushable
+{
+    /**
+     * The default size of the buffer, in characters.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    private static final String EOL = "\n";
+
+    private final Writer writer;
+
+    private final char[] buffer;
+
+    private int length;
+
+    /**
+     * @param writer the writer receiving the printed content
+     */
+    public BufferedWriterWikiPrinter(Writer writer)
+    {
+        this(writer, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param writer the writer receiving the printed content
+     * @param bufferSize the number of characters buffered before they are written
+     */
+    public BufferedWriterWikiPrinter(Writer writer, int bufferSize)
+    {
+        this.writer = writer;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * @param stream the stream receiving the printed content
+     * @param charset the encoding of the printed content
+     */
+    public BufferedWriterWikiPrinter(OutputStream stream, Charset charset)
+    {
+        this(new OutputStreamWriter(stream, charset));
+    }
+
+    @Override
+    public void print(String text)
+    {
+        int offset = 0;
+        while (offset < text.length()) {
+            if (this.length == this.buffer.length) {
+                writeBuffer();
+            }
+            int count = Math.min(text.length() - offset, this.buffer.length - this.length);
+            text.getChars(offset, offset + count, this.buffer, this.length);
+            this.length += count;
+            offset += count;
+        }
+    }
+
+    @Override
+    public void println(String text)
+    {
+        print(text);
+        print(EOL);
+    }
+
+    /**
+     * Writes the buffered content and flushes the writer.
+     *
+     * @throws UncheckedIOException if the content cannot be written
+     */
+    @Override
+    public void flush()
+    {
+        writeBuffer();
+        try {
+            this.writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to flush the rendered content", e);
+        }
+    }
+
+    /**
+     * @return the writer receiving the printed content
+     */
+    public Writer getWriter()
+    {
+        return this.writer;
+    }
+
+    private void writeBuffer()
+    {
+        if (this.length > 0) {
+            try {
+                this.writer.write(this.buffer, 0, this.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write the rendered content", e);
+            }
+            this.length = 0;
+        }
+    }
+}
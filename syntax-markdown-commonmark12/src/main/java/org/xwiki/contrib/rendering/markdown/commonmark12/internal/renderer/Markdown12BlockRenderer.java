@@ -24,7 +24,6 @@ import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.rendering.internal.renderer.AbstractBlockRenderer;
 import org.xwiki.rendering.renderer.PrintRendererFactory;
 
 /**
@@ -36,7 +35,7 @@ import org.xwiki.rendering.renderer.PrintRendererFactory;
 @Component
 @Named("markdown/1.2")
 @Singleton
-public class Markdown12BlockRenderer extends AbstractBlockRenderer
+public class Markdown12BlockRenderer extends AbstractMarkdownBlockRenderer
 {
     @Inject
     @Named("markdown/1.2")
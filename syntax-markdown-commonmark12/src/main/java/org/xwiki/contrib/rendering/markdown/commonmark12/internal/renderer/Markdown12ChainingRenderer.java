@@ -24,6 +24,8 @@ import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownConfiguration;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownConfigurationSnapshot;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions;
 import org.xwiki.rendering.listener.Format;
 import org.xwiki.rendering.listener.chaining.ListenerChain;
 import org.xwiki.rendering.listener.reference.ResourceReference;
@@ -32,8 +34,6 @@ import org.xwiki.rendering.renderer.reference.ResourceReferenceSerializer;
 
 import com.vladsch.flexmark.ext.gfm.strikethrough.StrikethroughExtension;
 import com.vladsch.flexmark.ext.gfm.strikethrough.StrikethroughSubscriptExtension;
-import com.vladsch.flexmark.parser.Parser;
-import com.vladsch.flexmark.util.misc.Extension;
 
 /**
  * Convert listener events to Markdown 1.2.
@@ -51,8 +51,6 @@ public class Markdown12ChainingRenderer extends Markdown11ChainingRenderer
 
     private static final String FORMAT_THREE_PARAMS = "[[%s|%s|%s]]";
 
-    private MarkdownConfiguration configuration;
-
     private boolean isStrikethroughSupported;
 
     /**
@@ -65,8 +63,11 @@ public class Markdown12ChainingRenderer extends Markdown11ChainingRenderer
             MarkdownConfiguration configuration)
     {
         super(listenerChain, linkReferenceSerializer, imageReferenceSerializer);
-        this.configuration = configuration;
-        this.isStrikethroughSupported = isStrikethroughSupported();
+        // The renderer is configured with a single snapshot, so that a concurrent configuration update cannot mix
+        // options of two versions.
+        MarkdownConfigurationSnapshot snapshot = configuration.getSnapshot();
+        this.isStrikethroughSupported = isStrikethroughSupported(snapshot);
+        setTableRendering(MarkdownOptions.TABLE_RENDERING.get(snapshot.getOptions()));
     }
 
     @Override
@@ -144,8 +145,8 @@ public class Markdown12ChainingRenderer extends Markdown11ChainingRenderer
         // Escape any ( or ) to avoid issue with the link syntax.
         // e.g. [label](https://en.wikipedia.org/Some_Subject_\(With_Title\))
         // See http://spec.commonmark.org/0.27/#links
-        escapedReference = rawReference.replaceAll("\\(", "\\\\(");
-        escapedReference = escapedReference.replaceAll("\\)", "\\\\)");
+        escapedReference = StringUtils.replace(rawReference, "(", "\\(");
+        escapedReference = StringUtils.replace(escapedReference, ")", "\\)");
 
         return escapedReference;
     }
@@ -207,13 +208,9 @@ public class Markdown12ChainingRenderer extends Markdown11ChainingRenderer
         return new Markdown12MacroRenderer();
     }
 
-    private boolean isStrikethroughSupported()
+    private boolean isStrikethroughSupported(MarkdownConfigurationSnapshot snapshot)
     {
-        for (Extension extension : Parser.EXTENSIONS.get(this.configuration.getOptions())) {
-             if (extension instanceof StrikethroughExtension || extension instanceof StrikethroughSubscriptExtension) {
-                 return true;
-             }
-        }
-        return false;
+        return snapshot.hasExtension(StrikethroughExtension.class)
+            || snapshot.hasExtension(StrikethroughSubscriptExtension.class);
     }
 }
@@ -31,6 +31,8 @@ import org.apache.commons.lang3.StringUtils;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.input.SAXBuilder;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownCancellationToken;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions.TableRendering;
 import org.xwiki.rendering.internal.renderer.xwiki20.XWikiSyntaxListenerChain;
 import org.xwiki.rendering.listener.Format;
 import org.xwiki.rendering.listener.HeaderLevel;
@@ -43,6 +45,7 @@ import org.xwiki.rendering.listener.reference.ResourceType;
 import org.xwiki.rendering.renderer.AbstractChainingPrintRenderer;
 import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
 import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.rendering.renderer.printer.WrappingWikiPrinter;
 import org.xwiki.rendering.renderer.reference.ResourceReferenceSerializer;
 import org.xwiki.rendering.syntax.Syntax;
 
@@ -70,17 +73,81 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
 
     private int previousQuoteDepth;
 
-    private Stack<List<List<String>>> tableCells = new Stack<>();
+    private Stack<TableState> tables = new Stack<>();
 
-    /**
-     * How many head rows each table has.
-     */
-    private Stack<Integer> tableHeadRowsCount = new Stack<>();
+    private TableRendering tableRendering = TableRendering.BUFFERED;
+
+    private TableColumnWidths tableColumnWidths;
 
     private Stack<Boolean> isOnFirstHeadCellInTableRow = new Stack<>();
 
     private Stack<Map<String, String>> abbreviations = new Stack<>();
 
+    private MarkdownCancellationToken cancellationToken;
+
+    /**
+     * The printers accumulating nested content (headings, link labels, table cells...), indexed by their nesting
+     * depth and reused from one nested content to the next instead of being created for each of them.
+     */
+    private List<MarkdownEscapeWikiPrinter> nestedPrinters = new ArrayList<>();
+
+    private int nestedPrintersDepth;
+
+    /**
+     * How a table is rendered: all its rows at its end, each row as it ends (with or without padding), or not at all
+     * while measuring its columns.
+     */
+    private enum TableMode
+    {
+        BUFFERED,
+        COMPACT,
+        PADDED,
+        MEASURED
+    }
+
+    /**
+     * The state of a table being rendered.
+     */
+    private static final class TableState
+    {
+        private final TableMode mode;
+
+        /**
+         * The index of the table in {@link MarkdownChainingRenderer#tableColumnWidths}, when used.
+         */
+        private final int index;
+
+        /**
+         * All the rows of a buffered table, only the current row otherwise.
+         */
+        private final List<List<String>> rows = new ArrayList<>();
+
+        /**
+         * How many head rows the table has.
+         */
+        private int headRowsCount;
+
+        /**
+         * How many rows have been printed, for the tables printed as their rows end.
+         */
+        private int printedRowsCount;
+
+        private int firstRowSize = -1;
+
+        private boolean separatorPrinted;
+
+        TableState(TableMode mode, int index)
+        {
+            this.mode = mode;
+            this.index = index;
+        }
+
+        List<String> getLastRow()
+        {
+            return this.rows.get(this.rows.size() - 1);
+        }
+    }
+
     /**
      * @param listenerChain the chain of listener filters used to compute various states
      * @param linkReferenceSerializer the component to use for converting {@link ResourceReference} links to strings
@@ -117,6 +184,7 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
             }
         }
         this.abbreviations.pop();
+        flushOutput();
     }
 
     @Override
@@ -199,7 +267,7 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
     {
         printEmptyLine();
         print(StringUtils.repeat("#", level.getAsInt()) + " ");
-        pushPrinter(createMarkdownPrinter(new DefaultWikiPrinter()));
+        pushNestedPrinter();
     }
 
     @Override
@@ -344,13 +412,13 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
     @Override
     public void beginLink(ResourceReference reference, boolean isFreeStandingURI, Map<String, String> parameters)
     {
-        MarkdownEscapeWikiPrinter linkLabelPrinter = createMarkdownPrinter(new DefaultWikiPrinter());
-
-        // Make sure the escape handler knows there is already characters before
-        linkLabelPrinter.setOnNewLine(getMarkdownPrinter().isOnNewLine());
+        boolean isOnNewLine = getMarkdownPrinter().isOnNewLine();
 
         // Defer printing the link content since we need to gather all nested elements
-        pushPrinter(linkLabelPrinter);
+        MarkdownEscapeWikiPrinter linkLabelPrinter = pushNestedPrinter();
+
+        // Make sure the escape handler knows there is already characters before
+        linkLabelPrinter.setOnNewLine(isOnNewLine);
     }
 
     @Override
@@ -458,12 +526,52 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
     public void beginTable(Map<String, String> parameters)
     {
         printEmptyLine();
-        this.tableCells.push(new ArrayList<>());
-        this.tableHeadRowsCount.push(0);
+        TableState table;
+        if (this.tableColumnWidths != null && this.tables.isEmpty()) {
+            table = new TableState(this.tableColumnWidths.isMeasured() ? TableMode.PADDED : TableMode.MEASURED,
+                this.tableColumnWidths.beginTable());
+        } else if (this.tableColumnWidths == null && this.tableRendering == TableRendering.STREAMING) {
+            table = new TableState(TableMode.COMPACT, -1);
+        } else {
+            // The tables nested in a measured table are buffered, so that the cells containing them are the same when
+            // measured.
+            table = new TableState(TableMode.BUFFERED, -1);
+        }
+        this.tables.push(table);
+
+        if (table.mode == TableMode.PADDED) {
+            // A buffered table prints its caption before its rows.
+            print(this.tableColumnWidths.getCaption(table.index));
+        }
+        if (table.mode == TableMode.PADDED || table.mode == TableMode.MEASURED) {
+            // Accumulate what's printed outside of the cells, to measure the caption or discard it once printed.
+            pushNestedPrinter();
+        }
     }
 
     @Override
     public void endTable(Map<String, String> parameters)
+    {
+        TableState table = this.tables.pop();
+        if (table.mode == TableMode.PADDED || table.mode == TableMode.MEASURED) {
+            MarkdownEscapeWikiPrinter captionPrinter = getMarkdownPrinter();
+            captionPrinter.flush();
+            if (table.mode == TableMode.MEASURED) {
+                this.tableColumnWidths.setCaption(table.index, captionPrinter.toString());
+            }
+            popPrinter();
+        }
+        if (table.mode == TableMode.BUFFERED) {
+            printBufferedTable(table);
+        } else if (table.mode != TableMode.MEASURED && !table.separatorPrinted && table.printedRowsCount > 0) {
+            // The table only has head rows.
+            print("\n");
+            printTableSeparator(table);
+            print("\n");
+        }
+    }
+
+    private void printBufferedTable(TableState table)
     {
         // Display the full table
 
@@ -472,7 +580,7 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
         List<Integer> maxColumnSizes = new ArrayList<>();
         // Find the max number of columns
         int maxColumns = -1;
-        for (List<String> columnCells : this.tableCells.peek()) {
+        for (List<String> columnCells : table.rows) {
             if (columnCells.size() > maxColumns) {
                 maxColumns = columnCells.size();
             }
@@ -482,14 +590,10 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
             maxColumnSizes.add(-1);
         }
         // Set the max column sizes
-        for (int rows = 0; rows < this.tableCells.peek().size(); rows++) {
-            List<String> columnCells = this.tableCells.peek().get(rows);
+        for (int rows = 0; rows < table.rows.size(); rows++) {
+            List<String> columnCells = table.rows.get(rows);
             for (int i = 0; i < columnCells.size(); i++) {
-                int currentCellSize = columnCells.get(i).length();
-                // The minimum cell size is 3 to account for the header separator "---"
-                if (currentCellSize < 3) {
-                    currentCellSize = 3;
-                }
+                int currentCellSize = getMinimumColumnSize(columnCells.get(i));
                 if (currentCellSize > maxColumnSizes.get(i)) {
                     maxColumnSizes.set(i, currentCellSize);
                 }
@@ -497,27 +601,74 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
         }
 
         // First, print header rows
-        if (this.tableHeadRowsCount.peek() > 0) {
-            for (int i = 0; i < this.tableHeadRowsCount.peek(); i++) {
-                List<String> columnCells = this.tableCells.peek().get(i);
+        if (table.headRowsCount > 0) {
+            for (int i = 0; i < table.headRowsCount; i++) {
+                List<String> columnCells = table.rows.get(i);
                 printTableRow(columnCells, ' ', true, maxColumnSizes);
             }
             print("\n");
         }
-        printTableRow(this.tableCells.peek().get(0), '-', false, maxColumnSizes);
+        printTableRow(table.rows.get(0), '-', false, maxColumnSizes);
         print("\n");
 
         // Now print the body rows
-        for (int i = this.tableHeadRowsCount.peek(); i < this.tableCells.peek().size(); i++) {
-            List<String> columnCells = this.tableCells.peek().get(i);
+        for (int i = table.headRowsCount; i < table.rows.size(); i++) {
+            List<String> columnCells = table.rows.get(i);
             printTableRow(columnCells, ' ', true, maxColumnSizes);
-            if (i < this.tableCells.peek().size() - 1) {
+            if (i < table.rows.size() - 1) {
                 print("\n");
             }
         }
+    }
+
+    /**
+     * Prints a row of a table printed as its rows end. The separator between the head and the body of the table is
+     * printed before the first body row.
+     */
+    private void printTableRow(TableState table, List<String> columnCells, boolean isHeadRow)
+    {
+        if (table.firstRowSize < 0) {
+            table.firstRowSize = columnCells.size();
+        }
+        // The head rows are printed on the same line, as for a buffered table.
+        if (table.printedRowsCount > 0 && (!isHeadRow || table.separatorPrinted)) {
+            print("\n");
+        }
+        if (!isHeadRow && !table.separatorPrinted) {
+            printTableSeparator(table);
+            print("\n");
+        }
+        List<Integer> columnSizes = new ArrayList<>(columnCells.size());
+        for (int i = 0; i < columnCells.size(); i++) {
+            columnSizes.add(table.mode == TableMode.PADDED
+                ? getColumnSize(table, i, columnCells.get(i)) : columnCells.get(i).length());
+        }
+        printTableRow(columnCells, ' ', true, columnSizes);
+        table.printedRowsCount++;
+    }
+
+    private void printTableSeparator(TableState table)
+    {
+        // The cells of the separator are made of dashes only, whatever the text of the cells of the first row.
+        List<String> cells = new ArrayList<>(table.firstRowSize);
+        List<Integer> columnSizes = new ArrayList<>(table.firstRowSize);
+        for (int i = 0; i < table.firstRowSize; i++) {
+            cells.add("");
+            columnSizes.add(table.mode == TableMode.PADDED ? getColumnSize(table, i, "") : getMinimumColumnSize(""));
+        }
+        printTableRow(cells, '-', false, columnSizes);
+        table.separatorPrinted = true;
+    }
 
-        this.tableCells.pop();
-        this.tableHeadRowsCount.pop();
+    private int getColumnSize(TableState table, int column, String cell)
+    {
+        return Math.max(this.tableColumnWidths.getWidth(table.index, column), getMinimumColumnSize(cell));
+    }
+
+    private int getMinimumColumnSize(String cell)
+    {
+        // The minimum cell size is 3 to account for the header separator "---"
+        return Math.max(cell.length(), 3);
     }
 
     private void printTableRow(List<String> columnCells, char separator, boolean printCellText,
@@ -544,7 +695,7 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
     @Override
     public void beginTableCell(Map<String, String> parameters)
     {
-        pushPrinter(createMarkdownPrinter(new DefaultWikiPrinter()));
+        pushNestedPrinter();
     }
 
     @Override
@@ -554,7 +705,11 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
         headingPrinter.flush();
         String cellText = headingPrinter.toString();
         popPrinter();
-        List<String> cellsInLastRow = this.tableCells.peek().get(this.tableCells.peek().size() - 1);
+        TableState table = this.tables.peek();
+        List<String> cellsInLastRow = table.getLastRow();
+        if (table.mode == TableMode.MEASURED) {
+            this.tableColumnWidths.measure(table.index, cellsInLastRow.size(), getMinimumColumnSize(cellText));
+        }
         cellsInLastRow.add(cellText);
     }
 
@@ -564,7 +719,7 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
         if (this.isOnFirstHeadCellInTableRow.peek()) {
             this.isOnFirstHeadCellInTableRow.pop();
             this.isOnFirstHeadCellInTableRow.push(false);
-            this.tableHeadRowsCount.push(this.tableHeadRowsCount.pop() + 1);
+            this.tables.peek().headRowsCount++;
         }
         beginTableCell(parameters);
     }
@@ -578,14 +733,56 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
     @Override
     public void beginTableRow(Map<String, String> parameters)
     {
-        this.tableCells.peek().add(new ArrayList<>());
+        this.tables.peek().rows.add(new ArrayList<>());
         this.isOnFirstHeadCellInTableRow.push(true);
     }
 
     @Override
     public void endTableRow(Map<String, String> parameters)
     {
-        this.isOnFirstHeadCellInTableRow.pop();
+        boolean isHeadRow = !this.isOnFirstHeadCellInTableRow.pop();
+        TableState table = this.tables.peek();
+        if (table.mode != TableMode.BUFFERED) {
+            // Only the buffered tables keep their rows until their end.
+            List<String> columnCells = table.rows.remove(0);
+            if (table.mode == TableMode.COMPACT) {
+                printTableRow(table, columnCells, isHeadRow);
+            } else if (table.mode == TableMode.PADDED) {
+                // Print the row below the printer discarding the caption.
+                popPrinter();
+                printTableRow(table, columnCells, isHeadRow);
+                pushNestedPrinter();
+            }
+        }
+    }
+
+    /**
+     * @param tableRendering how to render the tables whose column widths are not measured beforehand
+     * @since 8.9
+     */
+    public void setTableRendering(TableRendering tableRendering)
+    {
+        this.tableRendering = tableRendering;
+    }
+
+    /**
+     * @return how the tables whose column widths are not measured beforehand are rendered
+     * @since 8.9
+     */
+    public TableRendering getTableRendering()
+    {
+        return this.tableRendering;
+    }
+
+    /**
+     * @param tableColumnWidths the widths of the columns of the rendered tables, to be measured if they're not
+     *            {@link TableColumnWidths#isMeasured() measured} yet, or {@code null} to render the tables as
+     *            configured with {@link #setTableRendering(TableRendering)}
+     * @since 8.9
+     */
+    public void setTableColumnWidths(TableColumnWidths tableColumnWidths)
+    {
+        this.tableColumnWidths = tableColumnWidths;
     }
 
     @Override
@@ -655,12 +852,41 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
         return (MarkdownEscapeWikiPrinter) super.getPrinter();
     }
 
+    /**
+     * Pushes an empty printer accumulating nested content until {@link #popPrinter()} is called, taken from the
+     * printers of this renderer so that rendering many nested contents (e.g. links) doesn't create a printer for each.
+     * The content must be read from the printer before it's popped.
+     *
+     * @return the pushed printer
+     */
+    protected MarkdownEscapeWikiPrinter pushNestedPrinter()
+    {
+        MarkdownEscapeWikiPrinter printer;
+        if (this.nestedPrintersDepth < this.nestedPrinters.size()) {
+            printer = this.nestedPrinters.get(this.nestedPrintersDepth);
+        } else {
+            printer = createMarkdownPrinter(new DefaultWikiPrinter());
+            this.nestedPrinters.add(printer);
+        }
+        this.nestedPrintersDepth++;
+        pushPrinter(printer);
+        return printer;
+    }
+
     @Override
     protected void popPrinter()
     {
         // Ensure that any not printed characters are flushed
         getMarkdownPrinter().flush();
 
+        // Make the popped nested printer ready to be reused
+        if (this.nestedPrintersDepth > 0
+            && getPrinter() == this.nestedPrinters.get(this.nestedPrintersDepth - 1))
+        {
+            getMarkdownPrinter().reset();
+            this.nestedPrintersDepth--;
+        }
+
         super.popPrinter();
     }
 
@@ -707,8 +933,22 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
         return isHandled;
     }
 
+    /**
+     * @param cancellationToken the token checked each time an event prints some Markdown, or {@code null} to never
+     *            abort the rendering
+     * @since 8.9
+     */
+    public void setCancellationToken(MarkdownCancellationToken cancellationToken)
+    {
+        this.cancellationToken = cancellationToken;
+    }
+
     protected void print(String text)
     {
+        // All the events print through this method, so it's where the rendering is aborted when cancelled.
+        if (this.cancellationToken != null) {
+            this.cancellationToken.checkpoint();
+        }
         getPrinter().print(text);
     }
 
@@ -726,11 +966,31 @@ public class MarkdownChainingRenderer extends AbstractChainingPrintRenderer
     {
         if (this.isFirstElementRendered) {
             print("\n\n");
+            flushOutput();
         } else {
             this.isFirstElementRendered = true;
         }
     }
 
+    /**
+     * Sends the content rendered so far to the output, when it's written progressively (see
+     * {@link BufferedWriterWikiPrinter}). This is only done between blocks rendered with the main printer: the content
+     * printed with a pushed printer (e.g. the cells of a table) is not complete yet, and the text delayed by the escape
+     * printer has already been printed by the empty line since it doesn't span blocks.
+     */
+    private void flushOutput()
+    {
+        if (getPrinter() == getMainPrinter()) {
+            WikiPrinter printer = getMarkdownPrinter().getWrappedPrinter();
+            while (printer instanceof WrappingWikiPrinter) {
+                printer = ((WrappingWikiPrinter) printer).getWrappedPrinter();
+            }
+            if (printer instanceof BufferedWriterWikiPrinter) {
+                ((BufferedWriterWikiPrinter) printer).flush();
+            }
+        }
+    }
+
     private BlockStateChainingListener getBlockState()
     {
         return getXWikiSyntaxListenerChain().getBlockStateChainingListener();
@@ -19,34 +19,26 @@
  */
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import org.xwiki.rendering.internal.renderer.xwiki20.XWikiSyntaxListenerChain;
 import org.xwiki.rendering.listener.chaining.BlockStateChainingListener;
 
 /**
  * Escape characters that would be confused for Markdown syntax if they were not escaped.
+ * <p>
+ * The text is escaped in a single forward scan: backslashes are doubled, the first character of a list item, header
+ * or quote marker starting the text is escaped when the text starts a new line of a paragraph, and the reserved
+ * characters ({@code *}, {@code _} and {@code `}) that are not already preceded by a backslash are escaped.
  *
  * @version $Id: 44a804272066150623d4b5ebbc8cd5980bd6f34b $
  * @since 8.1RC1
  */
 public class MarkdownEscapeHandler
 {
-    private static final Pattern LIST_PATTERN = Pattern.compile(
-        "\\p{Blank}*((\\*)|(\\-)|(\\+)|(\\p{Digit}\\.))\\p{Blank}+");
-
-    private static final Pattern QUOTE_PATTERN = Pattern.compile("(\\>+)");
-
-    private static final Pattern HEADER_PATTERN = Pattern.compile("\\p{Blank}*((=+)|(-+))");
+    public static final String ESCAPE_CHAR = "\\";
 
-    /**
-     * Note that we take care to not match if the first character is preceded by an escape (i.e. '\').
-     */
-    private static final Pattern RESERVED_CHARS_PATTERN = Pattern.compile(
-        "(?<!\\\\)\\*|(?<!\\\\)\\*\\*|(?<!\\\\)__|(?<!\\\\)_|(?<!\\\\)`");
+    private static final char ESCAPE_CHARACTER = '\\';
 
-    public static final String ESCAPE_CHAR = "\\";
+    private static final String RESERVED_CHARS = "*_`";
 
     private boolean onNewLine = true;
 
@@ -64,50 +56,93 @@ public class MarkdownEscapeHandler
     {
         BlockStateChainingListener blockStateListener = listenerChain.getBlockStateChainingListener();
 
-        // Escape escape symbol.
-        // Note: This needs to be the first replacement since other replacements below also use the escape symbol
-        replaceAll(accumulatedBuffer, ESCAPE_CHAR, ESCAPE_CHAR + ESCAPE_CHAR);
-
         // When in a paragraph we need to escape symbols that are at beginning of lines and that could be confused
         // with list items, headers or tables.
-        if (blockStateListener.isInLine() && isOnNewLine()) {
-
-            // Look for list pattern at beginning of line and escape the first character only (it's enough)
-            escapeFirstMatchedCharacter(LIST_PATTERN, accumulatedBuffer);
+        String text = accumulatedBuffer.toString();
+        accumulatedBuffer.setLength(0);
+        accumulatedBuffer.append(escape(text, blockStateListener.isInLine() && isOnNewLine()));
 
-            // Look for header pattern at beginning of line and escape the first character only (it's enough)
-            escapeFirstMatchedCharacter(HEADER_PATTERN, accumulatedBuffer);
+        // TODO: Handle escaping link syntax, i.e. |(?<!\)[.*]\(.*\)
+        // See http://spec.commonmark.org/0.27/#links
+    }
 
-            // Look for quote pattern at beginning of line and escape the first character only (it's enough)
-            escapeFirstMatchedCharacter(QUOTE_PATTERN, accumulatedBuffer);
+    /**
+     * @param text the text to escape
+     * @param atLineStart {@code true} if the text starts a new line of a paragraph, in which case a list item, header
+     *            or quote marker starting it is escaped
+     * @return the escaped text
+     * @since 8.9
+     */
+    public StringBuilder escape(CharSequence text, boolean atLineStart)
+    {
+        int length = text.length();
+        StringBuilder result = new StringBuilder(length + length / 8 + 1);
+        int lineStartEscape = atLineStart ? getLineStartEscapeIndex(text) : -1;
+        // Whether the previous character is a backslash, escaping the current character (this includes the backslashes
+        // doubled and the one escaping the line start marker, but not the ones escaping the reserved characters).
+        boolean escaped = false;
+        for (int i = 0; i < length; i++) {
+            char character = text.charAt(i);
+            if (i == lineStartEscape) {
+                result.append(ESCAPE_CHARACTER);
+                escaped = true;
+            }
+            if (character == ESCAPE_CHARACTER) {
+                result.append(ESCAPE_CHARACTER).append(ESCAPE_CHARACTER);
+                escaped = true;
+            } else {
+                if (!escaped && RESERVED_CHARS.indexOf(character) >= 0) {
+                    result.append(ESCAPE_CHARACTER);
+                }
+                result.append(character);
+                escaped = false;
+            }
         }
+        return result;
+    }
 
-        // Escape reserved keywords
-        Matcher matcher = RESERVED_CHARS_PATTERN.matcher(accumulatedBuffer.toString());
-        for (int i = 0; matcher.find(); i = i + matcher.end() - matcher.start() + 1) {
-            accumulatedBuffer.replace(matcher.start() + i, matcher.end() + i, ESCAPE_CHAR + matcher.group().charAt(0)
-                + ESCAPE_CHAR + matcher.group().charAt(1));
+    /**
+     * Look for a list item, header or quote marker at the start of the text, in this order. Escaping the first
+     * character of the marker is enough.
+     *
+     * @return the index of the character to escape, or -1 if the text doesn't start with a marker
+     */
+    private int getLineStartEscapeIndex(CharSequence text)
+    {
+        int start = skipBlanks(text, 0);
+        if (start < text.length()) {
+            char character = text.charAt(start);
+            if (isListMarker(text, start) || character == '=' || character == '-') {
+                return start;
+            }
         }
-
-        // TODO: Handle escaping link syntax, i.e. |(?<!\)[.*]\(.*\)
-        // See http://spec.commonmark.org/0.27/#links
+        return text.length() > 0 && text.charAt(0) == '>' ? 0 : -1;
     }
 
-    private void replaceAll(StringBuffer accumulatedBuffer, String match, String replacement)
+    /**
+     * @return {@code true} if a list item marker ({@code *}, {@code -}, {@code +} or a digit followed by a dot)
+     *         followed by blank characters starts at the passed index
+     */
+    private boolean isListMarker(CharSequence text, int start)
     {
-        int pos = -replacement.length();
-        while ((pos + replacement.length() < accumulatedBuffer.length())
-            && ((pos = accumulatedBuffer.indexOf(match, pos + replacement.length())) != -1)) {
-            accumulatedBuffer.replace(pos, pos + match.length(), replacement);
+        char character = text.charAt(start);
+        int markerEnd = -1;
+        if (character == '*' || character == '-' || character == '+') {
+            markerEnd = start + 1;
+        } else if (character >= '0' && character <= '9' && start + 1 < text.length()
+            && text.charAt(start + 1) == '.')
+        {
+            markerEnd = start + 2;
         }
+        return markerEnd > 0 && skipBlanks(text, markerEnd) > markerEnd;
     }
 
-    private void escapeFirstMatchedCharacter(Pattern pattern, StringBuffer accumulatedBuffer)
+    private int skipBlanks(CharSequence text, int start)
     {
-        Matcher matcher = pattern.matcher(accumulatedBuffer);
-        if (matcher.lookingAt()) {
-            // Escape the first character
-            accumulatedBuffer.replace(matcher.start(1), matcher.start(1) + 1, ESCAPE_CHAR + matcher.group(1).charAt(0));
+        int index = start;
+        while (index < text.length() && (text.charAt(index) == ' ' || text.charAt(index) == '\t')) {
+            index++;
         }
+        return index;
     }
 }
@@ -20,6 +20,7 @@
 package org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer;
 
 import org.xwiki.rendering.internal.renderer.xwiki20.XWikiSyntaxListenerChain;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
 import org.xwiki.rendering.renderer.printer.LookaheadWikiPrinter;
 import org.xwiki.rendering.renderer.printer.WikiPrinter;
 
@@ -33,6 +34,12 @@ import org.xwiki.rendering.renderer.printer.WikiPrinter;
  */
 public class MarkdownEscapeWikiPrinter extends LookaheadWikiPrinter
 {
+    /**
+     * Beyond that capacity (in characters) the buffer of a reset printer is released rather than kept for reuse, so
+     * that a single large content doesn't stay in memory.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 8 * 1024;
+
     private XWikiSyntaxListenerChain listenerChain;
 
     private MarkdownEscapeHandler escapeHandler;
@@ -81,6 +88,30 @@ public class MarkdownEscapeWikiPrinter extends LookaheadWikiPrinter
         }
     }
 
+    /**
+     * Forgets everything printed so far so that the printer can be reused, as if it had just been created. The
+     * wrapped printer is cleared as well when it's a {@link DefaultWikiPrinter}.
+     */
+    public void reset()
+    {
+        clear(getBuffer());
+        if (getWrappedPrinter() instanceof DefaultWikiPrinter) {
+            clear(((DefaultWikiPrinter) getWrappedPrinter()).getBuffer());
+        }
+
+        this.escapeHandler.setOnNewLine(true);
+
+        this.lastPrinted = null;
+    }
+
+    private void clear(StringBuffer buffer)
+    {
+        buffer.setLength(0);
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer.trimToSize();
+        }
+    }
+
     public void setOnNewLine(boolean onNewLine)
     {
         this.escapeHandler.setOnNewLine(onNewLine);
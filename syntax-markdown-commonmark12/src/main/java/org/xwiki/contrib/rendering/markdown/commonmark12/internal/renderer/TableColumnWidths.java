@@ -0,0 +1,121 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The widths of the columns of the tables of some content, measured by a first rendering of the tables so that their
+ * rows can be printed padded without being kept until the end of the table (see
+ * {@link org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions.TableRendering#TWO_PASS}), and
+ * their captions so that they can be printed before the rows. The tables are identified by their order in the content;
+ * the nested tables are rendered with the table containing them.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public final class TableColumnWidths
+{
+    private static final int[] NO_WIDTHS = {};
+
+    private final List<int[]> tables = new ArrayList<>();
+
+    private final List<String> captions = new ArrayList<>();
+
+    private boolean measured;
+
+    private int nextTable;
+
+    /**
+     * Ends the measuring rendering: the following renderings use the measured widths.
+     */
+    public void setMeasured()
+    {
+        this.measured = true;
+        this.nextTable = 0;
+    }
+
+    /**
+     * @return {@code true} if the widths have been measured, {@code false} while they're being measured
+     */
+    public boolean isMeasured()
+    {
+        return this.measured;
+    }
+
+    /**
+     * @return the index of the table starting
+     */
+    int beginTable()
+    {
+        if (!this.measured) {
+            this.tables.add(NO_WIDTHS);
+            this.captions.add("");
+            return this.tables.size() - 1;
+        }
+        return this.nextTable++;
+    }
+
+    /**
+     * @param table the index of the table
+     * @param column the index of the column
+     * @param width the width of a cell of the column
+     */
+    void measure(int table, int column, int width)
+    {
+        int[] widths = this.tables.get(table);
+        if (column >= widths.length) {
+            widths = Arrays.copyOf(widths, column + 1);
+            this.tables.set(table, widths);
+        }
+        widths[column] = Math.max(widths[column], width);
+    }
+
+    /**
+     * @param table the index of the table
+     * @param caption what the table prints outside of its cells, i.e. its caption
+     */
+    void setCaption(int table, String caption)
+    {
+        this.captions.set(table, caption);
+    }
+
+    /**
+     * @param table the index of the table
+     * @return what the table prints outside of its cells, i.e. its caption
+     */
+    String getCaption(int table)
+    {
+        return table < this.captions.size() ? this.captions.get(table) : "";
+    }
+
+    /**
+     * @param table the index of the table
+     * @param column the index of the column
+     * @return the width of the column, or -1 if it's unknown
+     */
+    int getWidth(int table, int column)
+    {
+        int[] widths = table < this.tables.size() ? this.tables.get(table) : NO_WIDTHS;
+        return column < widths.length ? widths[column] : -1;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventRecorder;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.BinaryEventReplayer;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.internal.parser.XDOMGeneratorListener;
+import org.xwiki.rendering.listener.Format;
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.listener.QueueListener;
+import org.xwiki.rendering.parser.ParseException;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.parser.StreamParser;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.rendering.wiki.WikiModel;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that replaying the recorded binary events gives the same events as parsing the Markdown content.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class BinaryEventReplayerTest
+{
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    @BeforeComponent
+    public void registerComponents() throws Exception
+    {
+        // Needed to parse wiki links and images as document and attachment references.
+        this.mocker.registerMockComponent(WikiModel.class);
+    }
+
+    @Test
+    public void replayTestInputs() throws Exception
+    {
+        List<String> inputs = MarkdownTestInputs.getTestInputs();
+        inputs.add("# Title\n\nSee [[label>>Space.Page||anchor=\"anchor\" queryString=\"a=b\"]], "
+            + "![[image.png||width=\"100\"]] and [[label>>Space.Page]] again.\n\n{{info}}macro{{/info}}\n\n"
+            + "Non ASCII characters: éèà 中文.\n");
+        assertTrue(inputs.size() > 50);
+
+        Parser parser = this.mocker.getInstance(Parser.class, "markdown/1.2");
+        StreamParser streamParser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        for (String input : inputs) {
+            BinaryEventRecorder recorder = new BinaryEventRecorder();
+            streamParser.parse(new StringReader(input), recorder);
+            byte[] events = recorder.toByteArray();
+
+            PrintRenderer renderer = createEventRenderer();
+            streamParser.parse(new StringReader(input), renderer);
+            assertEquals(input, renderer.getPrinter().toString(), replay(events));
+
+            // Replaying several times gives the same events.
+            assertEquals(input, renderer.getPrinter().toString(), replay(events));
+
+            XDOMGeneratorListener xdomGenerator = new XDOMGeneratorListener();
+            BinaryEventReplayer.replay(events, xdomGenerator);
+            assertEquals(input, render(parser.parse(new StringReader(input))), render(xdomGenerator.getXDOM()));
+        }
+    }
+
+    @Test
+    public void replayUnpairedSurrogates() throws Exception
+    {
+        // Unpaired surrogates cannot be encoded in UTF-8, the others are encoded separately.
+        String word = "a\uD800b\uDC00c\uD83D\uDE00";
+        BinaryEventRecorder recorder = new BinaryEventRecorder();
+        recorder.beginFormat(Format.BOLD, Listener.EMPTY_PARAMETERS);
+        recorder.onWord(word);
+        recorder.onWord(word);
+        recorder.endFormat(Format.BOLD, Listener.EMPTY_PARAMETERS);
+
+        QueueListener listener = new QueueListener();
+        BinaryEventReplayer.replay(recorder.toByteArray(), listener);
+        assertEquals(4, listener.size());
+        assertEquals(Format.BOLD, listener.get(0).eventParameters[0]);
+        assertEquals(word, listener.get(1).eventParameters[0]);
+        assertEquals(word, listener.get(2).eventParameters[0]);
+        assertEquals(Format.BOLD, listener.get(3).eventParameters[0]);
+    }
+
+    @Test(expected = ParseException.class)
+    public void replayInvalidStream() throws Exception
+    {
+        BinaryEventReplayer.replay("# Title".getBytes(), createEventRenderer());
+    }
+
+    @Test(expected = ParseException.class)
+    public void replayTruncatedStream() throws Exception
+    {
+        BinaryEventRecorder recorder = new BinaryEventRecorder();
+        StreamParser streamParser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        streamParser.parse(new StringReader("Some *text*"), recorder);
+        byte[] events = recorder.toByteArray();
+
+        byte[] truncatedEvents = new byte[events.length - 3];
+        System.arraycopy(events, 0, truncatedEvents, 0, truncatedEvents.length);
+        BinaryEventReplayer.replay(truncatedEvents, createEventRenderer());
+    }
+
+    private String replay(byte[] events) throws Exception
+    {
+        PrintRenderer renderer = createEventRenderer();
+        BinaryEventReplayer.replay(events, renderer);
+        return renderer.getPrinter().toString();
+    }
+
+    private PrintRenderer createEventRenderer() throws Exception
+    {
+        PrintRendererFactory factory = this.mocker.getInstance(PrintRendererFactory.class, "event/1.0");
+        return factory.createRenderer(new DefaultWikiPrinter());
+    }
+
+    private String render(XDOM xdom) throws Exception
+    {
+        BlockRenderer renderer = this.mocker.getInstance(BlockRenderer.class, "event/1.0");
+        WikiPrinter printer = new DefaultWikiPrinter();
+        renderer.render(xdom, printer);
+        return printer.toString();
+    }
+}
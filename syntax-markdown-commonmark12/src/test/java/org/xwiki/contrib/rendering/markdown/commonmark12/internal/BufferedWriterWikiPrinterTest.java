@@ -0,0 +1,138 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer.BufferedWriterWikiPrinter;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the rendering of Markdown to a {@link BufferedWriterWikiPrinter}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class BufferedWriterWikiPrinterTest
+{
+    private static final int BUFFER_SIZE = 64;
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private Parser parser;
+
+    private PrintRendererFactory rendererFactory;
+
+    /**
+     * Records the size of the content written to it each time it's flushed, and the size of the biggest write.
+     */
+    private static final class RecordingWriter extends StringWriter
+    {
+        private final List<Integer> flushes = new ArrayList<>();
+
+        private int maxWrite;
+
+        @Override
+        public void write(char[] characters, int offset, int length)
+        {
+            this.maxWrite = Math.max(this.maxWrite, length);
+            super.write(characters, offset, length);
+        }
+
+        @Override
+        public void flush()
+        {
+            this.flushes.add(getBuffer().length());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.parser = this.mocker.getInstance(Parser.class, "markdown/1.2");
+        this.rendererFactory = this.mocker.getInstance(PrintRendererFactory.class, "markdown/1.2");
+    }
+
+    @Test
+    public void renderLikeDefaultPrinter() throws Exception
+    {
+        for (String input : MarkdownTestInputs.getTestInputs()) {
+            XDOM xdom = this.parser.parse(new StringReader(input));
+            RecordingWriter writer = new RecordingWriter();
+            render(xdom, new BufferedWriterWikiPrinter(writer, BUFFER_SIZE));
+
+            assertEquals(input, render(xdom, new DefaultWikiPrinter()), writer.toString());
+            assertTrue(writer.maxWrite <= BUFFER_SIZE);
+        }
+    }
+
+    @Test
+    public void renderProgressively() throws Exception
+    {
+        String content = StringUtils.repeat("# Title\n\nSome *emphasized* text.\n\n* item 1\n* item 2\n\n"
+            + "| a | b |\n|---|---|\n| 1 | 2 |\n\n", 100);
+        XDOM xdom = this.parser.parse(new StringReader(content));
+        RecordingWriter writer = new RecordingWriter();
+        render(xdom, new BufferedWriterWikiPrinter(writer, BUFFER_SIZE));
+
+        // The content is flushed between top-level blocks and at the end of the document.
+        assertTrue(writer.flushes.size() > 300);
+        assertEquals(writer.getBuffer().length(), (int) writer.flushes.get(writer.flushes.size() - 1));
+        assertEquals(render(xdom, new DefaultWikiPrinter()), writer.toString());
+    }
+
+    @Test
+    public void renderToStream() throws Exception
+    {
+        XDOM xdom = this.parser.parse(new StringReader("Some non ASCII characters: éèà 中文\n\n* item\n"));
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        render(xdom, new BufferedWriterWikiPrinter(stream, StandardCharsets.UTF_8));
+
+        assertEquals(render(xdom, new DefaultWikiPrinter()), new String(stream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private String render(XDOM xdom, WikiPrinter printer)
+    {
+        PrintRenderer renderer = this.rendererFactory.createRenderer(printer);
+        xdom.traverse(renderer);
+        return printer.toString();
+    }
+}
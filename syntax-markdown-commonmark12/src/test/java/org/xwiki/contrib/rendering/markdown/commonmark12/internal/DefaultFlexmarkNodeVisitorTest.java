@@ -0,0 +1,314 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.DefaultFlexmarkNodeVisitor;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.FlexmarkNodeVisitor;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.ResourceReferenceCache;
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.listener.WrappingListener;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceType;
+import org.xwiki.rendering.parser.ResourceReferenceParser;
+import org.xwiki.rendering.parser.StreamParser;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.vladsch.flexmark.ast.BlockQuote;
+import com.vladsch.flexmark.ast.Paragraph;
+import com.vladsch.flexmark.ast.Text;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DefaultFlexmarkNodeVisitor}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class DefaultFlexmarkNodeVisitorTest
+{
+    /**
+     * Deeper than what a recursive traversal supports with the default thread stack size (the Flexmark parser itself
+     * doesn't support such a depth, so the nodes are created directly).
+     */
+    private static final int DEPTH = 100000;
+
+    private static final int THREADS = 64;
+
+    private static final int PARSES_PER_THREAD = 50;
+
+    /**
+     * Contents using the state of the parse: heading ids, sections, quotes, lists, reference definitions and tables.
+     */
+    private static final List<String> CONTENTS = Arrays.asList(
+        "# Title\n\n> quote\n>\n> second *line*\n\n## Title\n\n* [link][doc]\n\n[doc]: http://xwiki.org\n",
+        "# Title\n\nSee [link][doc].\n\n| a | b |\n|---|---|\n| 1 | **2** |\n\n### Title\n\n1. item\n",
+        "> * item\n>   > # Title\n>   > nested *quote*\n\n# Title\n");
+
+    /**
+     * Number of paragraphs of the large document.
+     */
+    private static final int BLOCKS = 1000;
+
+    private static final String LAST_WORD = "last";
+
+    /**
+     * The content of a parse failing in the middle of nested nodes.
+     */
+    private static final String FAILURE = "# Title\n\n> * item\n>   > quote with failure\n";
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private FlexmarkNodeVisitor visitor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.visitor = this.mocker.getInstance(FlexmarkNodeVisitor.class);
+    }
+
+    @Test
+    public void visitDeeplyNestedQuotes() throws Exception
+    {
+        String result = visit(createNestedQuotes(new MutableDataSet()));
+
+        assertEquals(DEPTH, countQuotations(result, "begin"));
+        assertEquals(DEPTH, countQuotations(result, "end"));
+        assertTrue(result.contains("onWord [quote]"));
+    }
+
+    @Test
+    public void visitWithMaxNestingDepth() throws Exception
+    {
+        String result = visit(createNestedQuotes(new MutableDataSet().set(MarkdownOptions.MAX_NESTING_DEPTH, 3)));
+
+        // The document and the first 2 quotes, the content of the deeper nodes being kept.
+        assertEquals(2, countQuotations(result, "begin"));
+        assertEquals(2, countQuotations(result, "end"));
+        assertTrue(result.contains("onWord [quote]"));
+    }
+
+    @Test
+    public void visitConcurrently() throws Exception
+    {
+        StreamParser parser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        List<String> expected = new ArrayList<>();
+        for (String content : CONTENTS) {
+            expected.add(parse(parser, content));
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            int thread = i;
+            tasks.add(() -> {
+                for (int j = 0; j < PARSES_PER_THREAD; j++) {
+                    int index = (thread + j) % (CONTENTS.size() + 1);
+                    if (index < CONTENTS.size()) {
+                        assertEquals(expected.get(index), parse(parser, CONTENTS.get(index)));
+                    } else {
+                        parseWithFailure(parser);
+                    }
+                }
+                return null;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void visitWithParsersRegisteredLater() throws Exception
+    {
+        StreamParser parser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        String content = "[[label|Page]] ![[image.png]]";
+        parse(parser, content);
+
+        ResourceType customType = new ResourceType("custom");
+        ResourceReferenceParser linkParser = this.mocker.registerMockComponent(ResourceReferenceParser.class, "link");
+        when(linkParser.parse("Page")).thenReturn(new ResourceReference("link", customType));
+        ResourceReferenceParser imageParser =
+            this.mocker.registerMockComponent(ResourceReferenceParser.class, "image");
+        when(imageParser.parse("image.png")).thenReturn(new ResourceReference("image", customType));
+        // Done by ResourceReferenceCacheInvalidator when the parsers are registered.
+        this.mocker.<ResourceReferenceCache>getInstance(ResourceReferenceCache.class).clear();
+
+        // The visitor is a singleton but it looks up the reference parsers for each parse.
+        String result = parse(parser, content);
+        assertTrue(result.contains("beginLink [Typed = [true] Type = [custom] Reference = [link]]"));
+        assertTrue(result.contains("onImage [Typed = [true] Type = [custom] Reference = [image]]"));
+    }
+
+    @Test
+    public void visitReleasingVisitedNodes() throws Exception
+    {
+        Document document = createLargeDocument(new MutableDataSet());
+        Node firstParagraph = document.getFirstChild();
+        assertEquals(BLOCKS + 1, visitCountingChildren(document));
+        assertSame(document, firstParagraph.getParent());
+
+        // The visited paragraphs are unlinked from the document, and can thus be garbage collected, before the next
+        // ones are visited.
+        document = createLargeDocument(new MutableDataSet().set(MarkdownOptions.RELEASE_VISITED_NODES, true));
+        firstParagraph = document.getFirstChild();
+        assertEquals(1, visitCountingChildren(document));
+        assertNull(firstParagraph.getParent());
+        assertNull(firstParagraph.getNext());
+        assertFalse(document.hasChildren());
+    }
+
+    private void parseWithFailure(StreamParser parser) throws Exception
+    {
+        PrintRenderer renderer = createEventRenderer();
+        Listener listener = new WrappingListener()
+        {
+            @Override
+            public void onWord(String word)
+            {
+                if ("failure".equals(word)) {
+                    throw new IllegalStateException(word);
+                }
+                super.onWord(word);
+            }
+        };
+        ((WrappingListener) listener).setWrappedListener(renderer);
+        try {
+            parser.parse(new StringReader(FAILURE), listener);
+            fail();
+        } catch (IllegalStateException expected) {
+            // The state of the failed parse must not leak into the next parses.
+        }
+    }
+
+    private String parse(StreamParser parser, String content) throws Exception
+    {
+        PrintRenderer renderer = createEventRenderer();
+        parser.parse(new StringReader(content), renderer);
+        return renderer.getPrinter().toString();
+    }
+
+    private PrintRenderer createEventRenderer() throws Exception
+    {
+        PrintRendererFactory factory = this.mocker.getInstance(PrintRendererFactory.class, "event/1.0");
+        return factory.createRenderer(new DefaultWikiPrinter());
+    }
+
+    private Document createNestedQuotes(MutableDataSet options)
+    {
+        Document document = new Document(options, BasedSequence.NULL);
+        Node parent = document;
+        for (int i = 0; i < DEPTH; i++) {
+            Node quote = new BlockQuote();
+            parent.appendChild(quote);
+            parent = quote;
+        }
+        Node paragraph = new Paragraph();
+        paragraph.appendChild(new Text(BasedSequence.of("quote")));
+        parent.appendChild(paragraph);
+        return document;
+    }
+
+    private Document createLargeDocument(MutableDataSet options)
+    {
+        Document document = new Document(options, BasedSequence.NULL);
+        for (int i = 0; i < BLOCKS; i++) {
+            document.appendChild(createParagraph("paragraph" + i));
+        }
+        document.appendChild(createParagraph(LAST_WORD));
+        return document;
+    }
+
+    private Paragraph createParagraph(String text)
+    {
+        Paragraph paragraph = new Paragraph();
+        paragraph.appendChild(new Text(BasedSequence.of(text)));
+        return paragraph;
+    }
+
+    /**
+     * @return the number of children of the document when the last paragraph is visited
+     */
+    private int visitCountingChildren(Document document)
+    {
+        int[] childCount = new int[1];
+        Listener listener = new WrappingListener()
+        {
+            @Override
+            public void onWord(String word)
+            {
+                if (LAST_WORD.equals(word)) {
+                    for (Node child = document.getFirstChild(); child != null; child = child.getNext()) {
+                        childCount[0]++;
+                    }
+                }
+            }
+        };
+        this.visitor.visit(document, listener, CommonMark12SyntaxProvider.MARKDOWN_COMMON_1_2);
+        return childCount[0];
+    }
+
+    private int countQuotations(String events, String prefix)
+    {
+        return StringUtils.countMatches(events, prefix + "Quotation")
+            - StringUtils.countMatches(events, prefix + "QuotationLine");
+    }
+
+    private String visit(Document document) throws Exception
+    {
+        PrintRenderer renderer = createEventRenderer();
+        this.visitor.visit(document, renderer, CommonMark12SyntaxProvider.MARKDOWN_COMMON_1_2);
+        return renderer.getPrinter().toString();
+    }
+}
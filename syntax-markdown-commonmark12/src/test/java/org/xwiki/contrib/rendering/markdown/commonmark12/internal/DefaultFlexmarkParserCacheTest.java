@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.DefaultFlexmarkParserCache;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.FlexmarkParserCache;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link DefaultFlexmarkParserCache}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@ComponentList({
+    DefaultMarkdownConfiguration.class,
+    DefaultFlexmarkParserCache.class
+})
+public class DefaultFlexmarkParserCacheTest
+{
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    @Test
+    public void getParserReturnsSameInstanceForSameConfiguration() throws Exception
+    {
+        MarkdownConfiguration configuration = this.mocker.getInstance(MarkdownConfiguration.class);
+        FlexmarkParserCache cache = this.mocker.getInstance(FlexmarkParserCache.class);
+
+        Parser parser = cache.getParser(configuration.getSnapshot());
+        assertSame(parser, cache.getParser(configuration.getSnapshot()));
+        // A modifiable copy of the same options maps to the same parser.
+        assertSame(parser, cache.getParser(configuration.getOptions()));
+    }
+
+    @Test
+    public void getParserReturnsDifferentInstancesForDifferentConfigurations() throws Exception
+    {
+        FlexmarkParserCache cache = this.mocker.getInstance(FlexmarkParserCache.class);
+
+        Parser parser = cache.getParser(new MutableDataSet());
+        assertNotSame(parser, cache.getParser(new MutableDataSet()
+            .set(Parser.HTML_BLOCK_PARSER, false)));
+    }
+}
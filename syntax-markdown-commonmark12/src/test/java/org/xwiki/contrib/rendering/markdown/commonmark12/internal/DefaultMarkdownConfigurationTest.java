@@ -0,0 +1,86 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.vladsch.flexmark.ext.tables.TablesExtension;
+import com.vladsch.flexmark.ext.wikilink.WikiLinkExtension;
+import com.vladsch.flexmark.parser.Parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link DefaultMarkdownConfiguration} snapshots.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@ComponentList({
+    DefaultMarkdownConfiguration.class
+})
+public class DefaultMarkdownConfigurationTest
+{
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    @Test
+    public void getSnapshot() throws Exception
+    {
+        MarkdownConfiguration configuration = this.mocker.getInstance(MarkdownConfiguration.class);
+
+        MarkdownConfigurationSnapshot snapshot = configuration.getSnapshot();
+        assertSame(snapshot, configuration.getSnapshot());
+        assertEquals(1, snapshot.getVersion());
+        assertTrue(snapshot.hasExtension(TablesExtension.class));
+        assertSame(snapshot.getExtensions(), Parser.EXTENSIONS.get(snapshot.getOptions()));
+        assertEquals(8, snapshot.getExtensions().size());
+
+        // Modifying the returned options doesn't modify the configuration.
+        configuration.getOptions().set(WikiLinkExtension.IMAGE_LINKS, false);
+        assertTrue(WikiLinkExtension.IMAGE_LINKS.get(configuration.getSnapshot().getOptions()));
+    }
+
+    @Test
+    public void update() throws Exception
+    {
+        DefaultMarkdownConfiguration configuration = this.mocker.getInstance(MarkdownConfiguration.class);
+
+        MarkdownConfigurationSnapshot snapshot = configuration.getSnapshot();
+        MarkdownConfigurationSnapshot updated =
+            configuration.update(options -> options.set(WikiLinkExtension.IMAGE_LINKS, false));
+
+        assertSame(updated, configuration.getSnapshot());
+        assertEquals(2, updated.getVersion());
+        assertNotEquals(snapshot.getFingerprint(), updated.getFingerprint());
+        assertFalse(WikiLinkExtension.IMAGE_LINKS.get(updated.getOptions()));
+        // The previous snapshot is left untouched.
+        assertTrue(WikiLinkExtension.IMAGE_LINKS.get(snapshot.getOptions()));
+        // Extensions are not resolved again.
+        assertSame(snapshot.getExtensions().get(0), updated.getExtensions().get(0));
+    }
+}
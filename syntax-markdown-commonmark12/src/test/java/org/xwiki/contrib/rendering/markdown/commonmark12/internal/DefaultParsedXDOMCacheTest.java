@@ -0,0 +1,162 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.StringReader;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.DefaultParsedXDOMCache;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.ParsedXDOMCache;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.parser.ParseException;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link DefaultParsedXDOMCache}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class DefaultParsedXDOMCacheTest
+{
+    private static final String CONTENT = "# Title\n\nSome *emphasized* text.\n";
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private Parser parser;
+
+    private ParsedXDOMCache cache;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.parser = this.mocker.getInstance(Parser.class, "markdown/1.2");
+        this.cache = this.mocker.getInstance(ParsedXDOMCache.class);
+    }
+
+    @Test
+    public void parseReturnsClonesOfCachedXDOM() throws Exception
+    {
+        setCacheSize(1024 * 1024);
+
+        XDOM xdom = this.parser.parse(new StringReader(CONTENT));
+        assertEquals(0, this.cache.getHitCount());
+        assertEquals(1, this.cache.getMissCount());
+        assertTrue(this.cache.getRetainedSize() > 0);
+
+        // Modifying the returned XDOM must not modify the cached one.
+        xdom.addChild(new WordBlock("added"));
+
+        XDOM cachedXDOM = this.parser.parse(new StringReader(CONTENT));
+        assertEquals(1, this.cache.getHitCount());
+        assertNotSame(xdom, cachedXDOM);
+        assertEquals(xdom.getChildren().size() - 1, cachedXDOM.getChildren().size());
+
+        this.parser.parse(new StringReader(CONTENT + "More text.\n"));
+        assertEquals(2, this.cache.getMissCount());
+    }
+
+    @Test
+    public void parseEvictsLeastRecentlyUsedEntries() throws Exception
+    {
+        setCacheSize(1024 * 1024);
+        this.parser.parse(new StringReader(CONTENT));
+        long entrySize = this.cache.getRetainedSize();
+
+        // Only room for one entry.
+        setCacheSize(entrySize + entrySize / 2);
+        this.cache.clear();
+        this.parser.parse(new StringReader(CONTENT));
+        this.parser.parse(new StringReader(CONTENT.replace("Title", "Other")));
+        assertEquals(1, this.cache.getEvictionCount());
+
+        this.parser.parse(new StringReader(CONTENT));
+        assertEquals(0, this.cache.getHitCount());
+    }
+
+    @Test
+    public void putEvictsOnlyEntriesOfTheSameSyntax() throws Exception
+    {
+        setCacheSize(1024 * 1024);
+        XDOM xdom = this.parser.parse(new StringReader(CONTENT));
+        MarkdownConfigurationSnapshot largeCache = getConfiguration().getSnapshot();
+        long entrySize = this.cache.getRetainedSize();
+
+        // Another syntax configured with only room for one entry.
+        setCacheSize(entrySize + entrySize / 2);
+        MarkdownConfigurationSnapshot smallCache = getConfiguration().getSnapshot();
+        this.cache.put(CONTENT.replace("Title", "First"), Syntax.XWIKI_2_1, smallCache, xdom);
+        this.cache.put(CONTENT.replace("Title", "Second"), Syntax.XWIKI_2_1, smallCache, xdom);
+        assertEquals(1, this.cache.getEvictionCount());
+
+        assertNotNull(this.cache.get(CONTENT, this.parser.getSyntax(), largeCache));
+    }
+
+    @Test
+    public void getParsesMissingContentOnce() throws Exception
+    {
+        setCacheSize(1024 * 1024);
+        MarkdownConfigurationSnapshot configuration = getConfiguration().getSnapshot();
+        Syntax syntax = this.parser.getSyntax();
+        XDOM xdom = this.parser.parse(new StringReader(CONTENT));
+        this.cache.clear();
+
+        assertSame(xdom, this.cache.get(CONTENT, syntax, configuration, source -> xdom));
+        XDOM cachedXDOM = this.cache.get(CONTENT, syntax, configuration, source -> {
+            throw new ParseException("The cached content should not be parsed again");
+        });
+        assertNotSame(xdom, cachedXDOM);
+        assertEquals(xdom.getChildren().size(), cachedXDOM.getChildren().size());
+    }
+
+    @Test
+    public void parseWithoutCache() throws Exception
+    {
+        this.parser.parse(new StringReader(CONTENT));
+        this.parser.parse(new StringReader(CONTENT));
+
+        assertEquals(0, this.cache.getMissCount());
+        assertEquals(0, this.cache.getRetainedSize());
+    }
+
+    private void setCacheSize(long size) throws Exception
+    {
+        getConfiguration().update(options -> options.set(MarkdownOptions.XDOM_CACHE_SIZE, size));
+    }
+
+    private DefaultMarkdownConfiguration getConfiguration() throws Exception
+    {
+        return this.mocker.getInstance(MarkdownConfiguration.class);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.StringReader;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.DefaultResourceReferenceCache;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.ResourceReferenceCache;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.ResourceReferenceCacheInvalidator;
+import org.xwiki.observation.EventListener;
+import org.xwiki.rendering.listener.reference.DocumentResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceType;
+import org.xwiki.rendering.parser.ResourceReferenceParser;
+import org.xwiki.rendering.parser.ResourceReferenceTypeParser;
+import org.xwiki.rendering.parser.StreamParser;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.wiki.WikiModel;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DefaultResourceReferenceCache}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class DefaultResourceReferenceCacheTest
+{
+    private static final String LINK = "[[label|doc:Space.Page|anchor=\"anchor\"]]";
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    @BeforeComponent
+    public void registerComponents() throws Exception
+    {
+        // Make sure we're in Wiki Mode so that "doc:" references are not considered as URLs.
+        this.mocker.registerMockComponent(WikiModel.class);
+    }
+
+    @Test
+    public void parseRepeatedReferences() throws Exception
+    {
+        ResourceReferenceCache cache = this.mocker.getInstance(ResourceReferenceCache.class);
+        String content = StringUtils.repeat(LINK + " ![[attach:image.png]] ", 3);
+        String result = parse(content);
+
+        assertEquals(3, StringUtils.countMatches(result,
+            "beginLink [Typed = [true] Type = [doc] Reference = [Space.Page] Parameters = [[anchor] = [anchor]]]"));
+        assertEquals(3, StringUtils.countMatches(result, "onImage [Typed = [true] Type = [attach]"));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(4, cache.getHitCount());
+        assertEquals(result, parse(content));
+        assertEquals(10, cache.getHitCount());
+
+        // Invalidated when the parsers change.
+        EventListener invalidator =
+            this.mocker.getInstance(EventListener.class, ResourceReferenceCacheInvalidator.NAME);
+        invalidator.onEvent(new ComponentDescriptorAddedEvent(ResourceReferenceTypeParser.class, "custom"),
+            this.mocker, null);
+        assertEquals(result, parse(content));
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void getReturnsIndependentReferences() throws Exception
+    {
+        ResourceReferenceCache cache = this.mocker.getInstance(ResourceReferenceCache.class);
+        DocumentResourceReference reference = (DocumentResourceReference) cache.get("link", "Page",
+            DocumentResourceReference::new);
+        reference.setAnchor("modified");
+
+        ResourceReference cachedReference = cache.get("link", "Page", DocumentResourceReference::new);
+        assertNotSame(reference, cachedReference);
+        assertEquals(new DocumentResourceReference("Page"), cachedReference);
+        cachedReference.setParameter("other", "value");
+        assertEquals(new DocumentResourceReference("Page"), cache.get("link", "Page", DocumentResourceReference::new));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void getDoesNotCacheReferencesParsedWhileCleared() throws Exception
+    {
+        ResourceReferenceCache cache = this.mocker.getInstance(ResourceReferenceCache.class);
+        // The parsers change while the reference is parsed with the old ones.
+        cache.get("link", "Page", rawReference -> {
+            cache.clear();
+            return new DocumentResourceReference(rawReference);
+        });
+        cache.get("link", "Page", DocumentResourceReference::new);
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void parseWithParserRegisteredLater() throws Exception
+    {
+        String result = parse(LINK);
+        assertTrue(result.contains("Type = [doc] Reference = [Space.Page]"));
+
+        ResourceReferenceParser linkParser = this.mocker.registerMockComponent(ResourceReferenceParser.class, "link");
+        ResourceReference customReference = new ResourceReference("custom", new ResourceType("custom"));
+        when(linkParser.parse("doc:Space.Page")).thenReturn(customReference);
+        EventListener invalidator =
+            this.mocker.getInstance(EventListener.class, ResourceReferenceCacheInvalidator.NAME);
+        invalidator.onEvent(new ComponentDescriptorAddedEvent(ResourceReferenceParser.class, "link"), this.mocker,
+            null);
+
+        assertTrue(parse(LINK).contains("beginLink [Typed = [true] Type = [custom] Reference = [custom]"));
+    }
+
+    @Test
+    public void getDoesNotCacheUntypedReferences() throws Exception
+    {
+        ResourceReferenceCache cache = this.mocker.getInstance(ResourceReferenceCache.class);
+        Function<String, ResourceReference> parser = rawReference -> {
+            ResourceReference reference = new DocumentResourceReference(rawReference);
+            reference.setTyped(false);
+            return reference;
+        };
+        cache.get("link", "Page", parser);
+        cache.get("link", "Page", parser);
+
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    private String parse(String content) throws Exception
+    {
+        StreamParser parser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        PrintRendererFactory factory = this.mocker.getInstance(PrintRendererFactory.class, "event/1.0");
+        PrintRenderer renderer = factory.createRenderer(new DefaultWikiPrinter());
+        parser.parse(new StringReader(content), renderer);
+        return renderer.getPrinter().toString();
+    }
+}
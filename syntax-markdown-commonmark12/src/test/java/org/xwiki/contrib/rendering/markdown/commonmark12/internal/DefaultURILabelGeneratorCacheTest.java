@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.StringReader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.DefaultURILabelGeneratorCache;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.URILabelGeneratorCache;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.URILabelGeneratorCacheInvalidator;
+import org.xwiki.observation.EventListener;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceType;
+import org.xwiki.rendering.parser.StreamParser;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.reference.link.URILabelGenerator;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DefaultURILabelGeneratorCache}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class DefaultURILabelGeneratorCacheTest
+{
+    private static final String SCHEME = ResourceType.URL.getScheme();
+
+    private static final String IMAGE = "![image label](http://xwiki.org/image.png)";
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    @Test
+    public void getLabelGeneratorIsInvalidatedWhenGeneratorsChange() throws Exception
+    {
+        URILabelGeneratorCache cache = this.mocker.getInstance(URILabelGeneratorCache.class);
+        assertNull(cache.getLabelGenerator(SCHEME));
+        assertTrue(parse(IMAGE).contains("[[alt]=[image label]]"));
+
+        URILabelGenerator labelGenerator = mock(URILabelGenerator.class);
+        when(labelGenerator.generateLabel(any(ResourceReference.class))).thenReturn("image label");
+        this.mocker.registerComponent(URILabelGenerator.class, SCHEME, labelGenerator);
+        // The missing generator is cached until the cache is invalidated.
+        assertNull(cache.getLabelGenerator(SCHEME));
+
+        EventListener invalidator =
+            this.mocker.getInstance(EventListener.class, URILabelGeneratorCacheInvalidator.NAME);
+        invalidator.onEvent(new ComponentDescriptorAddedEvent(URILabelGenerator.class, SCHEME), this.mocker, null);
+        assertSame(labelGenerator, cache.getLabelGenerator(SCHEME));
+        // The alt text is the label that would be generated anyway.
+        assertFalse(parse(IMAGE).contains("[alt]"));
+    }
+
+    private String parse(String content) throws Exception
+    {
+        StreamParser parser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        PrintRendererFactory factory = this.mocker.getInstance(PrintRendererFactory.class, "event/1.0");
+        PrintRenderer renderer = factory.createRenderer(new DefaultWikiPrinter());
+        parser.parse(new StringReader(content), renderer);
+        return renderer.getPrinter().toString();
+    }
+}
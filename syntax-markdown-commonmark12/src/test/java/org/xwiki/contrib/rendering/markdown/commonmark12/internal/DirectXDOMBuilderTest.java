@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.parser.StreamParser;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that the XDOM built directly from the Flexmark nodes is the same as the one generated from the events.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class DirectXDOMBuilderTest
+{
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    @Test
+    public void buildTestInputs() throws Exception
+    {
+        List<String> inputs = MarkdownTestInputs.getTestInputs();
+        inputs.add("# Title\n\nSome *emphasized*, **strong**, ~~deleted~~ and `code` text.  \nNext line\n"
+            + "soft break\n\n## Sub title\n\n1. item\n\n   second paragraph\n\n       indented code\n"
+            + "2. ^sup^ ~sub~\n\n---\n\n# Title\n\n### Deep title\n\n```java\ncode\n```\n\n#### *Formatted* title\n");
+        assertTrue(inputs.size() > 50);
+
+        Parser parser = this.mocker.getInstance(Parser.class, "markdown/1.2");
+        StreamParser streamParser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        for (String input : inputs) {
+            assertEquals(input, streamParse(streamParser, input), render(parser.parse(new StringReader(input))));
+        }
+    }
+
+    private String streamParse(StreamParser streamParser, String input) throws Exception
+    {
+        PrintRendererFactory factory = this.mocker.getInstance(PrintRendererFactory.class, "event/1.0");
+        PrintRenderer renderer = factory.createRenderer(new DefaultWikiPrinter());
+        streamParser.parse(new StringReader(input), renderer);
+        return renderer.getPrinter().toString();
+    }
+
+    private String render(XDOM xdom) throws Exception
+    {
+        BlockRenderer renderer = this.mocker.getInstance(BlockRenderer.class, "event/1.0");
+        WikiPrinter printer = new DefaultWikiPrinter();
+        renderer.render(xdom, printer);
+        return printer.toString();
+    }
+}
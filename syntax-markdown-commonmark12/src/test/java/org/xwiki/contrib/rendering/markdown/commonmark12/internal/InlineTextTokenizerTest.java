@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.InlineTextTokenizer;
+import org.xwiki.rendering.listener.InlineFilterListener;
+import org.xwiki.rendering.parser.StreamParser;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link InlineTextTokenizer}, comparing its events with the ones of the {@code plain/1.0} parser.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class InlineTextTokenizerTest
+{
+    private static final String CHARACTERS = "ab Z9\\\n\r\té  !\"#$%&'()*+,-./:;<=>?@[]^_`{|}~";
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private StreamParser plainTextStreamParser;
+
+    private PrintRendererFactory eventRendererFactory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.plainTextStreamParser = this.mocker.getInstance(StreamParser.class, "plain/1.0");
+        this.eventRendererFactory = this.mocker.getInstance(PrintRendererFactory.class, "event/1.0");
+    }
+
+    @Test
+    public void tokenizeGeneratesSameEventsAsPlainTextParser() throws Exception
+    {
+        assertSameEvents("");
+        assertSameEvents("word");
+        assertSameEvents("two  words, then: symbols!");
+        assertSameEvents("line\nbreak\r\nand a\rcarriage return\r");
+        assertSameEvents("back\\slash and non ASCII été — 😀");
+        assertSameEvents(CHARACTERS);
+    }
+
+    @Test
+    public void tokenizeRandomText() throws Exception
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(50);
+            for (int j = 0; j < length; j++) {
+                text.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+            }
+            assertSameEvents(text.toString());
+        }
+    }
+
+    private void assertSameEvents(String text) throws Exception
+    {
+        DefaultWikiPrinter expected = new DefaultWikiPrinter();
+        InlineFilterListener inlineListener = new InlineFilterListener();
+        inlineListener.setWrappedListener(this.eventRendererFactory.createRenderer(expected));
+        this.plainTextStreamParser.parse(new StringReader(text), inlineListener);
+
+        DefaultWikiPrinter actual = new DefaultWikiPrinter();
+        PrintRenderer renderer = this.eventRendererFactory.createRenderer(actual);
+        InlineTextTokenizer.tokenize(BasedSequence.of(text), renderer);
+
+        assertEquals(text, expected.toString(), actual.toString());
+    }
+}
@@ -70,6 +70,7 @@ public class Markdown12ConfigurationTest
         // Simulate an empty configuration
         MarkdownConfiguration configuration = this.mocker.registerMockComponent(MarkdownConfiguration.class);
         when(configuration.getOptions()).thenReturn(new MutableDataSet());
+        when(configuration.getSnapshot()).thenReturn(new MarkdownConfigurationSnapshot(new MutableDataSet(), 1));
     }
 
     @Test
@@ -24,6 +24,11 @@ import java.io.StringReader;
 import org.junit.Rule;
 import org.junit.Test;
 import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.DefaultFlexmarkNodeVisitor;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.DefaultFlexmarkParserCache;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.DefaultParsedXDOMCache;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.DefaultParsingExecutor;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.DefaultResourceReferenceCache;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.DefaultURILabelGeneratorCache;
 import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.Markdown12Parser;
 import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.Markdown12StreamParser;
 import org.xwiki.rendering.block.Block;
@@ -38,7 +43,10 @@ import org.xwiki.test.annotation.BeforeComponent;
 import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.mockito.MockitoComponentManagerRule;
 
+import com.vladsch.flexmark.util.data.MutableDataSet;
+
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.when;
 
 /**
  * Verify that 2 spaces at end of line are transformed into a new line when the newline separator is either
@@ -51,6 +59,11 @@ import static org.junit.Assert.assertEquals;
     Markdown12Parser.class,
     Markdown12StreamParser.class,
     DefaultFlexmarkNodeVisitor.class,
+    DefaultFlexmarkParserCache.class,
+    DefaultParsedXDOMCache.class,
+    DefaultParsingExecutor.class,
+    DefaultResourceReferenceCache.class,
+    DefaultURILabelGeneratorCache.class,
     PlainTextStreamParser.class,
     PlainTextRendererFactory.class
 })
@@ -63,7 +76,8 @@ public class Markdown12SpaceIntoNewlineTest
     public void setUpComponents() throws Exception
     {
         // Not needed for the test so we just mock them
-        this.mocker.registerMockComponent(MarkdownConfiguration.class);
+        MarkdownConfiguration configuration = this.mocker.registerMockComponent(MarkdownConfiguration.class);
+        when(configuration.getSnapshot()).thenReturn(new MarkdownConfigurationSnapshot(new MutableDataSet(), 1));
         this.mocker.registerMockComponent(ResourceReferenceParser.class, "image");
         this.mocker.registerMockComponent(ResourceReferenceParser.class, "link");
     }
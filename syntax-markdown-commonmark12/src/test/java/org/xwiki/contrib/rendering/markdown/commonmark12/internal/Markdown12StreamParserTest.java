@@ -0,0 +1,218 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.AbstractMarkdownStreamParser;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.DefaultParsingExecutor;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.ParsingExecutor;
+import org.xwiki.rendering.parser.StreamParser;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the entry points of the Markdown 1.2 stream parser.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class Markdown12StreamParserTest
+{
+    private static final String CONTENT = "# Title\n\nSome *emphasized* text with a [link](http://xwiki.org) and "
+        + "non ASCII characters: éèà 中文.\n\n* item 1\n* item 2\n";
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parseFile() throws Exception
+    {
+        File file = this.folder.newFile("test.md");
+        Files.write(file.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+
+        AbstractMarkdownStreamParser parser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        PrintRenderer renderer = createEventRenderer();
+        parser.parse(file.toPath(), StandardCharsets.UTF_8, renderer);
+
+        String result = renderer.getPrinter().toString();
+        // The event renderer escapes non ASCII characters with their code point.
+        assertTrue(result.contains("onWord [(((20013)))(((25991)))]"));
+        assertEquals(parseReader(parser), result);
+    }
+
+    @Test
+    public void parseReaderWithoutLengthHint() throws Exception
+    {
+        // Make the content bigger than the initial read buffer so that it has to grow.
+        String content = StringUtils.repeat(CONTENT + '\n', 200);
+
+        StreamParser parser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        PrintRenderer renderer = createEventRenderer();
+        parser.parse(new BufferedReader(new StringReader(content)), renderer);
+
+        assertEquals(parseReader(parser, content), renderer.getPrinter().toString());
+    }
+
+    @Test
+    public void parseInParallel() throws Exception
+    {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            content.append("# Title\n\nSee [the doc][doc] about HTML.\n\n* item 1\n\n* item 2\n\n```\ncode\n\n")
+                .append("# not a title\n```\n\n> quote\n\n## Sub title ").append(i % 10).append("\n\n");
+        }
+        content.append("[doc]: http://xwiki.org\n\n*[HTML]: Hyper Text Markup Language\n");
+
+        StreamParser parser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        String expected = parseReader(parser, content.toString());
+
+        DefaultMarkdownConfiguration configuration = this.mocker.getInstance(MarkdownConfiguration.class);
+        configuration.update(options -> options.set(MarkdownOptions.PARALLEL_PARSING_THRESHOLD, 1));
+
+        assertEquals(expected, parseReader(parser, content.toString()));
+    }
+
+    @Test
+    public void parseInParallelOnDedicatedThreads() throws Exception
+    {
+        DefaultParsingExecutor defaultExecutor = new DefaultParsingExecutor();
+        List<String> threadNames = Collections.synchronizedList(new ArrayList<>());
+        ParsingExecutor executor = this.mocker.registerMockComponent(ParsingExecutor.class);
+        when(executor.getParallelism()).thenReturn(2);
+        when(executor.submit(any())).thenAnswer(invocation -> {
+            Callable<?> task = invocation.getArgument(0);
+            return defaultExecutor.submit(() -> {
+                threadNames.add(Thread.currentThread().getName());
+                return task.call();
+            });
+        });
+
+        StreamParser parser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        DefaultMarkdownConfiguration configuration = this.mocker.getInstance(MarkdownConfiguration.class);
+        configuration.update(options -> options.set(MarkdownOptions.PARALLEL_PARSING_THRESHOLD, 1));
+        parseReader(parser, StringUtils.repeat("# Title\n\nSome text.\n\n", 10000));
+        defaultExecutor.dispose();
+
+        assertTrue(threadNames.size() > 1);
+        for (String threadName : threadNames) {
+            assertTrue(threadName, threadName.startsWith("Markdown parsing "));
+        }
+    }
+
+    @Test
+    public void parseStreaming() throws Exception
+    {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            content.append("# Title\n\nSee [the doc][doc] about HTML and [the other doc][other].\n\n```\ncode\n\n")
+                .append("[doc]: not a definition\n```\n\nterm\n: definition\n\nother term\n: definition\n\n")
+                .append("> quote\n\n## Sub title ").append(i % 10).append("\n\n");
+        }
+        content.append("[doc]: http://xwiki.org\n[other]: http://xwiki.org/other\n\n")
+            .append("*[HTML]: Hyper Text Markup Language\n\n```\nunterminated\n\ncode");
+
+        List<String> inputs = MarkdownTestInputs.getTestInputs();
+        inputs.add(content.toString());
+        // Definitions that are not collected beforehand, defined twice, or inside a list item.
+        inputs.add("# Title\n[doc]: http://xwiki.org\n\n[doc]\n\nSome text\n\n[doc]: http://xwiki.org/other\n");
+        inputs.add("[doc]\n\n[doc]: http://xwiki.org\n\nSome text\n\n[doc]: http://xwiki.org/other\n");
+        inputs.add("[doc]\n\nSome text\n\n* [doc]: http://xwiki.org\n");
+
+        StreamParser parser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        List<String> expected = new ArrayList<>();
+        for (String input : inputs) {
+            expected.add(parseReader(parser, input));
+        }
+
+        DefaultMarkdownConfiguration configuration = this.mocker.getInstance(MarkdownConfiguration.class);
+        configuration.update(options -> options.set(MarkdownOptions.STREAMING_CHUNK_SIZE, 1));
+
+        for (int i = 0; i < inputs.size(); i++) {
+            assertEquals(inputs.get(i), expected.get(i), parseReader(parser, inputs.get(i)));
+        }
+    }
+
+    @Test
+    public void parseWithoutHeadingIds() throws Exception
+    {
+        StreamParser parser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        String content = "# Simple *title*\n\n## Title with a [link](http://xwiki.org)\n";
+        String result = parseReader(parser, content);
+        assertTrue(result.contains("beginHeader [1, HSimpletitle]"));
+        assertTrue(result.contains("beginHeader [2, HTitlewithalink]"));
+
+        DefaultMarkdownConfiguration configuration = this.mocker.getInstance(MarkdownConfiguration.class);
+        configuration.update(options -> options.set(MarkdownOptions.HEADING_IDS, false));
+
+        result = parseReader(parser, content);
+        assertTrue(result.contains("beginHeader [1, null]"));
+        assertTrue(result.contains("beginHeader [2, null]"));
+
+        // Renderers must support headings without identifier.
+        PrintRendererFactory xhtmlRendererFactory = this.mocker.getInstance(PrintRendererFactory.class, "xhtml/1.0");
+        PrintRenderer xhtmlRenderer = xhtmlRendererFactory.createRenderer(new DefaultWikiPrinter());
+        parser.parse(new StringReader(content), xhtmlRenderer);
+        assertFalse(xhtmlRenderer.getPrinter().toString().contains(" id="));
+    }
+
+    private String parseReader(StreamParser parser) throws Exception
+    {
+        return parseReader(parser, CONTENT);
+    }
+
+    private String parseReader(StreamParser parser, String content) throws Exception
+    {
+        PrintRenderer renderer = createEventRenderer();
+        parser.parse(new StringReader(content), renderer);
+        return renderer.getPrinter().toString();
+    }
+
+    private PrintRenderer createEventRenderer() throws Exception
+    {
+        PrintRendererFactory factory = this.mocker.getInstance(PrintRendererFactory.class, "event/1.0");
+        return factory.createRenderer(new DefaultWikiPrinter());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.StringReader;
+import java.time.Duration;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.AbstractMarkdownStreamParser;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer.AbstractMarkdownBlockRenderer;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer.AbstractMarkdownRenderer;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.parser.StreamParser;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies that parses and renders are aborted through their {@link MarkdownCancellationToken}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class MarkdownCancellationTest
+{
+    /**
+     * Content that takes the Flexmark parser minutes to parse, because of the unbalanced image and link brackets.
+     */
+    private static final String PATHOLOGICAL_CONTENT = StringUtils.repeat("a ![[b](c) ", 50000);
+
+    private static final String CONTENT = StringUtils.repeat("# Title\n\nSome *emphasized* text with a "
+        + "[link](http://xwiki.org).\n\n* item 1\n* item 2\n\n| a | b |\n|---|---|\n| 1 | 2 |\n\n", 1000);
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private AbstractMarkdownStreamParser streamParser;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.streamParser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+    }
+
+    @Test
+    public void parseWithDeadline() throws Exception
+    {
+        // The parse would take minutes if it wasn't aborted.
+        MarkdownCancellationToken token = new MarkdownCancellationToken(Duration.ofMillis(50));
+        try {
+            this.streamParser.parse(new StringReader(PATHOLOGICAL_CONTENT), createEventRenderer(), token);
+            fail("The parse should have been aborted");
+        } catch (MarkdownCancelledException expected) {
+            assertTrue(token.isCancelled());
+        }
+    }
+
+    @Test
+    public void parseWithDeadlineInParallel() throws Exception
+    {
+        DefaultMarkdownConfiguration configuration = this.mocker.getInstance(MarkdownConfiguration.class);
+        configuration.update(options -> options.set(MarkdownOptions.PARALLEL_PARSING_THRESHOLD, 1));
+
+        MarkdownCancellationToken token = new MarkdownCancellationToken(Duration.ofMillis(50));
+        try {
+            this.streamParser.parse(new StringReader(PATHOLOGICAL_CONTENT + "\n\n" + CONTENT), createEventRenderer(),
+                token);
+            fail("The parse should have been aborted");
+        } catch (MarkdownCancelledException expected) {
+            assertTrue(token.isCancelled());
+        }
+    }
+
+    @Test
+    public void parseCancelled() throws Exception
+    {
+        MarkdownCancellationToken token = new MarkdownCancellationToken();
+        token.cancel();
+        PrintRenderer renderer = createEventRenderer();
+        try {
+            this.streamParser.parse(new StringReader(CONTENT), renderer, token);
+            fail("The parse should have been aborted");
+        } catch (MarkdownCancelledException expected) {
+            assertEquals("", renderer.getPrinter().toString());
+        }
+    }
+
+    @Test
+    public void parseWithoutCancellation() throws Exception
+    {
+        PrintRenderer expected = createEventRenderer();
+        this.streamParser.parse(new StringReader(CONTENT), expected);
+
+        PrintRenderer renderer = createEventRenderer();
+        this.streamParser.parse(new StringReader(CONTENT), renderer, new MarkdownCancellationToken(Duration.ofDays(1)));
+
+        assertEquals(expected.getPrinter().toString(), renderer.getPrinter().toString());
+
+        // Without token the parse cannot be cancelled.
+        renderer = createEventRenderer();
+        this.streamParser.parse(new StringReader(CONTENT), renderer, null);
+
+        assertEquals(expected.getPrinter().toString(), renderer.getPrinter().toString());
+    }
+
+    @Test
+    public void renderCancelled() throws Exception
+    {
+        Parser parser = this.mocker.getInstance(Parser.class, "markdown/1.2");
+        XDOM xdom = parser.parse(new StringReader(CONTENT));
+
+        PrintRendererFactory factory = this.mocker.getInstance(PrintRendererFactory.class, "markdown/1.2");
+        AbstractMarkdownRenderer renderer = (AbstractMarkdownRenderer) factory.createRenderer(new DefaultWikiPrinter());
+        xdom.traverse(renderer);
+        String expected = renderer.getPrinter().toString();
+
+        renderer = (AbstractMarkdownRenderer) factory.createRenderer(new DefaultWikiPrinter());
+        renderer.setCancellationToken(new MarkdownCancellationToken(Duration.ofDays(1)));
+        xdom.traverse(renderer);
+        assertEquals(expected, renderer.getPrinter().toString());
+
+        MarkdownCancellationToken token = new MarkdownCancellationToken();
+        token.cancel();
+        renderer = (AbstractMarkdownRenderer) factory.createRenderer(new DefaultWikiPrinter());
+        renderer.setCancellationToken(token);
+        try {
+            xdom.traverse(renderer);
+            fail("The rendering should have been aborted");
+        } catch (MarkdownCancelledException e) {
+            // The token is only checked every CHECK_INTERVAL printed pieces of Markdown.
+            assertTrue(renderer.getPrinter().toString().length() < expected.length());
+        }
+    }
+
+    @Test
+    public void renderCancelledWhileMeasuringTables() throws Exception
+    {
+        DefaultMarkdownConfiguration configuration = this.mocker.getInstance(MarkdownConfiguration.class);
+        configuration.update(
+            options -> options.set(MarkdownOptions.TABLE_RENDERING, MarkdownOptions.TableRendering.TWO_PASS));
+
+        Parser parser = this.mocker.getInstance(Parser.class, "markdown/1.2");
+        XDOM xdom = parser.parse(new StringReader(CONTENT));
+
+        AbstractMarkdownBlockRenderer renderer = this.mocker.getInstance(BlockRenderer.class, "markdown/1.2");
+        MarkdownCancellationToken token = new MarkdownCancellationToken();
+        token.cancel();
+        DefaultWikiPrinter printer = new DefaultWikiPrinter();
+        try {
+            renderer.render(xdom.getChildren(), printer, token);
+            fail("The rendering should have been aborted");
+        } catch (MarkdownCancelledException e) {
+            // Aborted by the measuring pass, before printing anything.
+            assertEquals("", printer.toString());
+        }
+    }
+
+    private PrintRenderer createEventRenderer() throws Exception
+    {
+        PrintRendererFactory factory = this.mocker.getInstance(PrintRendererFactory.class, "event/1.0");
+        return factory.createRenderer(new DefaultWikiPrinter());
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer.MarkdownEscapeHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link MarkdownEscapeHandler}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public class MarkdownEscapeHandlerTest
+{
+    private static final Pattern LIST_PATTERN = Pattern.compile(
+        "\\p{Blank}*((\\*)|(\\-)|(\\+)|(\\p{Digit}\\.))\\p{Blank}+");
+
+    private static final Pattern QUOTE_PATTERN = Pattern.compile("(\\>+)");
+
+    private static final Pattern HEADER_PATTERN = Pattern.compile("\\p{Blank}*((=+)|(-+))");
+
+    private static final Pattern RESERVED_CHARS_PATTERN = Pattern.compile(
+        "(?<!\\\\)\\*|(?<!\\\\)\\*\\*|(?<!\\\\)__|(?<!\\\\)_|(?<!\\\\)`");
+
+    private final MarkdownEscapeHandler escapeHandler = new MarkdownEscapeHandler();
+
+    @Test
+    public void escapeLikeRegularExpressions() throws Exception
+    {
+        List<String> texts = new ArrayList<>();
+        for (String input : MarkdownTestInputs.getTestInputs()) {
+            texts.add(input);
+            for (String line : input.split("\n")) {
+                texts.add(line);
+                texts.add(line.trim());
+            }
+        }
+        texts.add("  - item with a \\ backslash");
+        texts.add("\t1. item with an escaped \\*");
+        texts.add("--- with an __underline");
+        texts.add(">> quote");
+
+        int compared = 0;
+        for (String text : texts) {
+            for (boolean atLineStart : new boolean[] { true, false }) {
+                String expected = escapeWithRegularExpressions(text, atLineStart);
+                if (expected != null) {
+                    assertEquals(text, expected, this.escapeHandler.escape(text, atLineStart).toString());
+                    compared++;
+                }
+            }
+        }
+        assertTrue(compared > 100);
+    }
+
+    @Test
+    public void escapeReservedCharacters()
+    {
+        assertEquals("a\\*b\\_c\\`d", escape("a*b_c`d"));
+        assertEquals("\\*\\*bold\\*\\* \\_\\_init\\_\\_", escape("**bold** __init__"));
+        assertEquals("already \\\\* escaped \\\\\\\\_", escape("already \\* escaped \\\\_"));
+    }
+
+    @Test
+    public void escapeLineStart()
+    {
+        assertEquals("\\* item", escape("* item"));
+        assertEquals("  \\1. item", escape("  1. item"));
+        assertEquals("12. not an item", escape("12. not an item"));
+        assertEquals("\\=== header", escape("=== header"));
+        assertEquals(" \\-header", escape(" -header"));
+        assertEquals("\\>> quote", escape(">> quote"));
+        assertEquals(" > not a quote", escape(" > not a quote"));
+        assertEquals("\\*not an item", escape("*not an item"));
+        assertEquals("- text", this.escapeHandler.escape("- text", false).toString());
+    }
+
+    @Test
+    public void escapeLargeParagraph()
+    {
+        // The regular expression based escaping shifted the whole text for each escaped character.
+        String text = StringUtils.repeat("some *emphasized* and __strong__ text with a \\ backslash. ", 20000);
+        assertTrue(text.length() > 1000000);
+
+        // 2 asterisks, 4 underscores and a backslash escaped in each sentence.
+        assertEquals(
+            StringUtils.repeat("some \\*emphasized\\* and \\_\\_strong\\_\\_ text with a \\\\ backslash. ", 20000),
+            this.escapeHandler.escape(text, true).toString());
+    }
+
+    private String escape(String text)
+    {
+        return this.escapeHandler.escape(text, true).toString();
+    }
+
+    /**
+     * The escaping made with regular expressions before the single pass escaping, which fails on a single reserved
+     * character and misplaces the escapes following the first one.
+     *
+     * @return the escaped text, or {@code null} if the text cannot be escaped that way
+     */
+    private String escapeWithRegularExpressions(String text, boolean atLineStart)
+    {
+        StringBuffer accumulatedBuffer = new StringBuffer(text);
+        String escape = MarkdownEscapeHandler.ESCAPE_CHAR;
+        int pos = -2;
+        while ((pos + 2 < accumulatedBuffer.length())
+            && ((pos = accumulatedBuffer.indexOf(escape, pos + 2)) != -1)) {
+            accumulatedBuffer.replace(pos, pos + 1, escape + escape);
+        }
+
+        if (atLineStart) {
+            escapeFirstMatchedCharacter(LIST_PATTERN, accumulatedBuffer);
+            escapeFirstMatchedCharacter(HEADER_PATTERN, accumulatedBuffer);
+            escapeFirstMatchedCharacter(QUOTE_PATTERN, accumulatedBuffer);
+        }
+
+        Matcher matcher = RESERVED_CHARS_PATTERN.matcher(accumulatedBuffer.toString());
+        int count = 0;
+        for (int i = 0; matcher.find(); i = i + matcher.end() - matcher.start() + 1) {
+            if (matcher.group().length() < 2 || ++count > 1) {
+                return null;
+            }
+            accumulatedBuffer.replace(matcher.start() + i, matcher.end() + i, escape + matcher.group().charAt(0)
+                + escape + matcher.group().charAt(1));
+        }
+        return accumulatedBuffer.toString();
+    }
+
+    private void escapeFirstMatchedCharacter(Pattern pattern, StringBuffer accumulatedBuffer)
+    {
+        Matcher matcher = pattern.matcher(accumulatedBuffer);
+        if (matcher.lookingAt()) {
+            accumulatedBuffer.replace(matcher.start(1), matcher.start(1) + 1,
+                MarkdownEscapeHandler.ESCAPE_CHAR + matcher.group(1).charAt(0));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.StringReader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.MarkdownLimits;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.MetaDataBlock;
+import org.xwiki.rendering.block.VerbatimBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.parser.StreamParser;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.vladsch.flexmark.util.data.DataKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the degradation of content reaching the parsing limits.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class MarkdownLimitsTest
+{
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private StreamParser streamParser;
+
+    private Parser parser;
+
+    private DefaultMarkdownConfiguration configuration;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.streamParser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        this.parser = this.mocker.getInstance(Parser.class, "markdown/1.2");
+        this.configuration = this.mocker.getInstance(MarkdownConfiguration.class);
+    }
+
+    @Test
+    public void parseWithoutLimits() throws Exception
+    {
+        String result = parse("# Title\n\n> > > quote\n\n| a | b |\n|---|---|\n| 1 | 2 |\n");
+        assertFalse(result.contains(MarkdownLimits.LIMIT_METADATA));
+    }
+
+    @Test
+    public void parseWithMaxInputLength() throws Exception
+    {
+        String content = "First paragraph\n\nSecond *paragraph*\n";
+        setLimit(MarkdownOptions.MAX_INPUT_LENGTH, 20);
+
+        String result = parse(content);
+        assertTrue(result.contains("onWord [First]"));
+        assertFalse(result.contains("onWord [Second]"));
+        assertTrue(result.contains("onVerbatim [Second *paragraph*\n]"));
+
+        assertLimitedContent(MarkdownOptions.MAX_INPUT_LENGTH, "Second *paragraph*\n", content);
+    }
+
+    @Test
+    public void parseWithMaxNodes() throws Exception
+    {
+        String content = "First paragraph\n\n* item 1\n* item *2*\n\nLast paragraph\n\n[doc]: http://xwiki.org\n";
+        // The document, the first paragraph and its text, the list, the first item and its text.
+        setLimit(MarkdownOptions.MAX_NODES, 6);
+
+        String result = parse(content);
+        assertTrue(result.contains("onWord [1]"));
+        assertFalse(result.contains("onWord [2]"));
+        // The events stay balanced.
+        assertEquals(StringUtils.countMatches(result, "beginList"), StringUtils.countMatches(result, "endList"));
+        assertTrue(result.contains("onVerbatim [* item *2*\n\nLast paragraph\n]"));
+
+        assertLimitedContent(MarkdownOptions.MAX_NODES, "* item *2*\n\nLast paragraph\n", content);
+    }
+
+    @Test
+    public void parseWithMaxTableCells() throws Exception
+    {
+        String table = "| a | b |\n|---|---|\n| 1 | 2 |\n";
+        String content = "| a |\n|---|\n| 1 |\n\n" + table;
+        setLimit(MarkdownOptions.MAX_TABLE_CELLS, 2);
+
+        String result = parse(content);
+        assertEquals(1, StringUtils.countMatches(result, "beginTable\n"));
+        assertTrue(result.contains("onVerbatim [" + table + "]"));
+
+        assertLimitedContent(MarkdownOptions.MAX_TABLE_CELLS, table, content);
+    }
+
+    @Test
+    public void parseWithMaxNestingDepth() throws Exception
+    {
+        setLimit(MarkdownOptions.MAX_NESTING_DEPTH, 3);
+
+        String result = parse("> > > > deep quote\n");
+        assertEquals(1, StringUtils.countMatches(result, "beginMetaData"));
+        assertTrue(result.contains("onWord [deep]"));
+
+        // Renderers support the metadata generated inside other blocks.
+        PrintRendererFactory factory = this.mocker.getInstance(PrintRendererFactory.class, "xhtml/1.0");
+        PrintRenderer renderer = factory.createRenderer(new DefaultWikiPrinter());
+        this.streamParser.parse(new StringReader("* > > item\n"), renderer);
+        assertTrue(renderer.getPrinter().toString().contains("item"));
+    }
+
+    private void setLimit(DataKey<Integer> limit, int value)
+    {
+        this.configuration.update(options -> options.set(limit, value));
+    }
+
+    private void assertLimitedContent(DataKey<Integer> limit, String expectedContent, String content) throws Exception
+    {
+        XDOM xdom = this.parser.parse(new StringReader(content));
+        MetaDataBlock metaDataBlock = xdom.<MetaDataBlock>getBlocks(new ClassBlockMatcher(MetaDataBlock.class),
+            Block.Axes.DESCENDANT).stream().filter(block -> block.getMetaData().contains(MarkdownLimits.LIMIT_METADATA))
+            .findFirst().get();
+        assertEquals(limit.getName(), metaDataBlock.getMetaData().getMetaData(MarkdownLimits.LIMIT_METADATA));
+        assertEquals(expectedContent, ((VerbatimBlock) metaDataBlock.getChildren().get(0)).getProtectedString());
+    }
+
+    private String parse(String content) throws Exception
+    {
+        PrintRendererFactory factory = this.mocker.getInstance(PrintRendererFactory.class, "event/1.0");
+        PrintRenderer renderer = factory.createRenderer(new DefaultWikiPrinter());
+        this.streamParser.parse(new StringReader(content), renderer);
+        return renderer.getPrinter().toString();
+    }
+}
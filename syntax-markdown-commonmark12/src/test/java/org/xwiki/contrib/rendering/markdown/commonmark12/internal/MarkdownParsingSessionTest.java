@@ -0,0 +1,315 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.AbstractMarkdownStreamParser;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.MarkdownParsingSession;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.parser.MarkdownParsingSession.Change;
+import org.xwiki.rendering.parser.StreamParser;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.vladsch.flexmark.util.data.DataKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link MarkdownParsingSession}.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class MarkdownParsingSessionTest
+{
+    private static final String SOURCE = "# Title\n\nFirst paragraph with a [link][ref].\n\n* item 1\n* item 2\n\n"
+        + "Second paragraph.\n\n    code\n\nThird paragraph.\n\n[ref]: http://xwiki.org\n";
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private AbstractMarkdownStreamParser parser;
+
+    private MarkdownParsingSession session;
+
+    private String source;
+
+    /**
+     * The events of a full parse of the current source.
+     */
+    private List<String> sourceEvents;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.parser = this.mocker.getInstance(StreamParser.class, "markdown/1.2");
+        this.session = this.parser.createSession();
+        parse(SOURCE);
+    }
+
+    @Test
+    public void updateParagraph() throws Exception
+    {
+        PrintRenderer renderer = createEventRenderer();
+        Change change = edit(this.source.indexOf("Second") + 6, 0, " *modified*", renderer);
+
+        // The list preceding the paragraph is parsed again too.
+        assertFalse(change.isFullParse());
+        assertEquals(2, change.getFirstBlock());
+        assertEquals(2, change.getRemovedBlocks());
+        assertEquals(2, change.getAddedBlocks());
+        String events = renderer.getPrinter().toString();
+        assertTrue(events.contains("onWord [modified]"));
+        assertFalse(events.contains("onWord [Title]"));
+    }
+
+    @Test
+    public void updateParagraphUsingReference() throws Exception
+    {
+        PrintRenderer renderer = createEventRenderer();
+        Change change = edit(this.source.indexOf("First") + 5, 0, " modified", renderer);
+
+        assertFalse(change.isFullParse());
+        assertTrue(renderer.getPrinter().toString().contains("Reference = [http://xwiki.org]"));
+    }
+
+    @Test
+    public void mergeAndSplitParagraphs() throws Exception
+    {
+        // Removing the blank line between the last two paragraphs merges them.
+        Change change = edit(this.source.indexOf("\n\nThird"), 1, "", createEventRenderer());
+        assertFalse(change.isFullParse());
+        // Turn the paragraph into a setext heading.
+        edit(this.source.indexOf("Third"), 0, "Heading\n===\n", createEventRenderer());
+        edit(this.source.indexOf("item 2"), 0, "\n\n", createEventRenderer());
+    }
+
+    @Test
+    public void openFence() throws Exception
+    {
+        // An unclosed fence goes until the end of the content.
+        edit(this.source.indexOf("Second"), 0, "```\n", createEventRenderer());
+        // And closing it reverts to the previous blocks.
+        edit(this.source.indexOf("Third"), 0, "```\n", createEventRenderer());
+    }
+
+    @Test
+    public void updateDefinition() throws Exception
+    {
+        Change change = edit(this.source.indexOf("xwiki.org"), 0, "www.", createEventRenderer());
+        assertTrue(change.isFullParse());
+
+        change = edit(this.source.indexOf("Second"), 0, "*[HTML]: Hyper Text Markup Language\n\n",
+            createEventRenderer());
+        assertTrue(change.isFullParse());
+    }
+
+    @Test
+    public void updateHeadingToDuplicateId() throws Exception
+    {
+        parse("# Title\n\nText.\n\n# Other\n\nMore text.\n");
+
+        PrintRenderer renderer = createEventRenderer();
+        Change change = edit(this.source.indexOf("Other"), 5, "Title", renderer);
+
+        assertFalse(change.isFullParse());
+        assertTrue(renderer.getPrinter().toString().contains("beginHeader [1, HTitle-1]"));
+    }
+
+    @Test
+    public void updateHeadingChangingFollowingIds() throws Exception
+    {
+        parse("# Title\n\nText.\n\n# Other\n\nMore text.\n\n# Title\n");
+
+        // The id of the last heading becomes HTitle-2.
+        PrintRenderer renderer = createEventRenderer();
+        Change change = edit(this.source.indexOf("Other"), 5, "Title", renderer);
+
+        assertTrue(change.isFullParse());
+        assertTrue(renderer.getPrinter().toString().contains("beginHeader [1, HTitle-2]"));
+
+        // Updating a heading that keeps its id doesn't require a full parse.
+        change = edit(this.source.indexOf("More"), 0, "Some ", createEventRenderer());
+        assertFalse(change.isFullParse());
+    }
+
+    @Test
+    public void updateWithMaxInputLength() throws Exception
+    {
+        setLimit(MarkdownOptions.MAX_INPUT_LENGTH, SOURCE.length() + 5);
+
+        // The truncated end of the content depends on the whole source.
+        PrintRenderer renderer = createEventRenderer();
+        Change change = edit(this.source.indexOf("Second") + 6, 0, " modified", renderer);
+        assertTrue(change.isFullParse());
+        assertTrue(renderer.getPrinter().toString().contains(MarkdownOptions.MAX_INPUT_LENGTH.getName()));
+
+        // Even when the content becomes short enough again.
+        change = edit(this.source.indexOf(" modified"), 9, "", createEventRenderer());
+        assertTrue(change.isFullParse());
+
+        change = edit(this.source.indexOf("Second") + 6, 0, " one", createEventRenderer());
+        assertFalse(change.isFullParse());
+    }
+
+    @Test
+    public void updateWithMaxNodes() throws Exception
+    {
+        setLimit(MarkdownOptions.MAX_NODES, 6);
+
+        PrintRenderer renderer = createEventRenderer();
+        Change change = edit(this.source.indexOf("Second") + 6, 0, " *modified*", renderer);
+        assertTrue(change.isFullParse());
+        assertTrue(renderer.getPrinter().toString().contains(MarkdownOptions.MAX_NODES.getName()));
+    }
+
+    @Test
+    public void updateCancelled() throws Exception
+    {
+        List<MarkdownParsingSession.TopLevelBlock> blocks = this.session.getBlocks();
+        PrintRenderer renderer = createEventRenderer();
+        MarkdownCancellationToken token = new MarkdownCancellationToken();
+        token.cancel();
+        int offset = this.source.indexOf("Second");
+        String newSource = this.source.substring(0, offset) + "New " + this.source.substring(offset);
+
+        try {
+            this.session.update(newSource, offset, 0, renderer, token);
+            fail("The update should have been aborted");
+        } catch (MarkdownCancelledException expected) {
+            assertEquals("", renderer.getPrinter().toString());
+            assertEquals(toString(blocks), toString(this.session.getBlocks()));
+        }
+
+        try {
+            this.session.parse(newSource, renderer, token);
+            fail("The parse should have been aborted");
+        } catch (MarkdownCancelledException expected) {
+            assertEquals("", renderer.getPrinter().toString());
+        }
+
+        // The session can still be updated.
+        Change change = edit(offset, 0, "New ", createEventRenderer());
+        assertFalse(change.isFullParse());
+    }
+
+    /**
+     * Sets a limit and starts a new session, which reads the configuration when it is created.
+     */
+    private void setLimit(DataKey<Integer> limit, int value) throws Exception
+    {
+        DefaultMarkdownConfiguration configuration = this.mocker.getInstance(MarkdownConfiguration.class);
+        configuration.update(options -> options.set(limit, value));
+        this.session = this.parser.createSession();
+        parse(SOURCE);
+    }
+
+    private void parse(String newSource) throws Exception
+    {
+        PrintRenderer renderer = createEventRenderer();
+        this.source = newSource;
+        this.session.parse(this.source, renderer);
+        this.sourceEvents = getBlockEvents(renderer);
+    }
+
+    private Change edit(int offset, int removedLength, String insertedText, PrintRenderer renderer) throws Exception
+    {
+        this.source =
+            this.source.substring(0, offset) + insertedText + this.source.substring(offset + removedLength);
+        Change change = this.session.update(this.source, offset, removedLength, renderer);
+
+        // The session should know the same blocks as a full parse of the new source.
+        MarkdownParsingSession fullSession = this.parser.createSession();
+        PrintRenderer fullRenderer = createEventRenderer();
+        fullSession.parse(this.source, fullRenderer);
+        assertEquals(toString(fullSession.getBlocks()), toString(this.session.getBlocks()));
+
+        // And the events it sent should replace those of the removed blocks in the events of the previous source to
+        // give the events of a full parse.
+        List<String> fullEvents = getBlockEvents(fullRenderer);
+        List<String> changedEvents = getBlockEvents(renderer);
+        if (change.isFullParse()) {
+            assertEquals(fullEvents, changedEvents);
+        } else {
+            assertTrue("Events " + changedEvents + " don't fit in " + fullEvents,
+                isSplice(this.sourceEvents, changedEvents, fullEvents));
+        }
+        this.sourceEvents = fullEvents;
+
+        return change;
+    }
+
+    /**
+     * @return {@code true} if the expected events are the previous events with a range replaced by the changed events
+     */
+    private boolean isSplice(List<String> previousEvents, List<String> changedEvents, List<String> expectedEvents)
+    {
+        for (int start = 0; start <= expectedEvents.size() - changedEvents.size(); start++) {
+            int end = start + changedEvents.size();
+            int suffixLength = expectedEvents.size() - end;
+            if (start + suffixLength <= previousEvents.size()
+                && expectedEvents.subList(start, end).equals(changedEvents)
+                && expectedEvents.subList(0, start).equals(previousEvents.subList(0, start))
+                && expectedEvents.subList(end, expectedEvents.size())
+                    .equals(previousEvents.subList(previousEvents.size() - suffixLength, previousEvents.size())))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the events generated for the blocks, without the document and section events which depend on the
+     *         parsed range
+     */
+    private List<String> getBlockEvents(PrintRenderer renderer)
+    {
+        return Arrays.stream(renderer.getPrinter().toString().split("\n"))
+            .filter(event -> !event.matches("(begin|end)(Document|Section)\\b.*"))
+            .collect(Collectors.toList());
+    }
+
+    private String toString(List<MarkdownParsingSession.TopLevelBlock> blocks)
+    {
+        return blocks.stream()
+            .map(block -> block.getType().getSimpleName() + '[' + block.getStart() + ',' + block.getEnd() + ']')
+            .collect(Collectors.joining(" "));
+    }
+
+    private PrintRenderer createEventRenderer() throws Exception
+    {
+        PrintRendererFactory factory = this.mocker.getInstance(PrintRendererFactory.class, "event/1.0");
+        return factory.createRenderer(new DefaultWikiPrinter());
+    }
+}
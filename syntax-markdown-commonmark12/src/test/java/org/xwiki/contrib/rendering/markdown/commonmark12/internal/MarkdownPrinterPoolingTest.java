@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer.AbstractMarkdownRenderer;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer.Markdown12ChainingRenderer;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer.MarkdownEscapeWikiPrinter;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.chaining.ChainingListener;
+import org.xwiki.rendering.listener.chaining.ListenerChain;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.reference.ResourceReferenceSerializer;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies that the printers accumulating nested content (headings, link labels, table cells...) are reused while
+ * rendering to Markdown.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class MarkdownPrinterPoolingTest
+{
+    private static final int LINKS = 100;
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private Parser parser;
+
+    private BlockRenderer blockRenderer;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.parser = this.mocker.getInstance(Parser.class, "markdown/1.2");
+        this.blockRenderer = this.mocker.getInstance(BlockRenderer.class, "markdown/1.2");
+    }
+
+    @Test
+    public void renderNestedContent() throws Exception
+    {
+        assertEquals("# Title with a [_nested_ link](http://xwiki.org)\n\n"
+            + "| [a](http://a.org) |   [**b** c](http://b.org)   |\n"
+            + "| ----------------- | --------------------------- |\n"
+            + "|  x^y^ and [z][1]  | [first](a) and [second](b*) |",
+            render(parse("# Title with a [*nested* link](http://xwiki.org)\n\n"
+                + "| [a](http://a.org) | [**b** c](http://b.org) |\n|---|---|\n"
+                + "| x^y^ and [z][1] | [first](a) and [second](b*) |\n")));
+    }
+
+    @Test
+    public void renderLinksReusingLabelPrinter() throws Exception
+    {
+        List<MarkdownEscapeWikiPrinter> nestedPrinters = new ArrayList<>();
+        PrinterRecordingRenderer renderer = new PrinterRecordingRenderer(nestedPrinters);
+        renderer.initialize();
+        DefaultWikiPrinter printer = new DefaultWikiPrinter();
+        renderer.setPrinter(printer);
+
+        parse(StringUtils.repeat("[label](http://xwiki.org) ", LINKS)).traverse(renderer);
+
+        assertEquals(StringUtils.repeat("[label](http://xwiki.org)", " ", LINKS), printer.toString());
+        // Each link label is printed with the same printer, emptied once the label is read.
+        assertEquals(LINKS, nestedPrinters.size());
+        for (MarkdownEscapeWikiPrinter nestedPrinter : nestedPrinters) {
+            assertSame(nestedPrinters.get(0), nestedPrinter);
+        }
+    }
+
+    private XDOM parse(String input) throws Exception
+    {
+        return this.parser.parse(new StringReader(input));
+    }
+
+    private String render(XDOM xdom)
+    {
+        DefaultWikiPrinter printer = new DefaultWikiPrinter();
+        this.blockRenderer.render(xdom, printer);
+        return printer.toString();
+    }
+
+    /**
+     * Records the nested printers pushed while rendering.
+     */
+    private final class PrinterRecordingRenderer extends AbstractMarkdownRenderer
+    {
+        private final List<MarkdownEscapeWikiPrinter> nestedPrinters;
+
+        PrinterRecordingRenderer(List<MarkdownEscapeWikiPrinter> nestedPrinters) throws Exception
+        {
+            this.nestedPrinters = nestedPrinters;
+            this.linkReferenceSerializer =
+                mocker.getInstance(ResourceReferenceSerializer.class, "markdown/1.2/link");
+            this.imageReferenceSerializer =
+                mocker.getInstance(ResourceReferenceSerializer.class, "markdown/1.2/image");
+        }
+
+        @Override
+        protected ChainingListener createXWikiSyntaxChainingRenderer(ListenerChain chain)
+        {
+            return new Markdown12ChainingRenderer(chain, this.linkReferenceSerializer, this.imageReferenceSerializer,
+                getConfiguration())
+            {
+                @Override
+                protected MarkdownEscapeWikiPrinter pushNestedPrinter()
+                {
+                    MarkdownEscapeWikiPrinter printer = super.pushNestedPrinter();
+                    nestedPrinters.add(printer);
+                    return printer;
+                }
+            };
+        }
+
+        @Override
+        protected MarkdownConfiguration getConfiguration()
+        {
+            try {
+                return mocker.getInstance(MarkdownConfiguration.class);
+            } catch (ComponentLookupException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.MarkdownOptions.TableRendering;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer.AbstractMarkdownRenderer;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer.TableColumnWidths;
+import org.xwiki.rendering.block.TableBlock;
+import org.xwiki.rendering.block.TableCellBlock;
+import org.xwiki.rendering.block.TableRowBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.Listener;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies the rendering of tables to Markdown, buffered, streamed or in two passes.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+@AllComponents
+public class MarkdownTableRenderingTest
+{
+    private static final String TABLE = "Title\n\n| Name | Description |\n|---|---|\n| a | *first* letter |\n"
+        + "| bb | second |\n\nText\n";
+
+    private static final int ROWS = 1000;
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private Parser parser;
+
+    private BlockRenderer blockRenderer;
+
+    private DefaultMarkdownConfiguration configuration;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.parser = this.mocker.getInstance(Parser.class, "markdown/1.2");
+        this.blockRenderer = this.mocker.getInstance(BlockRenderer.class, "markdown/1.2");
+        this.configuration = this.mocker.getInstance(MarkdownConfiguration.class);
+    }
+
+    @Test
+    public void renderBuffered() throws Exception
+    {
+        assertEquals("Title\n\n| Name |  Description   |\n| ---- | -------------- |\n|  a   | _first_ letter |\n"
+            + "|  bb  |     second     |\n\nText", render(TABLE));
+    }
+
+    @Test
+    public void renderStreaming() throws Exception
+    {
+        setTableRendering(TableRendering.STREAMING);
+
+        assertEquals("Title\n\n| Name | Description |\n| --- | --- |\n| a | _first_ letter |\n| bb | second |\n\nText",
+            render(TABLE));
+    }
+
+    @Test
+    public void renderInTwoPasses() throws Exception
+    {
+        for (String input : MarkdownTestInputs.getTestInputs()) {
+            String expected = render(input);
+            setTableRendering(TableRendering.TWO_PASS);
+            assertEquals(input, expected, render(input));
+            setTableRendering(TableRendering.BUFFERED);
+        }
+    }
+
+    @Test
+    public void renderNestedTableInTwoPasses() throws Exception
+    {
+        TableBlock innerTable = new TableBlock(Arrays.asList(
+            new TableRowBlock(Arrays.asList(new TableCellBlock(Arrays.asList(new WordBlock("inner")))))));
+        XDOM xdom = new XDOM(Arrays.asList(new TableBlock(Arrays.asList(new TableRowBlock(
+            Arrays.asList(new TableCellBlock(Arrays.asList(new WordBlock("outer"))),
+                new TableCellBlock(Arrays.asList(innerTable))))))));
+        String expected = render(xdom);
+
+        setTableRendering(TableRendering.TWO_PASS);
+        assertEquals(expected, render(xdom));
+    }
+
+    @Test
+    public void renderLargeTable() throws Exception
+    {
+        // Buffered tables are printed at their end only.
+        renderLargeTable(TableRendering.BUFFERED, null, false);
+
+        // Streamed tables print each row at its end, so that they keep at most one row in memory.
+        renderLargeTable(TableRendering.STREAMING, null, true);
+
+        // So do tables rendered in two passes, once their columns are measured.
+        TableColumnWidths tableColumnWidths = new TableColumnWidths();
+        renderLargeTable(TableRendering.BUFFERED, tableColumnWidths, false);
+        tableColumnWidths.setMeasured();
+        renderLargeTable(TableRendering.BUFFERED, tableColumnWidths, true);
+
+        // Without the block renderer to measure their columns first, they're buffered.
+        renderLargeTable(TableRendering.TWO_PASS, null, false);
+    }
+
+    private String render(String input) throws Exception
+    {
+        return render(this.parser.parse(new StringReader(input)));
+    }
+
+    private String render(XDOM xdom)
+    {
+        DefaultWikiPrinter printer = new DefaultWikiPrinter();
+        this.blockRenderer.render(xdom, printer);
+        return printer.toString();
+    }
+
+    private void setTableRendering(TableRendering tableRendering)
+    {
+        this.configuration.update(options -> options.set(MarkdownOptions.TABLE_RENDERING, tableRendering));
+    }
+
+    /**
+     * Renders a large table from events, checking after each row whether the previous one has already been printed.
+     */
+    private void renderLargeTable(TableRendering tableRendering, TableColumnWidths tableColumnWidths,
+        boolean printedRows) throws Exception
+    {
+        setTableRendering(tableRendering);
+        PrintRendererFactory factory = this.mocker.getInstance(PrintRendererFactory.class, "markdown/1.2");
+        DefaultWikiPrinter printer = new DefaultWikiPrinter();
+        AbstractMarkdownRenderer renderer = (AbstractMarkdownRenderer) factory.createRenderer(printer);
+        renderer.setTableColumnWidths(tableColumnWidths);
+
+        renderer.beginDocument(MetaData.EMPTY);
+        renderer.beginTable(Listener.EMPTY_PARAMETERS);
+        for (int i = 0; i < ROWS; i++) {
+            renderer.beginTableRow(Listener.EMPTY_PARAMETERS);
+            renderCell(renderer, "cell" + i);
+            renderCell(renderer, "value" + i);
+            renderer.endTableRow(Listener.EMPTY_PARAMETERS);
+            // The renderer looks ahead a few events, so only the previous row is sure to be rendered.
+            if (i > 0) {
+                String previousCell = "value" + (i - 1) + " ";
+                assertEquals(previousCell, printedRows, printer.getBuffer().lastIndexOf(previousCell) >= 0);
+            }
+        }
+        renderer.endTable(Listener.EMPTY_PARAMETERS);
+        renderer.endDocument(MetaData.EMPTY);
+    }
+
+    private void renderCell(AbstractMarkdownRenderer renderer, String word)
+    {
+        renderer.beginTableCell(Listener.EMPTY_PARAMETERS);
+        renderer.onWord(word);
+        renderer.endTableCell(Listener.EMPTY_PARAMETERS);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.rendering.markdown.commonmark12.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Collects the Markdown inputs of the rendering test files, so that tests can compare different ways of parsing them.
+ *
+ * @version $Id$
+ * @since 8.9
+ */
+public final class MarkdownTestInputs
+{
+    private static final String INPUT_PREFIX = ".input|markdown/1.2";
+
+    private static final String INPUT_EXPECT_PREFIX = ".inputexpect|markdown/1.2";
+
+    private MarkdownTestInputs()
+    {
+        // Utility class
+    }
+
+    /**
+     * @return the content of the text files and the Markdown inputs of the test files found in the {@code markdown12}
+     *         test resources
+     * @throws IOException if the test resources cannot be read
+     */
+    public static List<String> getTestInputs() throws IOException
+    {
+        Path root =
+            new File(MarkdownTestInputs.class.getClassLoader().getResource("markdown12").getFile()).toPath();
+        List<String> inputs = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+                if (path.toString().endsWith(".txt")) {
+                    inputs.add(content);
+                } else {
+                    inputs.addAll(getInputs(content));
+                }
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * @return the Markdown inputs of a rendering test file
+     */
+    private static List<String> getInputs(String content)
+    {
+        List<String> inputs = new ArrayList<>();
+        StringBuilder input = null;
+        for (String line : Arrays.asList(content.split("\n", -1))) {
+            if (line.startsWith(INPUT_PREFIX) || line.startsWith(INPUT_EXPECT_PREFIX)) {
+                input = new StringBuilder();
+            } else if (line.startsWith(".")) {
+                if (input != null && !line.startsWith(".#")) {
+                    inputs.add(input.toString());
+                    input = null;
+                }
+            } else if (input != null) {
+                input.append(line).append('\n');
+            }
+        }
+        return inputs;
+    }
+}
@@ -48,7 +48,7 @@ public class MarkdownGitHubConfiguration extends AbstractMarkdownConfiguration i
     private Logger logger;
 
     @Override
-    public MutableDataHolder getOptions()
+    protected MutableDataHolder createOptions()
     {
         return getDefaultOptions(ParserEmulationProfile.GITHUB, Collections.emptyList());
     }
@@ -20,7 +20,7 @@
 package org.xwiki.contrib.rendering.markdown.github10.internal.renderer;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.rendering.internal.renderer.AbstractBlockRenderer;
+import org.xwiki.contrib.rendering.markdown.commonmark12.internal.renderer.AbstractMarkdownBlockRenderer;
 import org.xwiki.rendering.renderer.PrintRendererFactory;
 
 import javax.inject.Inject;
@@ -36,7 +36,7 @@ import javax.inject.Singleton;
 @Component
 @Named("markdown+github/1.0")
 @Singleton
-public class MarkdownGitHubBlockRenderer extends AbstractBlockRenderer
+public class MarkdownGitHubBlockRenderer extends AbstractMarkdownBlockRenderer
 {
     @Inject
     @Named("markdown+github/1.0")